@@ -0,0 +1,147 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end throughput of jobs reading objects with {@link S3ObjectInputFormat} from {@link S3LocalServer} with
+ * local job runner. Server adds latency (log-normal, with given median), limits bandwidth of connections and
+ * throttles given fraction of requests, so the whole path including SDK client, request governor, readers and the
+ * framework is measured under S3-like conditions. Objects and megabytes read per second are reported next to the
+ * rate of jobs
+ *
+ * @author seljaz
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1, time = 10)
+@Measurement(iterations = 3, time = 20)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=benchmark-log4j.properties")
+public class S3EndToEndBenchmark {
+
+	/**
+	 * Bucket name which is not DNS compatible, so the client addresses it by path
+	 */
+	static final String BUCKET = "Benchmark_Bucket";
+
+	@Param({ "500" })
+	int numOfObjects;
+
+	@Param({ "65536", "1048576" })
+	int objectSize;
+
+	@Param({ "0", "20" })
+	int medianLatency;
+
+	@Param({ "0" })
+	long bytesPerSecond;
+
+	@Param({ "0", "0.05" })
+	double throttleProbability;
+
+	@Param({ "0", "8" })
+	int prefetchObjects;
+
+	S3LocalServer server;
+	Configuration conf;
+
+	/**
+	 * Objects and megabytes read, reported per second
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Throughput {
+		public long objects;
+		public double megabytes;
+	}
+
+	public static class ContentMapper extends Mapper<S3ObjectSummaryWritable, S3ObjectWritable, NullWritable, NullWritable> {
+		byte[] buffer = new byte[64 * 1024];
+
+		@Override
+		protected void map(S3ObjectSummaryWritable key, S3ObjectWritable value, Context context) throws IOException {
+			InputStream in = value.getObjectContent();
+			while (in.read(buffer) >= 0) {
+			}
+			in.close();
+		}
+	}
+
+	@Setup
+	public void setup() throws Exception {
+		InMemoryS3Client.reset();
+		InMemoryS3Client.putObjects(BUCKET, "data/", numOfObjects, new byte[objectSize]);
+
+		server = new S3LocalServer();
+		server.setListLatency(medianLatency > 0 ? S3LocalServer.Latency.logNormal(medianLatency * 2, 0.5)
+				: S3LocalServer.Latency.none());
+		server.setGetLatency(medianLatency > 0 ? S3LocalServer.Latency.logNormal(medianLatency, 0.5)
+				: S3LocalServer.Latency.none());
+		server.setBytesPerSecond(bytesPerSecond);
+		server.setThrottleProbability(throttleProbability);
+
+		conf = new Configuration();
+		conf.set("mapred.job.tracker", "local");
+		conf.set("fs.default.name", "file:///");
+		conf.set(S3ClientFactory.S3_ENDPOINT, server.getEndpoint());
+		conf.set(S3ClientFactory.S3_ACCESS_KEY, "accessKey");
+		conf.set(S3ClientFactory.S3_SECRET_KEY, "secretKey");
+		conf.setBoolean(S3ClientFactory.S3_CLIENT_GOVERNOR, true);
+		conf.set(S3InputFormat.S3_BUCKET_NAME, BUCKET);
+		conf.set(S3InputFormat.S3_KEY_PREFIX, "data/");
+		conf.setInt(S3InputFormat.S3_NUM_OF_KEYS_PER_MAPPER, numOfObjects / 4);
+		conf.setInt(S3InputFormat.S3_PREFETCH_OBJECTS, prefetchObjects);
+	}
+
+	@TearDown
+	public void tearDown() {
+		server.stop();
+		InMemoryS3Client.reset();
+	}
+
+	@Benchmark
+	public void readObjects(Throughput throughput) throws Exception {
+		Job job = new Job(conf, "S3 end-to-end benchmark");
+		job.setInputFormatClass(S3ObjectInputFormat.class);
+		job.setMapperClass(ContentMapper.class);
+		job.setNumReduceTasks(0);
+		job.setOutputFormatClass(NullOutputFormat.class);
+
+		// waitForCompletion() checks the job only every 5 seconds
+		job.submit();
+		while (!job.isComplete()) {
+			Thread.sleep(10);
+		}
+		if (!job.isSuccessful()) {
+			throw new IllegalStateException("Job failed");
+		}
+
+		Counters counters = job.getCounters();
+		throughput.objects += counters.findCounter("org.apache.hadoop.mapred.Task$Counter", "MAP_INPUT_RECORDS")
+				.getValue();
+		throughput.megabytes += counters.findCounter(S3Counter.BYTES_READ).getValue() / 1e6;
+	}
+}
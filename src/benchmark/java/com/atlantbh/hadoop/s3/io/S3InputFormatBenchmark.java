@@ -0,0 +1,73 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.JobID;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of split planning ({@link S3InputFormat#getSplits}) of the bucket with millions of keys, listed from
+ * {@link InMemoryS3Client}. Measures listing and split building without S3 latency
+ *
+ * @author seljaz
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "-Dlog4j.configuration=benchmark-log4j.properties" })
+public class S3InputFormatBenchmark {
+
+	@Param({ "1000000", "10000000" })
+	int numOfKeys;
+
+	@Param({ "false", "true" })
+	boolean embedKeys;
+
+	S3ObjectSummaryInputFormat format;
+	JobContext context;
+
+	@Setup
+	public void setup() throws Exception {
+		InMemoryS3Client.reset();
+		InMemoryS3Client.putObjects("bucket", "logs/", numOfKeys, new byte[100]);
+
+		Configuration conf = new Configuration(false);
+		conf.set(S3ClientFactory.S3_CLIENT_CLASS, InMemoryS3Client.class.getName());
+		conf.set(S3InputFormat.S3_BUCKET_NAME, "bucket");
+		conf.set(S3InputFormat.S3_KEY_PREFIX, "logs/");
+		conf.setInt(S3InputFormat.S3_MAX_KEYS, 1000);
+		conf.setInt(S3InputFormat.S3_NUM_OF_KEYS_PER_MAPPER, 1000);
+		conf.setBoolean(S3InputFormat.S3_EMBED_KEYS, embedKeys);
+
+		format = new S3ObjectSummaryInputFormat();
+		context = new JobContext(conf, new JobID());
+	}
+
+	@TearDown
+	public void tearDown() {
+		InMemoryS3Client.reset();
+	}
+
+	@Benchmark
+	public List<InputSplit> getSplits() throws Exception {
+		return format.getSplits(context);
+	}
+}
@@ -0,0 +1,97 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmark of record reader throughput (records per second) reading split of {@link #NUM_OF_OBJECTS} objects from
+ * {@link InMemoryS3Client}
+ *
+ * @author seljaz
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=benchmark-log4j.properties")
+public class S3RecordReaderBenchmark {
+
+	static final int NUM_OF_OBJECTS = 1000;
+
+	@Param({ "1024", "65536" })
+	int objectSize;
+
+	Configuration conf;
+	byte[] buffer = new byte[64 * 1024];
+
+	@Setup
+	public void setup() {
+		InMemoryS3Client.reset();
+		InMemoryS3Client.putObjects("bucket", "logs/", NUM_OF_OBJECTS, new byte[objectSize]);
+
+		conf = new Configuration(false);
+		conf.set(S3ClientFactory.S3_CLIENT_CLASS, InMemoryS3Client.class.getName());
+	}
+
+	@TearDown
+	public void tearDown() {
+		InMemoryS3Client.reset();
+	}
+
+	S3InputSplit createSplit() {
+		S3InputSplit split = new S3InputSplit();
+		split.setBucketName("bucket");
+		split.setKeyPrefix("logs/");
+		split.setSize(NUM_OF_OBJECTS);
+		return split;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_OF_OBJECTS)
+	public void readObjectSummaries(Blackhole blackhole) throws Exception {
+		S3ObjectSummaryRecordReader reader = new S3ObjectSummaryRecordReader();
+		reader.initialize(createSplit(), new TaskAttemptContext(conf, new TaskAttemptID()));
+
+		while (reader.nextKeyValue()) {
+			blackhole.consume(reader.getCurrentKey());
+			blackhole.consume(reader.getCurrentValue());
+		}
+		reader.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_OF_OBJECTS)
+	public void readObjects(Blackhole blackhole) throws Exception {
+		S3ObjectRecordReader reader = new S3ObjectRecordReader();
+		reader.initialize(createSplit(), new TaskAttemptContext(conf, new TaskAttemptID()));
+
+		while (reader.nextKeyValue()) {
+			InputStream in = reader.getCurrentValue().getObjectContent();
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				blackhole.consume(read);
+			}
+		}
+		reader.close();
+	}
+}
@@ -0,0 +1,199 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.ByteArrayInputStream;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.Owner;
+
+/**
+ * Benchmark of serialization ({@link Writable#write}) and deserialization ({@link Writable#readFields}) of
+ * {@link S3ObjectSummaryWritable}, {@link S3ObjectWritable} and {@link S3InputSplit}. Buffers are reused, so only the
+ * cost of the writables is measured
+ *
+ * @author seljaz
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=benchmark-log4j.properties")
+public class S3WritableBenchmark {
+
+	@Param({ "1024", "65536" })
+	int contentSize;
+
+	S3ObjectSummaryWritable objectSummary = new S3ObjectSummaryWritable();
+	S3ObjectWritable object = new S3ObjectWritable();
+	S3InputSplit split = new S3InputSplit();
+
+	byte[] content;
+	byte[] serializedSummary;
+	byte[] serializedObject;
+	byte[] serializedSplit;
+
+	DataOutputBuffer out = new DataOutputBuffer();
+	DataInputBuffer in = new DataInputBuffer();
+
+	@Setup
+	public void setup() throws Exception {
+		objectSummary.setBucketName("bucket");
+		objectSummary.setKey("logs/2013/01/access-0000001000.log");
+		objectSummary.setETag("0123456789abcdef0123456789abcdef");
+		objectSummary.setStorageClass("STANDARD");
+		objectSummary.setOwner(new Owner("id", "name"));
+		objectSummary.setSize(contentSize);
+		objectSummary.setLastModified(new Date());
+
+		content = new byte[contentSize];
+		object.setBucketName("bucket");
+		object.setKey("logs/2013/01/access-0000001000.log");
+		object.setObjectMetadata(new ObjectMetadata());
+		object.getObjectMetadata().setContentLength(contentSize);
+		object.getObjectMetadata().setLastModified(new Date());
+		object.getObjectMetadata().setContentType("text/plain");
+
+		split.setBucketName("bucket");
+		split.setKeyPrefix("logs/2013/01/");
+		split.setMarker("logs/2013/01/access-0000001000.log");
+		split.setLastKey("logs/2013/01/access-0000001999.log");
+		split.setSize(1000);
+		split.setObjectsLength(1000L * contentSize);
+
+		serializedSummary = serialize(objectSummary);
+		serializedSplit = serialize(split);
+		object.setObjectContent(new ByteArrayInputStream(content));
+		serializedObject = serialize(object);
+	}
+
+	byte[] serialize(Writable writable) throws Exception {
+		out.reset();
+		writable.write(out);
+		byte[] bytes = new byte[out.getLength()];
+		System.arraycopy(out.getData(), 0, bytes, 0, bytes.length);
+		return bytes;
+	}
+
+	@Benchmark
+	public DataOutputBuffer writeObjectSummary() throws Exception {
+		out.reset();
+		objectSummary.write(out);
+		return out;
+	}
+
+	@Benchmark
+	public S3ObjectSummaryWritable readObjectSummary() throws Exception {
+		in.reset(serializedSummary, serializedSummary.length);
+		objectSummary.readFields(in);
+		return objectSummary;
+	}
+
+	@Benchmark
+	public DataOutputBuffer writeObject() throws Exception {
+		out.reset();
+		object.setObjectContent(new ByteArrayInputStream(content));
+		object.write(out);
+		return out;
+	}
+
+	@Benchmark
+	public S3ObjectWritable readObject() throws Exception {
+		in.reset(serializedObject, serializedObject.length);
+		object.readFields(in);
+		return object;
+	}
+
+	@Benchmark
+	public DataOutputBuffer writeSplit() throws Exception {
+		out.reset();
+		split.write(out);
+		return out;
+	}
+
+	@Benchmark
+	public S3InputSplit readSplit() throws Exception {
+		in.reset(serializedSplit, serializedSplit.length);
+		split.readFields(in);
+		return split;
+	}
+
+	/**
+	 * 1M splits of the bucket with sequentially named keys, as written to split file of a job reading 1G keys
+	 */
+	@State(Scope.Thread)
+	public static class MillionSplits {
+		static final int COUNT = 1000000;
+
+		S3InputSplit split = new S3InputSplit();
+		DataOutputBuffer out = new DataOutputBuffer();
+		DataInputBuffer in = new DataInputBuffer();
+		byte[] serialized;
+
+		@Setup
+		public void setup() throws Exception {
+			split.setBucketName("bucket-name");
+			split.setKeyPrefix("logs/2013/01/");
+			split.setSize(1000);
+
+			write();
+			serialized = new byte[out.getLength()];
+			System.arraycopy(out.getData(), 0, serialized, 0, serialized.length);
+		}
+
+		DataOutputBuffer write() throws Exception {
+			out.reset();
+			for (int i = 0; i < COUNT; i++) {
+				split.setMarker(key(i * 1000L));
+				split.setLastKey(key(i * 1000L + 999));
+				split.setObjectsLength(i * 1000L * 1024);
+				split.write(out);
+			}
+			return out;
+		}
+
+		static String key(long n) {
+			char[] key = "logs/2013/01/access-0000000000.log".toCharArray();
+			for (int i = 29; n > 0; i--, n /= 10) {
+				key[i] = (char) ('0' + n % 10);
+			}
+			return new String(key);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(MillionSplits.COUNT)
+	public DataOutputBuffer writeMillionSplits(MillionSplits splits) throws Exception {
+		return splits.write();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(MillionSplits.COUNT)
+	public S3InputSplit readMillionSplits(MillionSplits splits) throws Exception {
+		splits.in.reset(splits.serialized, splits.serialized.length);
+		S3InputSplit split = null;
+		for (int i = 0; i < MillionSplits.COUNT; i++) {
+			split = new S3InputSplit();
+			split.readFields(splits.in);
+		}
+		return split;
+	}
+}
@@ -0,0 +1,39 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+/**
+ * S3 input format combining many small objects into single record. Records are read in form of (key, value) =
+ * ("bucket/first key", {@link S3ObjectBatchWritable}), so mapper is called once per batch of objects instead of once
+ * per object.
+ * 
+ * @author seljaz
+ *
+ */
+public class CombineS3InputFormat extends S3InputFormat<Text, S3ObjectBatchWritable> {
+
+	/**
+	 * Maximal number of objects in single batch. Default value is 1000
+	 */
+	static String S3_BATCH_NUM_OF_OBJECTS = "s3.input.batch.numOfObjects";
+	/**
+	 * Maximal total size (in bytes) of objects in single batch. Object larger than that is put in batch of its own.
+	 * Default value is 64 MB
+	 */
+	static String S3_BATCH_NUM_OF_BYTES = "s3.input.batch.numOfBytes";
+
+	public CombineS3InputFormat() throws IOException {
+		super();
+	}
+
+	@Override
+	public RecordReader<Text, S3ObjectBatchWritable> createRecordReader(InputSplit split, TaskAttemptContext context)
+			throws IOException, InterruptedException {
+		return new S3ObjectBatchRecordReader();
+	}
+}
@@ -1,15 +1,21 @@
 package com.atlantbh.hadoop.s3.io;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
+import org.apache.hadoop.conf.Configuration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.amazonaws.auth.PropertiesCredentials;
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.ListObjectsRequest;
 import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 
@@ -28,14 +34,32 @@ public class S3BucketReader {
 	ListObjectsRequest listObjectsRequest;
 	ObjectListing objectListing;
 
-	GetObjectRequest getObjectRequest;
-
 	int currentPosition;
 	S3ObjectSummary currentObject = null;
+
+	/**
+	 * Marks the end of listing in read-ahead queue
+	 */
+	static final ObjectListing END_OF_LISTING = new ObjectListing();
+
+	int readAhead = 0;
+	String lastKey = null;
+	Thread readAheadThread = null;
+	BlockingQueue<ObjectListing> readAheadPages;
+	volatile Throwable readAheadFailure = null;
+
+	S3ObjectCache cache = null;
+
+	long rangedGetThreshold = 0;
+	long rangedGetPartSize;
+	int rangedGetThreads;
+
+	S3Metrics metrics = new S3Metrics();
+	S3RequestGovernor governor = new S3RequestGovernor();
  
 	/**
 	 * Initializes S3 bucket reader for reading the keys from S3 bucket, having same prefix and staring with 
-	 * key equals to marker
+	 * key equals to marker. Reader uses shared S3 client created with default client configuration
 	 * @param bucketName S3 bucket name
 	 * @param keyPrefix prefix of the keys
 	 * @param marker first key to read from
@@ -43,9 +67,92 @@ public class S3BucketReader {
 	 * @throws IOException
 	 */
 	public S3BucketReader(String bucketName, String keyPrefix, String marker, int maxKeys) throws IOException {
+		this(S3ClientFactory.getClient(new Configuration(false)), bucketName, keyPrefix, marker, maxKeys);
+	}
+
+	/**
+	 * Initializes S3 bucket reader which uses already created S3 client. As {@link AmazonS3Client} is thread safe, 
+	 * single client can be shared between multiple readers
+	 * @param s3Client S3 client used to access the bucket
+	 * @param bucketName S3 bucket name
+	 * @param keyPrefix prefix of the keys
+	 * @param marker first key to read from
+	 * @param maxKeys maximal number of keys to retrieve from S3 in single call
+	 */
+	public S3BucketReader(AmazonS3Client s3Client, String bucketName, String keyPrefix, String marker, int maxKeys) {
+		this.s3Client = s3Client;
 		listObjectsRequest = new ListObjectsRequest(bucketName, keyPrefix, marker, "", maxKeys);
-		s3Client = new AmazonS3Client(new PropertiesCredentials(
-				S3RecordReader.class.getResourceAsStream("/AwsCredentials.properties")));
+	}
+
+	/**
+	 * @return S3 client used by this reader
+	 */
+	public AmazonS3Client getS3Client() {
+		return s3Client;
+	}
+
+	/**
+	 * Sets number of listing pages requested ahead of the reader. When greater than 0, pages are listed by background
+	 * thread while keys from previous pages are being read, so the reader doesn't wait for S3 at the end of each page.
+	 * Must be set before the first key is read
+	 * @param readAhead maximal number of listed pages waiting to be read
+	 */
+	public void setReadAhead(int readAhead) {
+		this.readAhead = readAhead;
+	}
+
+	/**
+	 * Sets the last key needed by the reader, so pages after the page containing it are not requested ahead
+	 * @param lastKey last key of input split or <code>null</code> if all keys having the prefix are read
+	 */
+	public void setLastKey(String lastKey) {
+		this.lastKey = lastKey;
+	}
+
+	/**
+	 * Sets reading of large objects in byte ranges fetched concurrently. Object of at least threshold bytes is read
+	 * by {@link S3RangedInputStream}, which buffers at most one part per thread
+	 * @param threshold minimal size of object read in ranges, 0 disables ranged reading
+	 * @param partSize size of single range
+	 * @param numOfThreads number of ranges fetched at the same time
+	 */
+	public void setRangedGet(long threshold, long partSize, int numOfThreads) {
+		this.rangedGetThreshold = threshold;
+		this.rangedGetPartSize = partSize;
+		this.rangedGetThreads = numOfThreads;
+	}
+
+	/**
+	 * Sets local disk cache of object content. Objects found in the cache with the same ETag as listed are read 
+	 * without S3 request
+	 * @param cache object cache or <code>null</code> if objects are not cached
+	 */
+	public void setCache(S3ObjectCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * @return metrics of requests made by this reader
+	 */
+	public S3Metrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Sets metrics updated by this reader, so that metrics of many readers can be collected together
+	 * @param metrics metrics of S3 requests
+	 */
+	public void setMetrics(S3Metrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Sets governor limiting the number of requests in flight and retrying failed requests. Governor is usually
+	 * shared by all readers of the task
+	 * @param governor request governor
+	 */
+	public void setGovernor(S3RequestGovernor governor) {
+		this.governor = governor;
 	}
 
 	/**
@@ -53,9 +160,13 @@ public class S3BucketReader {
 	 * @return {@link S3ObjectSummary} of the key or <code>null</code> if there are no more keys to read
 	 */
 	public S3ObjectSummary getNextKey() {
+		if (readAhead > 0) {
+			return getNextKeyReadAhead();
+		}
+
 		if (objectListing == null) {
 			LOG.debug("Listing objects");
-			objectListing = s3Client.listObjects(listObjectsRequest);
+			objectListing = list(listObjectsRequest);
 		}
 
 		// we have more elements in list
@@ -67,7 +178,7 @@ public class S3BucketReader {
 			listObjectsRequest.setMarker(objectListing.getNextMarker());
 			LOG.debug("New marker is set to {}", listObjectsRequest.getMarker());
 
-			objectListing = s3Client.listObjects(listObjectsRequest);
+			objectListing = list(listObjectsRequest);
 			currentPosition = 0;
 
 			if (currentPosition < objectListing.getObjectSummaries().size()) {
@@ -83,15 +194,178 @@ public class S3BucketReader {
 		return currentObject;
 	}
 
+	S3ObjectSummary getNextKeyReadAhead() {
+		if (readAheadThread == null) {
+			startReadAhead();
+		}
+
+		while (objectListing == null || currentPosition >= objectListing.getObjectSummaries().size()) {
+			if (objectListing == END_OF_LISTING) {
+				currentObject = null;
+				return currentObject;
+			}
+
+			try {
+				objectListing = readAheadPages.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new AmazonClientException("Listing objects was interrupted", e);
+			}
+			currentPosition = 0;
+
+			if (objectListing == END_OF_LISTING && readAheadFailure != null) {
+				if (readAheadFailure instanceof RuntimeException) {
+					throw (RuntimeException) readAheadFailure;
+				}
+				throw new AmazonClientException("Listing objects failed", readAheadFailure);
+			}
+		}
+
+		currentObject = objectListing.getObjectSummaries().get(currentPosition++);
+		return currentObject;
+	}
+
+	void startReadAhead() {
+		readAheadPages = new ArrayBlockingQueue<ObjectListing>(readAhead);
+
+		readAheadThread = new Thread("S3 listing read-ahead " + listObjectsRequest.getBucketName()) {
+			@Override
+			public void run() {
+				try {
+					ObjectListing listing;
+					do {
+						LOG.debug("Listing objects after marker {}", listObjectsRequest.getMarker());
+						listing = list(listObjectsRequest);
+						readAheadPages.put(listing);
+
+						listObjectsRequest.setMarker(listing.getNextMarker());
+					} while (!isLastPage(listing));
+				} catch (InterruptedException e) {
+					// reader was closed
+					return;
+				} catch (Throwable e) {
+					readAheadFailure = e;
+				}
+
+				try {
+					readAheadPages.put(END_OF_LISTING);
+				} catch (InterruptedException e) {
+					// reader was closed
+				}
+			}
+		};
+		readAheadThread.setDaemon(true);
+		readAheadThread.start();
+	}
+
+	/**
+	 * @return <code>true</code> if there are no more keys or the page reaches the last key needed by the reader
+	 */
+	boolean isLastPage(ObjectListing listing) {
+		if (!listing.isTruncated()) {
+			return true;
+		}
+		List<S3ObjectSummary> objectSummaries = listing.getObjectSummaries();
+		return lastKey != null && !objectSummaries.isEmpty()
+				&& objectSummaries.get(objectSummaries.size() - 1).getKey().compareTo(lastKey) >= 0;
+	}
+
+	/**
+	 * Stops listing pages ahead of the reader
+	 */
+	public void close() {
+		if (readAheadThread != null) {
+			readAheadThread.interrupt();
+		}
+	}
+
 	/**
-	 * Get S3 object using object summary
+	 * Get S3 object using object summary. Large objects are read in concurrently fetched ranges if ranged reading is
+	 * enabled. This method can be called from multiple threads
 	 * 
 	 * @param objectSummary {@link S3ObjectSummary} for key to retrieve
 	 * @return {@link S3Object} read from S3
 	 */
 	public S3Object getObject(S3ObjectSummary objectSummary) {
-		getObjectRequest = new GetObjectRequest(objectSummary.getBucketName(), objectSummary.getKey());
-		return s3Client.getObject(getObjectRequest);
+		if (cache != null) {
+			S3Object object = cache.get(objectSummary);
+			if (object == null) {
+				try {
+					object = cache.put(objectSummary, getS3Object(objectSummary));
+				} catch (IOException e) {
+					throw new AmazonClientException("Cannot cache object " + objectSummary.getKey(), e);
+				}
+			}
+			return object;
+		}
+
+		return getS3Object(objectSummary);
+	}
+
+	S3Object getS3Object(S3ObjectSummary objectSummary) {
+		long start = System.nanoTime();
+
+		if (rangedGetThreshold > 0 && objectSummary.getSize() >= rangedGetThreshold) {
+			ObjectMetadata metadata = getObjectMetadata(objectSummary.getBucketName(), objectSummary.getKey());
+			metrics.getFirstByteLatency().add(System.nanoTime() - start);
+
+			S3RangedInputStream ranges = new S3RangedInputStream(this, objectSummary.getBucketName(),
+					objectSummary.getKey(), metadata.getETag(), 0, metadata.getContentLength(), rangedGetPartSize,
+					rangedGetThreads);
+
+			S3Object object = new S3Object();
+			object.setBucketName(objectSummary.getBucketName());
+			object.setKey(objectSummary.getKey());
+			object.setObjectMetadata(metadata);
+			object.setObjectContent(metrics.track(ranges, start));
+			return object;
+		}
+
+		S3Object object = getObject(new GetObjectRequest(objectSummary.getBucketName(), objectSummary.getKey()));
+		metrics.getFirstByteLatency().add(System.nanoTime() - start);
+
+		object.setObjectContent(metrics.track(object.getObjectContent(), start));
+		return object;
+	}
+
+	/**
+	 * Executes HEAD request through request governor. This method can be called from multiple threads
+	 *
+	 * @param bucketName S3 bucket name
+	 * @param key key of the object
+	 * @return metadata of the object
+	 */
+	public ObjectMetadata getObjectMetadata(final String bucketName, final String key) {
+		return governor.execute(new Callable<ObjectMetadata>() {
+			@Override
+			public ObjectMetadata call() throws Exception {
+				return s3Client.getObjectMetadata(bucketName, key);
+			}
+		}, S3Counter.HEAD_REQUESTS, metrics);
+	}
+
+	/**
+	 * Executes GET request through request governor. This method can be called from multiple threads
+	 * 
+	 * @param request GET request
+	 * @return S3 object or <code>null</code> if constraints of the request are not met
+	 */
+	public S3Object getObject(final GetObjectRequest request) {
+		return governor.execute(new Callable<S3Object>() {
+			@Override
+			public S3Object call() throws Exception {
+				return s3Client.getObject(request);
+			}
+		}, S3Counter.GET_REQUESTS, metrics);
+	}
+
+	ObjectListing list(final ListObjectsRequest request) {
+		return governor.execute(new Callable<ObjectListing>() {
+			@Override
+			public ObjectListing call() throws Exception {
+				return s3Client.listObjects(request);
+			}
+		}, S3Counter.LIST_REQUESTS, metrics);
 	}
 
 	/**
@@ -105,7 +379,39 @@ public class S3BucketReader {
 	public ObjectListing listObjects(String bucketName, String keyPrefix, int maxKeys) {
 
 		ListObjectsRequest request = new ListObjectsRequest(bucketName, keyPrefix, null, null, maxKeys);
-		return s3Client.listObjects(request);
+		return list(request);
+	}
+
+	/**
+	 * List S3 objects and common prefixes from bucket with same prefix. Keys containing delimiter after the prefix 
+	 * are rolled up into common prefixes
+	 * 
+	 * @param bucketName S3 bucket name
+	 * @param keyPrefix prefix of the keys
+	 * @param delimiter delimiter used to group keys into common prefixes
+	 * @param maxKeys maximal number of keys and common prefixes to return
+	 * @return S3 object listing
+	 */
+	public ObjectListing listObjects(String bucketName, String keyPrefix, String delimiter, int maxKeys) {
+
+		ListObjectsRequest request = new ListObjectsRequest(bucketName, keyPrefix, null, delimiter, maxKeys);
+		return list(request);
+	}
+
+	/**
+	 * List S3 objects from bucket with same prefix, starting after the marker
+	 * 
+	 * @param bucketName S3 bucket name
+	 * @param keyPrefix prefix of the keys
+	 * @param marker key after which listing starts (non-inclusive)
+	 * @param delimiter delimiter used to group keys into common prefixes or <code>null</code>
+	 * @param maxKeys maximal number of keys to return
+	 * @return S3 object listing
+	 */
+	public ObjectListing listObjects(String bucketName, String keyPrefix, String marker, String delimiter, int maxKeys) {
+
+		ListObjectsRequest request = new ListObjectsRequest(bucketName, keyPrefix, marker, delimiter, maxKeys);
+		return list(request);
 	}
 
 	/**
@@ -114,8 +420,13 @@ public class S3BucketReader {
 	 * @param objectListing instance of {@link ObjectListing} used in previous listObject call 
 	 * @return the next set of S3 keys
 	 */
-	public ObjectListing listObjects(ObjectListing objectListing) {
+	public ObjectListing listObjects(final ObjectListing objectListing) {
 
-		return s3Client.listNextBatchOfObjects(objectListing);
+		return governor.execute(new Callable<ObjectListing>() {
+			@Override
+			public ObjectListing call() throws Exception {
+				return s3Client.listNextBatchOfObjects(objectListing);
+			}
+		}, S3Counter.LIST_REQUESTS, metrics);
 	}
 }
\ No newline at end of file
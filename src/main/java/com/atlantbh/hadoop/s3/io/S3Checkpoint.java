@@ -0,0 +1,271 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * Checkpoint of incremental job runs, stored on HDFS or local disk. Checkpoint holds the high-water last modified
+ * time and the last key of the keys planned by previous runs, so the next run plans splits only for objects which
+ * were added or modified since.
+ *
+ * S3 reports last modified time in whole seconds, so objects modified in the same second as the high-water mark may
+ * be written after the listing. Keys modified at the high-water mark are kept in the checkpoint and any other key
+ * modified in that second is treated as changed.
+ *
+ * Objects written shortly before the listing may not be listed yet, so the checkpoint doesn't advance past the
+ * limit set by {@link #setLimit} (the time of the listing minus a safety lag). Keys modified after the limit are
+ * treated as changed and are processed again by the next run, until they fall behind its limit.
+ *
+ * Checkpoint is written to pending file when input splits are calculated and replaces the previous checkpoint only
+ * when {@link #commit} is called after the job succeeds, so failed runs are processed again.
+ *
+ * @author seljaz
+ *
+ */
+public class S3Checkpoint {
+	static Logger LOG = LoggerFactory.getLogger(S3Checkpoint.class);
+
+	static final int MAGIC = 0x53334350;
+	static final int VERSION = 1;
+
+	String bucketName;
+	String keyPrefix;
+	long lastModified = Long.MIN_VALUE;
+	String lastKey = null;
+	Set<String> lastModifiedKeys = new HashSet<String>();
+	long limit = Long.MAX_VALUE;
+
+	/**
+	 * Creates empty checkpoint, for which every key is changed
+	 *
+	 * @param bucketName S3 bucket name
+	 * @param keyPrefix prefix of the keys
+	 */
+	public S3Checkpoint(String bucketName, String keyPrefix) {
+		this.bucketName = bucketName;
+		this.keyPrefix = keyPrefix != null ? keyPrefix : "";
+	}
+
+	/**
+	 * Creates copy of the checkpoint
+	 */
+	public S3Checkpoint(S3Checkpoint checkpoint) {
+		this(checkpoint.bucketName, checkpoint.keyPrefix);
+		lastModified = checkpoint.lastModified;
+		lastKey = checkpoint.lastKey;
+		lastModifiedKeys.addAll(checkpoint.lastModifiedKeys);
+	}
+
+	public String getBucketName() {
+		return bucketName;
+	}
+
+	public String getKeyPrefix() {
+		return keyPrefix;
+	}
+
+	/**
+	 * @return high-water last modified time (in milliseconds) or {@link Long#MIN_VALUE} if checkpoint is empty
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return the greatest key or <code>null</code> if checkpoint is empty
+	 */
+	public String getLastKey() {
+		return lastKey;
+	}
+
+	/**
+	 * Sets the last modified time the checkpoint doesn't advance past. Keys modified after it are always changed.
+	 * Limit is not stored in the checkpoint file
+	 *
+	 * @param limit last modified time in milliseconds, {@link Long#MAX_VALUE} by default
+	 */
+	public void setLimit(long limit) {
+		this.limit = limit;
+	}
+
+	public long getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Checks if checkpoint was created for the same bucket and key prefix
+	 */
+	public boolean matches(String bucketName, String keyPrefix) {
+		return this.bucketName.equals(bucketName) && this.keyPrefix.equals(keyPrefix != null ? keyPrefix : "");
+	}
+
+	/**
+	 * @param objectSummary listed key
+	 * @return <code>true</code> if the object was added or modified after the checkpoint
+	 */
+	public boolean isChanged(S3ObjectSummary objectSummary) {
+		if (objectSummary.getLastModified() == null) {
+			return true;
+		}
+		long time = objectSummary.getLastModified().getTime();
+		return time > limit || time > lastModified || time == lastModified && !lastModifiedKeys.contains(objectSummary.getKey());
+	}
+
+	/**
+	 * Advances the checkpoint past the key. Keys modified after the limit are ignored
+	 *
+	 * @param objectSummary listed key
+	 */
+	public void update(S3ObjectSummary objectSummary) {
+		if (objectSummary.getLastModified() != null && objectSummary.getLastModified().getTime() > limit) {
+			return;
+		}
+		if (lastKey == null || objectSummary.getKey().compareTo(lastKey) > 0) {
+			lastKey = objectSummary.getKey();
+		}
+
+		if (objectSummary.getLastModified() != null) {
+			long time = objectSummary.getLastModified().getTime();
+			if (time > lastModified) {
+				lastModified = time;
+				lastModifiedKeys.clear();
+			}
+			if (time == lastModified) {
+				lastModifiedKeys.add(objectSummary.getKey());
+			}
+		}
+	}
+
+	/**
+	 * @param path checkpoint file
+	 * @return file the checkpoint of running job is written to
+	 */
+	static Path getPendingPath(Path path) {
+		return new Path(path.getParent(), path.getName() + ".pending");
+	}
+
+	/**
+	 * Reads checkpoint from file
+	 *
+	 * @param conf job configuration
+	 * @param path checkpoint file
+	 * @return checkpoint or <code>null</code> if file doesn't exist
+	 * @throws IOException
+	 */
+	public static S3Checkpoint read(Configuration conf, Path path) throws IOException {
+		FileSystem fs = path.getFileSystem(conf);
+		if (!fs.exists(path)) {
+			return null;
+		}
+
+		FSDataInputStream in = fs.open(path);
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("File " + path + " is not S3 checkpoint");
+			}
+			int version = WritableUtils.readVInt(in);
+			if (version != VERSION) {
+				throw new IOException("Unsupported version " + version + " of S3 checkpoint " + path);
+			}
+
+			S3Checkpoint checkpoint = new S3Checkpoint(Text.readString(in), Text.readString(in));
+			checkpoint.lastModified = WritableUtils.readVLong(in);
+			checkpoint.lastKey = S3InputSplit.emptyToNull(Text.readString(in));
+			int numOfKeys = WritableUtils.readVInt(in);
+			for (int i = 0; i < numOfKeys; i++) {
+				checkpoint.lastModifiedKeys.add(Text.readString(in));
+			}
+
+			return checkpoint;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes checkpoint to file. Checkpoint is written to temporary file first and renamed when complete, so the
+	 * previous checkpoint stays intact if writing fails.
+	 *
+	 * @param conf job configuration
+	 * @param path checkpoint file
+	 * @throws IOException
+	 */
+	public void write(Configuration conf, Path path) throws IOException {
+		FileSystem fs = path.getFileSystem(conf);
+		Path tmp = new Path(path.getParent(), "." + path.getName() + ".tmp");
+
+		FSDataOutputStream out = fs.create(tmp, true);
+		try {
+			out.writeInt(MAGIC);
+			WritableUtils.writeVInt(out, VERSION);
+			Text.writeString(out, bucketName);
+			Text.writeString(out, keyPrefix);
+			WritableUtils.writeVLong(out, lastModified);
+			Text.writeString(out, S3InputSplit.nullToEmpty(lastKey));
+			WritableUtils.writeVInt(out, lastModifiedKeys.size());
+			for (String key : lastModifiedKeys) {
+				Text.writeString(out, key);
+			}
+		} finally {
+			out.close();
+		}
+
+		replace(fs, tmp, path);
+	}
+
+	/**
+	 * Replaces the checkpoint with pending checkpoint written when input splits were calculated. Should be called
+	 * after the job succeeds
+	 *
+	 * @param conf job configuration
+	 * @return <code>true</code> if the checkpoint was replaced, <code>false</code> if incremental mode is not enabled
+	 *         or there is no pending checkpoint
+	 * @throws IOException
+	 */
+	public static boolean commit(Configuration conf) throws IOException {
+		String checkpointPath = conf.get(S3InputFormat.S3_CHECKPOINT_PATH);
+		if (checkpointPath == null) {
+			return false;
+		}
+
+		Path path = new Path(checkpointPath);
+		Path pending = getPendingPath(path);
+		FileSystem fs = path.getFileSystem(conf);
+		if (!fs.exists(pending)) {
+			LOG.warn("There is no pending S3 checkpoint {}", pending);
+			return false;
+		}
+
+		replace(fs, pending, path);
+		LOG.info("Committed S3 checkpoint {}", path);
+		return true;
+	}
+
+	static void replace(FileSystem fs, Path src, Path dst) throws IOException {
+		if (fs.exists(dst) && !fs.delete(dst, false)) {
+			throw new IOException("Cannot delete old S3 checkpoint " + dst);
+		}
+		if (!fs.rename(src, dst)) {
+			throw new IOException("Cannot rename " + src + " to " + dst);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("[bucketName=%s, keyPrefix=%s, lastModified=%d, lastKey=%s]", bucketName, keyPrefix,
+				lastModified, lastKey);
+	}
+}
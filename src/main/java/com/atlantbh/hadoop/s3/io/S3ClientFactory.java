@@ -0,0 +1,224 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.auth.PropertiesCredentials;
+import com.amazonaws.services.s3.AmazonS3Client;
+
+/**
+ * Creates S3 clients shared by all readers in the JVM. {@link AmazonS3Client} is thread safe and holds its own pool
+ * of connections, so single client is created for each distinct client configuration and reused by split
+ * calculation and by all record readers running in the same (reused) JVM.
+ *
+ * Credentials are read from job configuration or, if not set there, from "AwsCredentials.properties" file in jar.
+ *
+ * @author seljaz
+ *
+ */
+public class S3ClientFactory {
+	static Logger LOG = LoggerFactory.getLogger(S3ClientFactory.class);
+
+	/**
+	 * AWS access key. If not set, credentials are read from "AwsCredentials.properties" file in jar
+	 */
+	static String S3_ACCESS_KEY = "s3.access.key";
+	/**
+	 * AWS secret key
+	 */
+	static String S3_SECRET_KEY = "s3.secret.key";
+	/**
+	 * S3 endpoint (host name or URL). Default is the endpoint of US Standard region
+	 */
+	static String S3_ENDPOINT = "s3.endpoint";
+	/**
+	 * Class of S3 client, subclass of {@link AmazonS3Client} having constructor with {@link AWSCredentials} and
+	 * {@link ClientConfiguration} arguments. Default is {@link AmazonS3Client}
+	 */
+	static String S3_CLIENT_CLASS = "s3.client.class";
+
+	/**
+	 * Maximal number of open HTTP connections of the client. Default value is 50
+	 */
+	static String S3_CLIENT_MAX_CONNECTIONS = "s3.client.maxConnections";
+	/**
+	 * Timeout (in milliseconds) for establishing the connection. Default value is 50000
+	 */
+	static String S3_CLIENT_CONNECTION_TIMEOUT = "s3.client.connectionTimeout";
+	/**
+	 * Timeout (in milliseconds) for reading data from open connection. Default value is 50000
+	 */
+	static String S3_CLIENT_SOCKET_TIMEOUT = "s3.client.socketTimeout";
+	/**
+	 * Maximal number of retries of failed requests. Default value is 3
+	 */
+	static String S3_CLIENT_MAX_ERROR_RETRY = "s3.client.maxErrorRetry";
+	/**
+	 * Size hint (in bytes) for socket send buffer. Default is the system default
+	 */
+	static String S3_CLIENT_SOCKET_SEND_BUFFER = "s3.client.socketSendBuffer";
+	/**
+	 * Size hint (in bytes) for socket receive buffer. Default is the system default
+	 */
+	static String S3_CLIENT_SOCKET_RECEIVE_BUFFER = "s3.client.socketReceiveBuffer";
+
+	/**
+	 * Whether requests of record readers go through {@link S3RequestGovernor}, which adapts the number of requests in
+	 * flight to throttling and retries failed requests with jittered backoff. When enabled, S3 client doesn't retry
+	 * requests by default. Default value is false
+	 */
+	static String S3_CLIENT_GOVERNOR = "s3.client.governor";
+	/**
+	 * Maximal number of requests in flight allowed by governor. Default value is maximal number of connections
+	 */
+	static String S3_CLIENT_GOVERNOR_MAX_REQUESTS = "s3.client.governor.maxRequests";
+	/**
+	 * Maximal number of retries of single request. Default value is 10
+	 */
+	static String S3_CLIENT_GOVERNOR_MAX_RETRIES = "s3.client.governor.maxRetries";
+	/**
+	 * Backoff (in milliseconds) before the first retry, doubled on every retry. Default value is 100
+	 */
+	static String S3_CLIENT_GOVERNOR_BASE_DELAY = "s3.client.governor.baseDelay";
+	/**
+	 * Maximal backoff (in milliseconds). Default value is 20000
+	 */
+	static String S3_CLIENT_GOVERNOR_MAX_DELAY = "s3.client.governor.maxDelay";
+
+	static Map<String, AmazonS3Client> clients = new HashMap<String, AmazonS3Client>();
+	static Map<String, S3RequestGovernor> governors = new HashMap<String, S3RequestGovernor>();
+
+	/**
+	 * Credentials read from AwsCredentials.properties, parsed once per JVM
+	 */
+	static AWSCredentials fileCredentials = null;
+
+	/**
+	 * Returns S3 client for job configuration. Clients are cached by their configuration, so the same client is
+	 * returned for the same settings
+	 *
+	 * @param conf job configuration
+	 * @return shared S3 client
+	 * @throws IOException if credentials cannot be read
+	 */
+	public static synchronized AmazonS3Client getClient(Configuration conf) throws IOException {
+		AWSCredentials credentials = getCredentials(conf);
+		ClientConfiguration clientConfiguration = getClientConfiguration(conf);
+		String endpoint = conf.get(S3_ENDPOINT);
+		Class<? extends AmazonS3Client> clientClass = conf.getClass(S3_CLIENT_CLASS, AmazonS3Client.class,
+				AmazonS3Client.class);
+
+		String signature = clientClass.getName() + "|" + getSignature(credentials, clientConfiguration, endpoint);
+		AmazonS3Client client = clients.get(signature);
+
+		if (client == null) {
+			LOG.info("Creating S3 client with maximum {} connections", clientConfiguration.getMaxConnections());
+
+			try {
+				client = clientClass.getConstructor(AWSCredentials.class, ClientConfiguration.class).newInstance(
+						credentials, clientConfiguration);
+			} catch (Exception e) {
+				throw new IOException("Cannot create S3 client " + clientClass.getName(), e);
+			}
+			if (endpoint != null) {
+				client.setEndpoint(endpoint);
+			}
+			clients.put(signature, client);
+		}
+
+		return client;
+	}
+
+	/**
+	 * Returns request governor for job configuration. Governors are shared like clients, so all readers of the task
+	 * adapt to throttling together
+	 *
+	 * @param conf job configuration
+	 * @return shared governor or governor which doesn't limit requests if it is not enabled
+	 */
+	public static synchronized S3RequestGovernor getGovernor(Configuration conf) {
+		if (!conf.getBoolean(S3_CLIENT_GOVERNOR, false)) {
+			return new S3RequestGovernor();
+		}
+
+		int maxRequests = conf.getInt(S3_CLIENT_GOVERNOR_MAX_REQUESTS, getClientConfiguration(conf)
+				.getMaxConnections());
+		int maxRetries = conf.getInt(S3_CLIENT_GOVERNOR_MAX_RETRIES, 10);
+		long baseDelay = conf.getLong(S3_CLIENT_GOVERNOR_BASE_DELAY, 100);
+		long maxDelay = conf.getLong(S3_CLIENT_GOVERNOR_MAX_DELAY, 20000);
+
+		String signature = conf.get(S3_ENDPOINT) + "|" + maxRequests + "|" + maxRetries + "|" + baseDelay + "|"
+				+ maxDelay;
+		S3RequestGovernor governor = governors.get(signature);
+		if (governor == null) {
+			governor = new S3RequestGovernor(maxRequests, maxRetries, baseDelay, maxDelay);
+			governors.put(signature, governor);
+		}
+		return governor;
+	}
+
+	/**
+	 * Returns credentials set in job configuration or read from AwsCredentials.properties in classpath. The file is
+	 * read only once, under the same lock as clients are created
+	 */
+	static synchronized AWSCredentials getCredentials(Configuration conf) throws IOException {
+		String accessKey = conf.get(S3_ACCESS_KEY);
+		String secretKey = conf.get(S3_SECRET_KEY);
+		if (accessKey != null && secretKey != null) {
+			return new BasicAWSCredentials(accessKey, secretKey);
+		}
+		if (fileCredentials != null) {
+			return fileCredentials;
+		}
+
+		InputStream in = S3ClientFactory.class.getResourceAsStream("/AwsCredentials.properties");
+		if (in == null) {
+			throw new IOException("Neither " + S3_ACCESS_KEY + " and " + S3_SECRET_KEY
+					+ " are set nor AwsCredentials.properties is found in classpath");
+		}
+		try {
+			fileCredentials = new PropertiesCredentials(in);
+			return fileCredentials;
+		} finally {
+			in.close();
+		}
+	}
+
+	static ClientConfiguration getClientConfiguration(Configuration conf) {
+		ClientConfiguration clientConfiguration = new ClientConfiguration();
+
+		clientConfiguration.setMaxConnections(conf.getInt(S3_CLIENT_MAX_CONNECTIONS,
+				clientConfiguration.getMaxConnections()));
+		clientConfiguration.setConnectionTimeout(conf.getInt(S3_CLIENT_CONNECTION_TIMEOUT,
+				clientConfiguration.getConnectionTimeout()));
+		clientConfiguration.setSocketTimeout(conf.getInt(S3_CLIENT_SOCKET_TIMEOUT,
+				clientConfiguration.getSocketTimeout()));
+		// governor retries requests itself, with backoff which is not synchronized between tasks
+		clientConfiguration.setMaxErrorRetry(conf.getInt(S3_CLIENT_MAX_ERROR_RETRY,
+				conf.getBoolean(S3_CLIENT_GOVERNOR, false) ? 0 : clientConfiguration.getMaxErrorRetry()));
+
+		int[] bufferSizeHints = clientConfiguration.getSocketBufferSizeHints();
+		clientConfiguration.setSocketBufferSizeHints(conf.getInt(S3_CLIENT_SOCKET_SEND_BUFFER, bufferSizeHints[0]),
+				conf.getInt(S3_CLIENT_SOCKET_RECEIVE_BUFFER, bufferSizeHints[1]));
+
+		return clientConfiguration;
+	}
+
+	static String getSignature(AWSCredentials credentials, ClientConfiguration clientConfiguration, String endpoint) {
+		int[] bufferSizeHints = clientConfiguration.getSocketBufferSizeHints();
+
+		return credentials.getAWSAccessKeyId() + "|" + credentials.getAWSSecretKey().hashCode() + "|" + endpoint + "|"
+				+ clientConfiguration.getMaxConnections() + "|" + clientConfiguration.getConnectionTimeout() + "|"
+				+ clientConfiguration.getSocketTimeout() + "|" + clientConfiguration.getMaxErrorRetry() + "|"
+				+ bufferSizeHints[0] + "|" + bufferSizeHints[1];
+	}
+}
@@ -0,0 +1,29 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+/**
+ * S3 content input format. Reads objects from Amazon S3 service in form of (key, value) = (key of the object,
+ * {@link S3ContentWritable}), which is cheaper to pass to reducers than {@link S3ObjectWritable}
+ *
+ * @author seljaz
+ *
+ */
+public class S3ContentInputFormat extends S3InputFormat<Text, S3ContentWritable> {
+
+	public S3ContentInputFormat() throws IOException {
+		super();
+	}
+
+	@Override
+	public RecordReader<Text, S3ContentWritable> createRecordReader(InputSplit split, TaskAttemptContext context)
+			throws IOException, InterruptedException {
+
+		return new S3ContentRecordReader();
+	}
+}
@@ -0,0 +1,38 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.IOException;
+import java.util.Date;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * Record reader for reading (key of the object, {@link S3ContentWritable}) as (key, value) pairs from underlying S3
+ * Input Split. Content of every object is read into the same value, so its buffer is allocated only when the object
+ * is larger than any object read before
+ *
+ * @author seljaz
+ *
+ */
+public class S3ContentRecordReader extends S3RecordReader<Text, S3ContentWritable> {
+
+	public S3ContentRecordReader() {
+		outKey = new Text();
+		outValue = new S3ContentWritable();
+	}
+
+	@Override
+	public boolean nextKeyValue() throws IOException, InterruptedException {
+		if (!nextObject()) {
+			return false;
+		}
+
+		Date lastModified = currentKey.getLastModified();
+
+		outKey.set(currentKey.getKey());
+		outValue.setObject(currentKey.getBucketName(), currentKey.getKey(), currentKey.getETag(),
+				lastModified != null ? lastModified.getTime() : 0);
+		outValue.readContent(object.getObjectContent(), object.getObjectMetadata().getContentLength());
+
+		return true;
+	}
+}
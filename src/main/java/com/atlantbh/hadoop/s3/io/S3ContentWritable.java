@@ -0,0 +1,197 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Content of S3 object held in byte array, similar to {@link org.apache.hadoop.io.BytesWritable}. Unlike
+ * {@link S3ObjectWritable} it carries only the metadata needed to identify the object (bucket name, key, eTag and
+ * last modified time) and the backing array is reused by {@link #readContent} and {@link #readFields}, growing only
+ * when the content doesn't fit, so reading and shuffling many objects doesn't allocate new buffer per record.
+ *
+ * The backing array may be larger than the content, so only the first {@link #getLength()} bytes of
+ * {@link #getBytes()} are valid.
+ *
+ * @author seljaz
+ *
+ */
+public class S3ContentWritable implements Writable {
+
+	static final byte[] EMPTY = new byte[0];
+
+	String bucketName;
+	String key;
+	String eTag;
+	long lastModified = 0;
+
+	byte[] bytes = EMPTY;
+	int length = 0;
+
+	public S3ContentWritable() {
+	}
+
+	/**
+	 * Sets metadata of the object. Content is not changed
+	 *
+	 * @param bucketName S3 bucket name
+	 * @param key key of the object
+	 * @param eTag eTag of the object or <code>null</code>
+	 * @param lastModified last modified time in milliseconds
+	 */
+	public void setObject(String bucketName, String key, String eTag, long lastModified) {
+		this.bucketName = bucketName;
+		this.key = key;
+		this.eTag = eTag;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * Copies the content from byte array
+	 *
+	 * @param content content of the object
+	 * @param offset offset of the content in the array
+	 * @param length length of the content
+	 */
+	public void set(byte[] content, int offset, int length) {
+		// old content is not copied when the array grows
+		this.length = 0;
+		ensureCapacity(length);
+		System.arraycopy(content, offset, bytes, 0, length);
+		this.length = length;
+	}
+
+	/**
+	 * Reads the content from the stream into the backing array. The stream is not closed
+	 *
+	 * @param in content of the object
+	 * @param size length of the content or -1 if it is not known, in which case the stream is read to the end
+	 * @throws IOException if the stream cannot be read or ends before the given length
+	 */
+	public void readContent(InputStream in, long size) throws IOException {
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Content of object " + key + " (" + size + " bytes) is too large to be read");
+		}
+
+		length = 0;
+		if (size >= 0) {
+			ensureCapacity((int) size);
+			while (length < size) {
+				int read = in.read(bytes, length, (int) size - length);
+				if (read < 0) {
+					throw new IOException("Content of object " + key + " ended after " + length + " of " + size
+							+ " bytes");
+				}
+				length += read;
+			}
+			return;
+		}
+
+		int read;
+		do {
+			if (length == bytes.length) {
+				if (length == Integer.MAX_VALUE) {
+					throw new IOException("Content of object " + key + " is too large to be read");
+				}
+				ensureCapacity(length + 1);
+			}
+			read = in.read(bytes, length, bytes.length - length);
+			if (read > 0) {
+				length += read;
+			}
+		} while (read >= 0);
+	}
+
+	/**
+	 * Grows the backing array so it can hold the content of given length. Content is preserved
+	 *
+	 * @param capacity required capacity
+	 */
+	void ensureCapacity(int capacity) {
+		if (bytes.length < capacity) {
+			byte[] buffer = new byte[(int) Math.min(Integer.MAX_VALUE, Math.max(capacity, bytes.length * 2L))];
+			System.arraycopy(bytes, 0, buffer, 0, length);
+			bytes = buffer;
+		}
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		S3ObjectWritable.writeString(out, bucketName);
+		S3ObjectWritable.writeString(out, key);
+		S3ObjectWritable.writeString(out, eTag);
+		WritableUtils.writeVLong(out, lastModified);
+
+		WritableUtils.writeVInt(out, length);
+		out.write(bytes, 0, length);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		bucketName = S3InputSplit.emptyToNull(Text.readString(in));
+		key = S3InputSplit.emptyToNull(Text.readString(in));
+		eTag = S3InputSplit.emptyToNull(Text.readString(in));
+		lastModified = WritableUtils.readVLong(in);
+
+		int size = WritableUtils.readVInt(in);
+		length = 0;
+		ensureCapacity(size);
+		in.readFully(bytes, 0, size);
+		length = size;
+	}
+
+	/**
+	 * @return backing array, of which only the first {@link #getLength()} bytes are valid
+	 */
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return length of the content
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * @return size of the backing array
+	 */
+	public int getCapacity() {
+		return bytes.length;
+	}
+
+	/**
+	 * @return stream reading the content from the backing array
+	 */
+	public InputStream getInputStream() {
+		return new ByteArrayInputStream(bytes, 0, length);
+	}
+
+	public String getBucketName() {
+		return bucketName;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public String getETag() {
+		return eTag;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("[bucketName=%s, key=%s, length=%d]", bucketName, key, length);
+	}
+}
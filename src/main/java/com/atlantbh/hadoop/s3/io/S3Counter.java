@@ -0,0 +1,42 @@
+package com.atlantbh.hadoop.s3.io;
+
+/**
+ * Hadoop counters of S3 requests made by record readers and of keys they skipped
+ * 
+ * @author seljaz
+ *
+ */
+public enum S3Counter {
+	/**
+	 * Number of LIST requests
+	 */
+	LIST_REQUESTS,
+	/**
+	 * Number of GET requests, including requests of single byte ranges
+	 */
+	GET_REQUESTS,
+	/**
+	 * Number of HEAD requests
+	 */
+	HEAD_REQUESTS,
+	/**
+	 * Number of bytes of object content read from S3 (cached objects are not counted)
+	 */
+	BYTES_READ,
+	/**
+	 * Number of requests retried after failure
+	 */
+	RETRIES,
+	/**
+	 * Number of requests rejected by S3 with "503 Slow Down"
+	 */
+	THROTTLED,
+	/**
+	 * Total time (in milliseconds) of S3 requests and of reading object content from S3
+	 */
+	WAIT_MILLIS,
+	/**
+	 * Number of keys skipped by record readers because they didn't pass the key filter
+	 */
+	FILTERED_KEYS
+}
@@ -2,9 +2,11 @@ package com.atlantbh.hadoop.s3.io;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.InvalidJobConfException;
 import org.apache.hadoop.mapreduce.InputFormat;
@@ -42,9 +44,181 @@ public abstract class S3InputFormat<K, V> extends InputFormat<K, V> {
 	
 	static String S3_NUM_OF_KEYS_PER_MAPPER = "s3.input.numOfKeys";
 	static String S3_NUM_OF_MAPPERS = "s3.input.numOfMappers";
+	/**
+	 * Total size of objects (in bytes) per mapper. When set, keys are packed into splits by size of their objects and
+	 * number of keys per mapper (if set) is used as maximal number of keys in a split
+	 */
+	static String S3_NUM_OF_BYTES_PER_MAPPER = "s3.input.numOfBytes";
+	/**
+	 * Whether keys listed while calculating input splits are embedded in splits, so that record readers don't list 
+	 * them again. Applies only when splits are defined by number of keys or bytes. Default value is false
+	 */
+	static String S3_EMBED_KEYS = "s3.input.split.embedKeys";
+	/**
+	 * Maximal number of bytes of large object in single input split. Objects larger than that are divided into byte
+	 * ranges if input format can split them. Default value is number of bytes per mapper (if set)
+	 */
+	static String S3_OBJECT_SPLIT_SIZE = "s3.input.objectSplitSize";
+
+	/**
+	 * Number of threads listing the keys concurrently while calculating input splits. Default value is 1 (keys are
+	 * listed with single sequence of calls)
+	 */
+	static String S3_LISTING_THREADS = "s3.input.listing.threads";
+	/**
+	 * Delimiter used to find common prefixes which are listed concurrently. Default value is "/"
+	 */
+	static String S3_LISTING_DELIMITER = "s3.input.listing.delimiter";
+	/**
+	 * Comma separated list of shards (e.g. hex digits or dates) which are appended to key prefix and listed
+	 * concurrently instead of common prefixes. Shards must cover all keys having the key prefix
+	 */
+	static String S3_LISTING_SHARDS = "s3.input.listing.shards";
+
+	/**
+	 * Number of key space probes per input split used when splits are defined by number of mappers. Default value is 4
+	 */
+	static String S3_SAMPLING_PROBES_PER_SPLIT = "s3.input.sampling.probesPerSplit";
+	/**
+	 * Number of keys listed by single key space probe. Default value is 100
+	 */
+	static String S3_SAMPLING_PROBE_KEYS = "s3.input.sampling.probeKeys";
+
+	/**
+	 * Path (on HDFS or local disk) of listing manifest. When set, keys listed while calculating input splits are 
+	 * written to the manifest and next job run lists only keys added after the last key in the manifest. Keys deleted
+	 * or overwritten outside {@link #S3_MANIFEST_REFRESH_PREFIXES} stay in the manifest with their old size and ETag,
+	 * so splits are sized by stale byte counts and (unless keys are embedded) record readers list the keys again
+	 */
+	static String S3_MANIFEST_PATH = "s3.input.manifest.path";
+	/**
+	 * Comma separated list of prefixes (relative to key prefix) which are listed again when listing manifest is 
+	 * used, so that changed and deleted keys under them are picked up
+	 */
+	static String S3_MANIFEST_REFRESH_PREFIXES = "s3.input.manifest.refreshPrefixes";
+
+	/**
+	 * Number of listing pages requested ahead of record reader while it reads keys of previous pages. Default value
+	 * is 0 (next page is requested when all keys of previous page are read)
+	 */
+	static String S3_LISTING_READ_AHEAD = "s3.input.listing.readAhead";
+
+	/**
+	 * Number of objects fetched concurrently ahead of the mapper by {@link S3ObjectRecordReader}. Default value is 0
+	 * (objects are fetched one by one when mapper asks for them)
+	 */
+	static String S3_PREFETCH_OBJECTS = "s3.input.prefetch.objects";
+	/**
+	 * Maximal total size (in bytes) of objects fetched ahead of the mapper. Larger objects are streamed from S3 and
+	 * not fetched ahead. Default value is 64 MB, values above 2 GB (Integer.MAX_VALUE) are treated as 2 GB
+	 */
+	static String S3_PREFETCH_BYTES = "s3.input.prefetch.bytes";
+
+	/**
+	 * Minimal size (in bytes) of object which is read in byte ranges fetched concurrently. Default value is 0 (objects
+	 * are read with single request)
+	 */
+	static String S3_RANGED_GET_THRESHOLD = "s3.input.rangedGet.threshold";
+	/**
+	 * Size (in bytes) of single range of large object. Default value is 8 MB
+	 */
+	static String S3_RANGED_GET_PART_SIZE = "s3.input.rangedGet.partSize";
+	/**
+	 * Number of ranges of large object fetched at the same time. Default value is 4
+	 */
+	static String S3_RANGED_GET_THREADS = "s3.input.rangedGet.threads";
+
+	/**
+	 * Local directory of object cache shared by all tasks on the node. Objects are cached by their ETag, so cached
+	 * object is read without S3 request. Objects are not cached by default
+	 */
+	static String S3_CACHE_DIRECTORY = "s3.input.cache.dir";
+	/**
+	 * Maximal total size (in bytes) of cached objects. Least recently used objects are deleted when the cache grows
+	 * larger. Default value is 10 GB
+	 */
+	static String S3_CACHE_BYTES = "s3.input.cache.bytes";
+
+	/**
+	 * Whether compressed object content is decompressed by record readers. Codec is chosen by key suffix or 
+	 * Content-Encoding of the object. Default value is false (line record reader always decompresses)
+	 */
+	static String S3_DECOMPRESS = "s3.input.decompress";
+
+	/**
+	 * Glob the whole key must match ("*" doesn't match "/", "**" does). Only keys passing all configured filters
+	 * are included in input splits and read by record readers
+	 */
+	static String S3_FILTER_KEY_GLOB = "s3.input.filter.keyGlob";
+	/**
+	 * Regular expression the whole key must match. Can't be set together with the glob
+	 */
+	static String S3_FILTER_KEY_REGEX = "s3.input.filter.keyRegex";
+	/**
+	 * Keys modified at or after this time are included. Time is given in milliseconds since epoch or as UTC date 
+	 * ("2013-01-31") or date and time ("2013-01-31T12:00:00Z")
+	 */
+	static String S3_FILTER_MODIFIED_AFTER = "s3.input.filter.modifiedAfter";
+	/**
+	 * Keys modified before this time are included
+	 */
+	static String S3_FILTER_MODIFIED_BEFORE = "s3.input.filter.modifiedBefore";
+	/**
+	 * Minimal size (in bytes) of included objects, e.g. 1 to skip empty objects
+	 */
+	static String S3_FILTER_MIN_SIZE = "s3.input.filter.minSize";
+	/**
+	 * Maximal size (in bytes) of included objects
+	 */
+	static String S3_FILTER_MAX_SIZE = "s3.input.filter.maxSize";
+	/**
+	 * Comma separated storage classes of included objects, e.g. "STANDARD,REDUCED_REDUNDANCY" to skip GLACIER objects
+	 */
+	static String S3_FILTER_STORAGE_CLASSES = "s3.input.filter.storageClasses";
+	/**
+	 * Path (on HDFS or local disk) of incremental checkpoint. When set, input splits include only keys added or 
+	 * modified since the checkpoint and keys are embedded in splits. New checkpoint is committed by 
+	 * {@link S3Checkpoint#commit} after the job succeeds. Applies only when splits are defined by number of keys or 
+	 * bytes
+	 */
+	static String S3_CHECKPOINT_PATH = "s3.input.checkpoint.path";
+	/**
+	 * Whether keys are only added in ascending order (e.g. keys starting with timestamp) and never modified, so that 
+	 * incremental runs list only keys after the last key of the checkpoint. Default value is false, all keys are 
+	 * listed and compared with the last modified time of the checkpoint
+	 */
+	static String S3_CHECKPOINT_APPEND_ONLY = "s3.input.checkpoint.appendOnly";
+	/**
+	 * Safety lag (in milliseconds) of incremental checkpoint. Checkpoint doesn't advance past the time of listing 
+	 * minus the lag and keys modified within the lag are processed again by the next run, so objects which become 
+	 * visible late are not missed. Default value is 900000 (15 minutes)
+	 */
+	static String S3_CHECKPOINT_LAG = "s3.input.checkpoint.lag";
+	/**
+	 * Location of S3 Inventory manifest ("s3://bucket/.../manifest.json" or path on HDFS or local disk). When set, 
+	 * keys with the prefix are read from CSV inventory files instead of being listed and are embedded in splits. 
+	 * Applies only when splits are defined by number of keys or bytes
+	 */
+	static String S3_INVENTORY_MANIFEST = "s3.input.inventory.manifest";
+	/**
+	 * Directory (on HDFS or local disk) of inventory data files listed by local manifest. Default is the directory
+	 * of the manifest
+	 */
+	static String S3_INVENTORY_DATA_DIR = "s3.input.inventory.dataDir";
+	/**
+	 * Number of inventory data files read concurrently. Default value is 4
+	 */
+	static String S3_INVENTORY_THREADS = "s3.input.inventory.threads";
 
 	S3BucketReader s3Reader;
 
+	S3KeyFilter filter;
+	int filteredKeys;
+
+	S3Checkpoint checkpoint;
+	S3Checkpoint nextCheckpoint;
+	int unchangedKeys;
+
 	public S3InputFormat() throws IOException {
 	}
 
@@ -64,13 +238,17 @@ public abstract class S3InputFormat<K, V> extends InputFormat<K, V> {
 
 		int numOfMappers = conf.getInt(S3_NUM_OF_MAPPERS, -1);
 		int numOfKeysPerMapper = conf.getInt(S3_NUM_OF_KEYS_PER_MAPPER, -1);
+		long numOfBytesPerMapper = conf.getLong(S3_NUM_OF_BYTES_PER_MAPPER, -1);
 		boolean useMappers = true;
 
 		if (bucketName == null || "".equals(bucketName)) {
 			throw new InvalidJobConfException("S3 bucket name cannot be empty");
 		}
 
-		if (numOfMappers == -1 && numOfKeysPerMapper == -1) {
+		if (numOfBytesPerMapper > -1) {
+			LOG.warn("Using {} value to determine input splits", S3_NUM_OF_BYTES_PER_MAPPER);
+			useMappers = false;
+		} else if (numOfMappers == -1 && numOfKeysPerMapper == -1) {
 			LOG.warn("Non of {} and {} properties are not set. Defaulting to numOfMappers=1 to determine input splits",
 					S3_NUM_OF_KEYS_PER_MAPPER, S3_NUM_OF_MAPPERS);
 			numOfMappers = 1;
@@ -87,87 +265,392 @@ public abstract class S3InputFormat<K, V> extends InputFormat<K, V> {
 			useMappers = true;
 		}
 
-		s3Reader = new S3BucketReader(bucketName, keyPrefix, null, maxKeys);
+		filter = S3KeyFilter.getFilter(conf);
+		filteredKeys = 0;
+
+		String checkpointPath = conf.get(S3_CHECKPOINT_PATH);
+		checkpoint = null;
+		nextCheckpoint = null;
+		unchangedKeys = 0;
+		String inventoryManifest = conf.get(S3_INVENTORY_MANIFEST);
+		if (inventoryManifest != null && useMappers) {
+			throw new InvalidJobConfException(S3_INVENTORY_MANIFEST + " requires " + S3_NUM_OF_KEYS_PER_MAPPER + " or "
+					+ S3_NUM_OF_BYTES_PER_MAPPER + " to be set");
+		}
+		if (checkpointPath != null) {
+			if (useMappers) {
+				throw new InvalidJobConfException(S3_CHECKPOINT_PATH + " requires " + S3_NUM_OF_KEYS_PER_MAPPER
+						+ " or " + S3_NUM_OF_BYTES_PER_MAPPER + " to be set");
+			}
+			checkpoint = S3Checkpoint.read(conf, new Path(checkpointPath));
+			if (checkpoint == null) {
+				LOG.info("There is no S3 checkpoint {}. Processing all keys.", checkpointPath);
+			} else if (!checkpoint.matches(bucketName, keyPrefix)) {
+				LOG.warn("S3 checkpoint {} was written for bucket {} and prefix {}. Processing all keys.",
+						new Object[] { checkpointPath, checkpoint.getBucketName(), checkpoint.getKeyPrefix() });
+				checkpoint = null;
+			} else {
+				LOG.info("Processing keys changed since S3 checkpoint {}", checkpoint);
+			}
+			nextCheckpoint = checkpoint != null ? new S3Checkpoint(checkpoint)
+					: new S3Checkpoint(bucketName, keyPrefix);
+
+			long limit = System.currentTimeMillis() - conf.getLong(S3_CHECKPOINT_LAG, 15 * 60 * 1000L);
+			if (checkpoint != null) {
+				checkpoint.setLimit(limit);
+			}
+			nextCheckpoint.setLimit(limit);
+		}
+
+		s3Reader = new S3BucketReader(S3ClientFactory.getClient(conf), bucketName, keyPrefix, null, maxKeys);
+		s3Reader.setGovernor(S3ClientFactory.getGovernor(conf));
+		long start = System.currentTimeMillis();
 
 		List<InputSplit> splits = new ArrayList<InputSplit>();
 
 		if (useMappers) {
-			// not implemented
-			throw new IOException("Defining S3InputFormat with number of mappers is not implemented");
+			// estimate key distribution instead of listing all keys
+			S3KeySpaceSampler sampler = new S3KeySpaceSampler(s3Reader, conf.getInt(S3_SAMPLING_PROBES_PER_SPLIT, 4),
+					conf.getInt(S3_SAMPLING_PROBE_KEYS, 100));
+			splits = sampler.getSplits(bucketName, keyPrefix, numOfMappers);
 		} else {
-			S3ObjectSummary startKey = null;
-			S3ObjectSummary endKey = null;
-
-			int batchSize = 0;
-			
-			int numOfSplits = 0;
-			int numOfCalls = 0;
-
-			int maxKeyIDX = 0;
-			int currentKeyIDX = 0;
-			int nextKeyIDX = 0;
-
-			ObjectListing listing = null;
-			boolean isLastCall = true;
-
-			// split all keys starting with "keyPrefix" into splits of
-			// "numOfKeysPerMapper" keys
-			do {
-				// for first time we have to build request after that use
-				// previous listing to get next batch
-				if (listing == null) {
-					listing = s3Reader.listObjects(bucketName, keyPrefix, maxKeys);
-				} else {
-					listing = s3Reader.listObjects(listing);
+			final int numOfKeysPerSplit = numOfKeysPerMapper > -1 ? numOfKeysPerMapper : Integer.MAX_VALUE;
+			final long numOfBytesPerSplit = numOfBytesPerMapper > -1 ? numOfBytesPerMapper : Long.MAX_VALUE;
+			S3InputSplitBuilder builder = new S3InputSplitBuilder(bucketName, keyPrefix, numOfKeysPerSplit,
+					numOfBytesPerSplit);
+			// readers listing keys again would read unchanged keys as well
+			builder.setEmbedKeys(conf.getBoolean(S3_EMBED_KEYS, false) || checkpoint != null);
+			String manifestPath = conf.get(S3_MANIFEST_PATH);
+			final long objectSplitSize = conf.getLong(S3_OBJECT_SPLIT_SIZE, numOfBytesPerMapper > 0
+					? numOfBytesPerMapper : Long.MAX_VALUE);
+			List<InputSplit> inventorySplits = new ArrayList<InputSplit>();
+
+			if (inventoryManifest != null) {
+				// inventory lists all keys of the bucket, so nothing is listed from S3. Splits of each data file are
+				// built by the thread reading it, and keys are embedded as files are not ordered
+				S3InventoryReader inventory = new S3InventoryReader(conf, s3Reader,
+						conf.getInt(S3_INVENTORY_THREADS, 4));
+				final JobContext jobContext = context;
+				final String splitBucketName = bucketName;
+				final String splitKeyPrefix = keyPrefix;
+				for (List<InputSplit> fileSplits : inventory.readFiles(inventoryManifest,
+						conf.get(S3_INVENTORY_DATA_DIR), bucketName, keyPrefix,
+						new S3InventoryReader.FileHandlerFactory<List<InputSplit>>() {
+							@Override
+							public S3InventoryReader.FileHandler<List<InputSplit>> create(String file) {
+								final S3InputSplitBuilder fileBuilder = new S3InputSplitBuilder(splitBucketName,
+										splitKeyPrefix, numOfKeysPerSplit, numOfBytesPerSplit);
+								fileBuilder.setEmbedKeys(true);
+								return new S3InventoryReader.FileHandler<List<InputSplit>>() {
+									@Override
+									public void add(S3ObjectSummary objectSummary) {
+										S3InputFormat.this.add(jobContext, fileBuilder, objectSummary, objectSplitSize);
+									}
+
+									@Override
+									public List<InputSplit> finish() {
+										return fileBuilder.build();
+									}
+								};
+							}
+						})) {
+					inventorySplits.addAll(fileSplits);
+				}
+			} else if (checkpoint != null && conf.getBoolean(S3_CHECKPOINT_APPEND_ONLY, false)) {
+				// keys up to the last key of the checkpoint were already processed
+				S3BucketReader reader = createReader(bucketName, keyPrefix, checkpoint.getLastKey(), maxKeys);
+				S3ObjectSummary objectSummary;
+				while ((objectSummary = reader.getNextKey()) != null) {
+					add(context, builder, objectSummary, objectSplitSize);
 				}
+			} else if (manifestPath != null) {
+				// reuse keys listed by previous job runs
+				addFromManifest(context, builder, new Path(manifestPath), bucketName, keyPrefix, maxKeys,
+						objectSplitSize);
+			} else if (conf.getInt(S3_LISTING_THREADS, 1) > 1) {
+				// keys are added as soon as their shard is listed, in key order
+				S3ParallelLister lister = startParallelListing(conf, bucketName, keyPrefix, maxKeys);
+				try {
+					S3ObjectSummary objectSummary;
+					while ((objectSummary = lister.getNextKey()) != null) {
+						add(context, builder, objectSummary, objectSplitSize);
+					}
+				} finally {
+					lister.close();
+				}
+			} else {
+				ObjectListing listing = null;
+
+				// split all keys starting with "keyPrefix" into splits of
+				// "numOfKeysPerMapper" keys
+				do {
+					// for first time we have to build request after that use
+					// previous listing to get next batch
+					if (listing == null) {
+						listing = s3Reader.listObjects(bucketName, keyPrefix, maxKeys);
+					} else {
+						listing = s3Reader.listObjects(listing);
+					}
+
+					for (S3ObjectSummary objectSummary : listing.getObjectSummaries()) {
+						add(context, builder, objectSummary, objectSplitSize);
+					}
+				} while (listing.isTruncated());
+			}
 
-				// Is this last call to WS (last batch of objects)
-				isLastCall = !listing.isTruncated();
+			splits = builder.build();
+			splits.addAll(inventorySplits);
+		}
 
-				// Size of the batch from last WS call
-				batchSize = listing.getObjectSummaries().size();
+		LOG.info("Number of input splits={}", splits.size());
+		if (filter != null) {
+			LOG.info("Filtered out {} keys", filteredKeys);
+		}
+		if (nextCheckpoint != null) {
+			LOG.info("Skipped {} keys not changed since S3 checkpoint", unchangedKeys);
+			nextCheckpoint.write(conf, S3Checkpoint.getPendingPath(new Path(checkpointPath)));
+		}
+		LOG.info("Listed {} pages in {} ms, S3 requests took {} ms", new Object[] {
+				s3Reader.getMetrics().get(S3Counter.LIST_REQUESTS), System.currentTimeMillis() - start,
+				s3Reader.getMetrics().get(S3Counter.WAIT_MILLIS) });
 
-				// Absolute index of last key from batch
-				maxKeyIDX = numOfCalls * maxKeys + batchSize;
+		return splits;
+	}
 
-				// Absolute indexes of current and next keys
-				currentKeyIDX = numOfSplits * numOfKeysPerMapper;
-				// if there are no more keys to process, index of last key is selected
-				nextKeyIDX = (numOfSplits + 1) * numOfKeysPerMapper > maxKeyIDX && isLastCall ? maxKeyIDX : (numOfSplits + 1) * numOfKeysPerMapper;
+	/**
+	 * Returns whether the object can be divided into byte ranges read by different record readers. Objects are not
+	 * splitable by default
+	 *
+	 * @param context job context
+	 * @param objectSummary key of the object
+	 * @return <code>true</code> if object can be divided into byte ranges
+	 */
+	protected boolean isSplitable(JobContext context, S3ObjectSummary objectSummary) {
+		return false;
+	}
 
-				// create one input split for each key which is in current range
-				while (nextKeyIDX <= maxKeyIDX) {
+	/**
+	 * Adds the key to input split builder, dividing large object into byte ranges if it is splitable. Keys which
+	 * don't pass the filter or didn't change since the checkpoint are skipped
+	 */
+	void add(JobContext context, S3InputSplitBuilder builder, S3ObjectSummary objectSummary, long objectSplitSize) {
+		if (!accept(objectSummary)) {
+			return;
+		}
 
-					startKey = endKey;
-					endKey = listing.getObjectSummaries().get((nextKeyIDX - 1) % maxKeys);
+		if (objectSummary.getSize() > objectSplitSize && isSplitable(context, objectSummary)) {
+			builder.addRanges(objectSummary, objectSplitSize);
+		} else {
+			builder.add(objectSummary);
+		}
+	}
 
-					// Create new input split
-					S3InputSplit split = new S3InputSplit();
-					split.setBucketName(bucketName);
-					split.setKeyPrefix(keyPrefix);
-					split.setMarker(startKey != null ? startKey.getKey() : null);
-					split.setLastKey(endKey.getKey());
-					split.setSize(nextKeyIDX - currentKeyIDX);
+	/**
+	 * Checks the key against the checkpoint and the filter and counts skipped keys. Synchronized, as inventory data
+	 * files are read by several threads
+	 *
+	 * @return <code>true</code> if the key is included in splits
+	 */
+	synchronized boolean accept(S3ObjectSummary objectSummary) {
+		// filtered keys don't advance the checkpoint, so they are processed when the filter is changed
+		if (filter != null && !filter.accept(objectSummary)) {
+			filteredKeys++;
+			return false;
+		}
+		if (nextCheckpoint != null) {
+			nextCheckpoint.update(objectSummary);
+			if (checkpoint != null && !checkpoint.isChanged(objectSummary)) {
+				unchangedKeys++;
+				return false;
+			}
+		}
+		return true;
+	}
 
-					splits.add(split);
-					numOfSplits++;
+	/**
+	 * Starts listing independent key ranges concurrently
+	 *
+	 * @return lister returning keys in alphabetical order
+	 */
+	S3ParallelLister startParallelListing(Configuration conf, String bucketName, String keyPrefix, int maxKeys)
+			throws IOException {
+		S3ParallelLister lister = new S3ParallelLister(s3Reader.getS3Client(), conf.getInt(S3_LISTING_THREADS, 1),
+				maxKeys);
+		lister.setMetrics(s3Reader.getMetrics());
+		lister.setGovernor(s3Reader.governor);
+		String[] shards = conf.getStrings(S3_LISTING_SHARDS);
+
+		if (shards != null && shards.length > 0) {
+			lister.start(bucketName, keyPrefix, shards);
+		} else {
+			lister.start(bucketName, keyPrefix, conf.get(S3_LISTING_DELIMITER, "/"));
+		}
+		return lister;
+	}
 
-					// Stop when last key was processed
-					if (nextKeyIDX == maxKeyIDX && isLastCall) {
-						break;
+	/**
+	 * Creates reader listing all keys having the prefix, starting after the marker
+	 */
+	S3BucketReader createReader(String bucketName, String keyPrefix, String marker, int maxKeys) {
+		S3BucketReader reader = new S3BucketReader(s3Reader.getS3Client(), bucketName, keyPrefix, marker, maxKeys);
+		reader.setMetrics(s3Reader.getMetrics());
+		reader.setGovernor(s3Reader.governor);
+		return reader;
+	}
+
+	/**
+	 * Adds keys using listing manifest written by previous job run. Only keys after the last key of the manifest
+	 * and keys with refreshed prefixes are listed from S3. Keys are streamed from the manifest and S3 listings to the
+	 * builder and to the new manifest, which replaces the old one when all keys are added.
+	 */
+	void addFromManifest(JobContext context, S3InputSplitBuilder builder, Path manifestPath, String bucketName,
+			String keyPrefix, int maxKeys, long objectSplitSize) throws IOException {
+		Configuration conf = context.getConfiguration();
+		S3ListingManifest.Reader manifest = S3ListingManifest.open(conf, manifestPath);
+
+		if (manifest != null && !manifest.matches(bucketName, keyPrefix)) {
+			LOG.warn("Listing manifest {} was written for bucket {} and prefix {}. Listing all keys.", new Object[] {
+					manifestPath, manifest.getBucketName(), manifest.getKeyPrefix() });
+			manifest.close();
+			manifest = null;
+		}
+
+		S3ListingManifest.Writer newManifest = S3ListingManifest.create(conf, manifestPath, bucketName, keyPrefix);
+		try {
+			S3ObjectSummary objectSummary;
+			if (manifest == null) {
+				if (conf.getInt(S3_LISTING_THREADS, 1) > 1) {
+					S3ParallelLister lister = startParallelListing(conf, bucketName, keyPrefix, maxKeys);
+					try {
+						while ((objectSummary = lister.getNextKey()) != null) {
+							newManifest.add(objectSummary);
+							add(context, builder, objectSummary, objectSplitSize);
+						}
+					} finally {
+						lister.close();
+					}
+				} else {
+					S3BucketReader reader = createReader(bucketName, keyPrefix, null, maxKeys);
+					while ((objectSummary = reader.getNextKey()) != null) {
+						newManifest.add(objectSummary);
+						add(context, builder, objectSummary, objectSplitSize);
+					}
+				}
+			} else {
+				ManifestMerger merger = new ManifestMerger(context, builder, newManifest, bucketName, keyPrefix,
+						conf.getStrings(S3_MANIFEST_REFRESH_PREFIXES), maxKeys, objectSplitSize);
+				long numOfKeys = 0;
+				try {
+					while ((objectSummary = manifest.next()) != null) {
+						merger.add(objectSummary);
+						numOfKeys++;
 					}
-					
-					// Set next key index
-					currentKeyIDX = numOfSplits * numOfKeysPerMapper;
-					nextKeyIDX = (numOfSplits + 1) * numOfKeysPerMapper > maxKeyIDX && isLastCall ? maxKeyIDX : (numOfSplits + 1) * numOfKeysPerMapper;
+				} finally {
+					manifest.close();
+				}
+
+				// keys are mostly appended, so only keys after the last known key are listed
+				String lastKey = manifest.getLastKey();
+				long numOfNewKeys = 0;
+				S3BucketReader reader = createReader(bucketName, keyPrefix, lastKey, maxKeys);
+				while ((objectSummary = reader.getNextKey()) != null) {
+					merger.add(objectSummary);
+					numOfNewKeys++;
 				}
-				numOfCalls++;
-			} while (!isLastCall);
+				merger.finish();
+
+				LOG.info("Listing manifest {} had {} keys. Listed {} keys after key {} and {} keys of refreshed "
+						+ "prefixes", new Object[] { manifestPath, numOfKeys, numOfNewKeys, lastKey,
+						merger.numOfRefreshedKeys });
+			}
+
+			newManifest.commit();
+		} finally {
+			newManifest.close();
 		}
+	}
 
-		LOG.info("Number of input splits={}", splits.size());
+	/**
+	 * Adds keys read from listing manifest or listed after its last key, replacing keys of refreshed prefixes (where
+	 * keys could be changed or deleted) with keys listed again. Keys must be added in alphabetical order, so the
+	 * keys of each refreshed prefix are listed when the first key after the prefix is added.
+	 */
+	class ManifestMerger {
+		JobContext context;
+		S3InputSplitBuilder builder;
+		S3ListingManifest.Writer manifest;
+		String bucketName;
+		int maxKeys;
+		long objectSplitSize;
+
+		List<String> prefixes = new ArrayList<String>();
+		int nextPrefix = 0;
+		long numOfRefreshedKeys = 0;
+
+		ManifestMerger(JobContext context, S3InputSplitBuilder builder, S3ListingManifest.Writer manifest,
+				String bucketName, String keyPrefix, String[] refreshPrefixes, int maxKeys, long objectSplitSize) {
+			this.context = context;
+			this.builder = builder;
+			this.manifest = manifest;
+			this.bucketName = bucketName;
+			this.maxKeys = maxKeys;
+			this.objectSplitSize = objectSplitSize;
+
+			if (refreshPrefixes != null) {
+				String[] sorted = new String[refreshPrefixes.length];
+				for (int i = 0; i < refreshPrefixes.length; i++) {
+					sorted[i] = (keyPrefix != null ? keyPrefix : "") + refreshPrefixes[i];
+				}
+				Arrays.sort(sorted);
 
-		return splits;
+				// prefixes nested in other prefixes are listed with them
+				for (String prefix : sorted) {
+					if (prefixes.isEmpty() || !prefix.startsWith(prefixes.get(prefixes.size() - 1))) {
+						prefixes.add(prefix);
+					}
+				}
+			}
+		}
+
+		void add(S3ObjectSummary objectSummary) throws IOException {
+			String key = objectSummary.getKey();
+
+			while (nextPrefix < prefixes.size()) {
+				String prefix = prefixes.get(nextPrefix);
+				if (key.startsWith(prefix)) {
+					// replaced by the keys listed again
+					return;
+				}
+				if (key.compareTo(prefix) < 0) {
+					break;
+				}
+				// key is after all keys having the prefix
+				addPrefix(prefix);
+				nextPrefix++;
+			}
+
+			manifest.add(objectSummary);
+			S3InputFormat.this.add(context, builder, objectSummary, objectSplitSize);
+		}
+
+		void addPrefix(String prefix) throws IOException {
+			S3BucketReader reader = createReader(bucketName, prefix, null, maxKeys);
+			S3ObjectSummary objectSummary;
+			while ((objectSummary = reader.getNextKey()) != null) {
+				manifest.add(objectSummary);
+				S3InputFormat.this.add(context, builder, objectSummary, objectSplitSize);
+				numOfRefreshedKeys++;
+			}
+		}
+
+		/**
+		 * Adds keys of refreshed prefixes after the last key
+		 */
+		void finish() throws IOException {
+			while (nextPrefix < prefixes.size()) {
+				addPrefix(prefixes.get(nextPrefix++));
+			}
+		}
 	}
 
 	public static void main(String[] args) throws IOException, InterruptedException {
@@ -3,6 +3,7 @@ package com.atlantbh.hadoop.s3.io;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.List;
 
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
@@ -11,13 +12,26 @@ import org.apache.hadoop.mapreduce.InputSplit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
 /**
  * S3 Input split class
  * 
  * This class defines a subset of keys from Amazon S3 bucket. Following attributes define input split: bucket name, prefix, 
  * marker and last key. Combination of marker, prefix and last key is used to select only subset of keys from Amazon S3 
  * bucket. As keys in bucket are sorted alphabetically so defining marker (or start key) and last key (or end key) we can 
- * define interval of keys as input split. Key used as a marker is non-inclusive while last key is.
+ * define interval of keys as input split. Key used as a marker is non-inclusive while last key is. Split without 
+ * marker starts with the first key having the prefix and split without last key ends with the last such key. 
+ * 
+ * Input split can also carry the exact list of its keys (with their size, ETag, last modified date and storage class) 
+ * as seen while calculating input splits. In that case record readers don't list the keys from S3 again.
+ * 
+ * Large object can be divided into several input splits, each covering a byte range of the object. Such split has 
+ * single key (its last key), offset of the range and its length in bytes.
+ * 
+ * Jobs can have hundreds of thousands of splits, so splits are serialized compactly: marker is front coded against 
+ * the prefix and last key against the marker (only the length of common prefix and the rest of the key are written), 
+ * and bucket name and prefix of deserialized splits are interned, so all splits of the job share the same ones.
  * 
  * @author seljaz
  *
@@ -26,11 +40,18 @@ public class S3InputSplit extends InputSplit implements Writable {
 	
 	static Logger LOG = LoggerFactory.getLogger(S3InputSplit.class);
 
+	static final int MARKER = 1;
+	static final int LAST_KEY = 2;
+	static final int OBJECT_SUMMARIES = 4;
+
 	String bucketName;
 	String keyPrefix;
 	String marker;
 	String lastKey;
 	int size;
+	long length = -1;
+	long start = -1;
+	List<S3ObjectSummary> objectSummaries;
 	
 	public String getMarker() {
 		return marker;
@@ -72,12 +93,49 @@ public class S3InputSplit extends InputSplit implements Writable {
 		this.size = size;
 	}
 
+	/**
+	 * @return total size of the objects in bytes or -1 if it is not known
+	 */
+	public long getObjectsLength() {
+		return length;
+	}
+
+	public void setObjectsLength(long length) {
+		this.length = length;
+	}
+
+	/**
+	 * @return offset of the byte range of the object or -1 if split covers whole objects
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	public void setStart(long start) {
+		this.start = start;
+	}
+
+	/**
+	 * @return keys of this split or <code>null</code> if keys are not embedded in split
+	 */
+	public List<S3ObjectSummary> getObjectSummaries() {
+		return objectSummaries;
+	}
+
+	public void setObjectSummaries(List<S3ObjectSummary> objectSummaries) {
+		this.objectSummaries = objectSummaries;
+	}
+
 	S3InputSplit() {
 	}
 
+	/**
+	 * Returns total size of the objects in bytes, so that the framework schedules the largest splits first. If the 
+	 * size of the objects is not known, number of keys is returned
+	 */
 	@Override
 	public long getLength() throws IOException, InterruptedException {
-		return size;
+		return length >= 0 ? length : size;
 	}
 
 	@Override
@@ -87,24 +145,90 @@ public class S3InputSplit extends InputSplit implements Writable {
 
 	@Override
 	public void write(DataOutput out) throws IOException {
+		String marker = nullToEmpty(getMarker());
+		String lastKey = nullToEmpty(getLastKey());
+
+		int flags = 0;
+		if (marker.length() > 0) {
+			flags |= MARKER;
+		}
+		if (lastKey.length() > 0) {
+			flags |= LAST_KEY;
+		}
+		if (getObjectSummaries() != null) {
+			flags |= OBJECT_SUMMARIES;
+		}
+		out.writeByte(flags);
+
+		String keyPrefix = nullToEmpty(getKeyPrefix());
 		Text.writeString(out, getBucketName());
-		Text.writeString(out, getKeyPrefix());
-		Text.writeString(out, getMarker() != null ? getMarker() : "");
-		Text.writeString(out, getLastKey());
+		Text.writeString(out, keyPrefix);
+
+		if ((flags & MARKER) != 0) {
+			writeKey(out, keyPrefix, marker);
+		}
+		if ((flags & LAST_KEY) != 0) {
+			writeKey(out, (flags & MARKER) != 0 ? marker : keyPrefix, lastKey);
+		}
+
 		WritableUtils.writeVInt(out, getSize());
+		WritableUtils.writeVLong(out, getObjectsLength());
+		WritableUtils.writeVLong(out, getStart());
+
+		if ((flags & OBJECT_SUMMARIES) != 0) {
+			new S3ObjectSummaryList(getBucketName(), getObjectSummaries()).write(out);
+		}
 	}
 
 	@Override
 	public void readFields(DataInput in) throws IOException {
-		setBucketName(Text.readString(in));
-		setKeyPrefix(Text.readString(in));
-		setMarker(Text.readString(in));
-		setLastKey(Text.readString(in));
+		int flags = in.readByte();
+
+		// all splits of the job usually have the same bucket name and prefix
+		setBucketName(Text.readString(in).intern());
+		String keyPrefix = Text.readString(in).intern();
+		setKeyPrefix(emptyToNull(keyPrefix));
+
+		setMarker((flags & MARKER) != 0 ? readKey(in, keyPrefix) : null);
+		setLastKey((flags & LAST_KEY) != 0 ? readKey(in, getMarker() != null ? getMarker() : keyPrefix) : null);
+
 		setSize(WritableUtils.readVInt(in));
+		setObjectsLength(WritableUtils.readVLong(in));
+		setStart(WritableUtils.readVLong(in));
+
+		if ((flags & OBJECT_SUMMARIES) != 0) {
+			S3ObjectSummaryList list = new S3ObjectSummaryList();
+			list.readFields(in);
+			setObjectSummaries(list.getObjectSummaries());
+		} else {
+			setObjectSummaries(null);
+		}
+	}
+
+	/**
+	 * Writes the key front coded against previous key
+	 */
+	static void writeKey(DataOutput out, String previousKey, String key) throws IOException {
+		int shared = S3ObjectSummaryList.commonPrefixLength(previousKey, key);
+		WritableUtils.writeVInt(out, shared);
+		Text.writeString(out, key.substring(shared));
+	}
+
+	static String readKey(DataInput in, String previousKey) throws IOException {
+		int shared = WritableUtils.readVInt(in);
+		return previousKey.substring(0, shared) + Text.readString(in);
+	}
+
+	static String nullToEmpty(String value) {
+		return value != null ? value : "";
 	}
 	
+	static String emptyToNull(String value) {
+		return "".equals(value) ? null : value;
+	}
+
 	@Override
 	public String toString() {
-		return String.format("[Bucket=%s, Prefix=%s, Marker=%s, LastKey=%s, Size=%d]", getBucketName(), getKeyPrefix(), getMarker(), getLastKey(), getSize());
+		return String.format("[Bucket=%s, Prefix=%s, Marker=%s, LastKey=%s, Size=%d, Length=%d, Start=%d]", getBucketName(), getKeyPrefix(), getMarker(), getLastKey(), getSize(), getObjectsLength(), getStart());
 	}
 }
@@ -0,0 +1,174 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.mapreduce.InputSplit;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * Builds {@link S3InputSplit}s from ordered stream of keys. Keys must be added in the same (alphabetical) order S3
+ * returns them, unless they are embedded in splits: embedded keys added out of order (e.g. from inventory data files)
+ * are sorted within their split, whose last key is the greatest one. Each split is defined by the last key of previous split (marker) and its own last key. Split is closed
+ * when it reaches maximal number of keys or when the next key would make total size of its objects exceed maximal
+ * number of bytes. Large object can also be divided into several splits covering its byte ranges.
+ *
+ * @author seljaz
+ *
+ */
+public class S3InputSplitBuilder {
+
+	String bucketName;
+	String keyPrefix;
+	int numOfKeysPerSplit;
+	long numOfBytesPerSplit;
+
+	List<InputSplit> splits = new ArrayList<InputSplit>();
+
+	String marker = null;
+	S3ObjectSummary lastObject = null;
+	int numOfKeys = 0;
+	long numOfBytes = 0;
+
+	boolean embedKeys = false;
+	List<S3ObjectSummary> objectSummaries = null;
+	boolean ordered = true;
+
+	/**
+	 * @param bucketName S3 bucket name
+	 * @param keyPrefix prefix of the keys
+	 * @param numOfKeysPerSplit maximal number of keys in single split
+	 */
+	public S3InputSplitBuilder(String bucketName, String keyPrefix, int numOfKeysPerSplit) {
+		this(bucketName, keyPrefix, numOfKeysPerSplit, Long.MAX_VALUE);
+	}
+
+	/**
+	 * @param bucketName S3 bucket name
+	 * @param keyPrefix prefix of the keys
+	 * @param numOfKeysPerSplit maximal number of keys in single split
+	 * @param numOfBytesPerSplit maximal total size of objects in single split. Object larger than that is put in 
+	 * split of its own
+	 */
+	public S3InputSplitBuilder(String bucketName, String keyPrefix, int numOfKeysPerSplit, long numOfBytesPerSplit) {
+		this.bucketName = bucketName;
+		this.keyPrefix = keyPrefix;
+		this.numOfKeysPerSplit = numOfKeysPerSplit;
+		this.numOfBytesPerSplit = numOfBytesPerSplit;
+	}
+
+	/**
+	 * Sets whether keys are embedded in splits, so record readers don't have to list them again
+	 *
+	 * @param embedKeys <code>true</code> if keys are embedded in splits
+	 */
+	public void setEmbedKeys(boolean embedKeys) {
+		this.embedKeys = embedKeys;
+	}
+
+	/**
+	 * Adds next key to current split. Split is closed when it reaches maximal number of keys or bytes
+	 *
+	 * @param objectSummary next key in bucket
+	 */
+	public void add(S3ObjectSummary objectSummary) {
+		if (numOfKeys > 0 && numOfBytes + objectSummary.getSize() > numOfBytesPerSplit) {
+			closeSplit();
+		}
+
+		if (lastObject != null && objectSummary.getKey().compareTo(lastObject.getKey()) < 0) {
+			ordered = false;
+		}
+		lastObject = objectSummary;
+		numOfKeys++;
+		numOfBytes += objectSummary.getSize();
+
+		if (embedKeys) {
+			if (objectSummaries == null) {
+				objectSummaries = new ArrayList<S3ObjectSummary>();
+			}
+			objectSummaries.add(objectSummary);
+		}
+
+		if (numOfKeys >= numOfKeysPerSplit) {
+			closeSplit();
+		}
+	}
+
+	/**
+	 * Closes current split and divides the object into splits of given number of bytes, each covering a byte range of
+	 * the object. The object is always embedded in range splits, so readers never read a key added before it after
+	 * the splits were calculated
+	 *
+	 * @param objectSummary next key in bucket
+	 * @param rangeSize maximal number of bytes in single split
+	 */
+	public void addRanges(S3ObjectSummary objectSummary, long rangeSize) {
+		closeSplit();
+
+		for (long start = 0; start < objectSummary.getSize(); start += rangeSize) {
+			S3InputSplit split = createSplit(objectSummary.getKey(), 1, Math.min(rangeSize, objectSummary.getSize()
+					- start));
+			split.setStart(start);
+			List<S3ObjectSummary> objectSummaries = new ArrayList<S3ObjectSummary>();
+			objectSummaries.add(objectSummary);
+			split.setObjectSummaries(objectSummaries);
+			splits.add(split);
+		}
+
+		marker = objectSummary.getKey();
+	}
+
+	/**
+	 * Closes the last split and returns all splits
+	 *
+	 * @return list of {@link S3InputSplit}
+	 */
+	public List<InputSplit> build() {
+		closeSplit();
+		return splits;
+	}
+
+	void closeSplit() {
+		if (numOfKeys == 0) {
+			return;
+		}
+
+		String lastKey = lastObject.getKey();
+		if (objectSummaries != null && !ordered) {
+			// readers stop after the last key of the split
+			Collections.sort(objectSummaries, new Comparator<S3ObjectSummary>() {
+				@Override
+				public int compare(S3ObjectSummary o1, S3ObjectSummary o2) {
+					return o1.getKey().compareTo(o2.getKey());
+				}
+			});
+			lastKey = objectSummaries.get(objectSummaries.size() - 1).getKey();
+		}
+
+		S3InputSplit split = createSplit(lastKey, numOfKeys, numOfBytes);
+		split.setObjectSummaries(objectSummaries);
+
+		splits.add(split);
+
+		marker = lastKey;
+		numOfKeys = 0;
+		numOfBytes = 0;
+		objectSummaries = null;
+		ordered = true;
+	}
+
+	S3InputSplit createSplit(String lastKey, int size, long length) {
+		S3InputSplit split = new S3InputSplit();
+		split.setBucketName(bucketName);
+		split.setKeyPrefix(keyPrefix);
+		split.setMarker(marker);
+		split.setLastKey(lastKey);
+		split.setSize(size);
+		split.setObjectsLength(length);
+		return split;
+	}
+}
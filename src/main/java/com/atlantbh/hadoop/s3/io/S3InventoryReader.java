@@ -0,0 +1,344 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URLDecoder;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SimpleTimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.InvalidJobConfException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.util.json.JSONArray;
+import com.amazonaws.util.json.JSONException;
+import com.amazonaws.util.json.JSONObject;
+
+/**
+ * Reads keys from S3 Inventory instead of listing S3 bucket. Inventory manifest (manifest.json) lists data files
+ * holding all keys of the bucket, which are read concurrently on bounded thread pool, so reading billions of keys
+ * takes a few file reads instead of millions of listObjects calls. Keys are not collected: each data file passes its
+ * keys to its own {@link FileHandler} as they are read, e.g. to build input splits of the file. Only CSV inventories
+ * are supported.
+ *
+ * Manifest is read from S3 ("s3://bucket/key") or from HDFS or local disk. Data files of manifest stored in S3 are
+ * read from its destination bucket, data files of local manifest are read from the data directory by their file
+ * name, so local copy of inventory can be used for testing.
+ *
+ * @author seljaz
+ *
+ */
+public class S3InventoryReader {
+	static Logger LOG = LoggerFactory.getLogger(S3InventoryReader.class);
+
+	static final String S3_SCHEME = "s3://";
+	static final String BUCKET_ARN = "arn:aws:s3:::";
+
+	Configuration conf;
+	S3BucketReader s3Reader;
+	int numOfThreads;
+
+	String sourceBucket;
+	String destinationBucket;
+	List<String> fileSchema = new ArrayList<String>();
+	List<String> files = new ArrayList<String>();
+
+	/**
+	 * Handles keys of single inventory data file. Handler is used only by the thread reading the file and gets keys in
+	 * the order of the file, which is not alphabetical
+	 */
+	public interface FileHandler<T> {
+		void add(S3ObjectSummary objectSummary) throws IOException;
+
+		/**
+		 * @return result of the file, called after all its keys were added
+		 */
+		T finish() throws IOException;
+	}
+
+	/**
+	 * Creates handler for each inventory data file
+	 */
+	public interface FileHandlerFactory<T> {
+		FileHandler<T> create(String file);
+	}
+
+	/**
+	 * @param conf job configuration, used to read local files
+	 * @param s3Reader bucket reader used to read files from S3
+	 * @param numOfThreads maximal number of data files read concurrently
+	 */
+	public S3InventoryReader(Configuration conf, S3BucketReader s3Reader, int numOfThreads) {
+		this.conf = conf;
+		this.s3Reader = s3Reader;
+		this.numOfThreads = numOfThreads;
+	}
+
+	/**
+	 * Reads keys with the prefix from data files of the inventory
+	 *
+	 * @param manifest location of manifest.json, "s3://bucket/key" or path on HDFS or local disk
+	 * @param dataDir directory of local data files or <code>null</code> for the directory of local manifest
+	 * @param bucketName S3 bucket name, must be the source bucket of the inventory
+	 * @param keyPrefix prefix of the keys
+	 * @param factory creates handler of keys for each data file
+	 * @return results of data files in the order of manifest
+	 * @throws IOException
+	 */
+	public <T> List<T> readFiles(String manifest, String dataDir, final String bucketName, final String keyPrefix,
+			final FileHandlerFactory<T> factory) throws IOException {
+		readManifest(manifest);
+
+		if (!bucketName.equals(sourceBucket)) {
+			throw new InvalidJobConfException("Inventory manifest " + manifest + " lists keys of bucket "
+					+ sourceBucket + ", not " + bucketName);
+		}
+
+		final String prefix = keyPrefix != null ? keyPrefix : "";
+		final String dataLocation = manifest.startsWith(S3_SCHEME) ? null : dataDir != null ? dataDir : new Path(
+				manifest).getParent().toString();
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, numOfThreads));
+		try {
+			List<Future<T>> futures = new ArrayList<Future<T>>();
+			for (final String file : files) {
+				futures.add(executor.submit(new Callable<T>() {
+					@Override
+					public T call() throws Exception {
+						FileHandler<T> handler = factory.create(file);
+						InputStream in = open(file, dataLocation);
+						try {
+							long numOfKeys = readFile(in, bucketName, prefix, handler);
+							LOG.debug("Read {} keys from inventory file {}", numOfKeys, file);
+						} finally {
+							in.close();
+						}
+						return handler.finish();
+					}
+				}));
+			}
+
+			List<T> results = new ArrayList<T>();
+			for (Future<T> future : futures) {
+				results.add(future.get());
+			}
+
+			LOG.info("Read keys with prefix {} from {} inventory files", prefix, files.size());
+			return results;
+		} catch (ExecutionException e) {
+			throw new IOException("Reading inventory " + manifest + " failed", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Reading inventory " + manifest + " was interrupted", e);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Reads source bucket, destination bucket, schema and data files from manifest
+	 */
+	void readManifest(String manifest) throws IOException {
+		StringBuilder json = new StringBuilder();
+		InputStream in = open(manifest);
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+			char[] buffer = new char[4096];
+			int read;
+			while ((read = reader.read(buffer)) > 0) {
+				json.append(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+
+		try {
+			JSONObject object = new JSONObject(json.toString());
+
+			String fileFormat = object.optString("fileFormat", "CSV");
+			if (!"CSV".equalsIgnoreCase(fileFormat)) {
+				throw new InvalidJobConfException("Unsupported format " + fileFormat + " of inventory " + manifest
+						+ ", only CSV inventories are supported");
+			}
+
+			sourceBucket = object.getString("sourceBucket");
+			destinationBucket = object.getString("destinationBucket");
+			if (destinationBucket.startsWith(BUCKET_ARN)) {
+				destinationBucket = destinationBucket.substring(BUCKET_ARN.length());
+			}
+
+			fileSchema.clear();
+			for (String column : object.getString("fileSchema").split(",")) {
+				fileSchema.add(column.trim());
+			}
+			if (!fileSchema.contains("Key")) {
+				throw new InvalidJobConfException("Schema of inventory " + manifest + " doesn't have Key column");
+			}
+
+			files.clear();
+			JSONArray array = object.getJSONArray("files");
+			for (int i = 0; i < array.length(); i++) {
+				files.add(array.getJSONObject(i).getString("key"));
+			}
+		} catch (JSONException e) {
+			throw new IOException("Invalid inventory manifest " + manifest + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Opens data file from the destination bucket or the local data directory
+	 */
+	InputStream open(String file, String dataLocation) throws IOException {
+		InputStream in;
+		if (dataLocation == null) {
+			in = open(S3_SCHEME + destinationBucket + "/" + file);
+		} else {
+			in = open(new Path(dataLocation, new Path(file).getName()).toString());
+		}
+		return file.endsWith(".gz") ? new GZIPInputStream(in) : in;
+	}
+
+	/**
+	 * Opens file in S3 ("s3://bucket/key") or on HDFS or local disk
+	 */
+	InputStream open(String location) throws IOException {
+		if (location.startsWith(S3_SCHEME)) {
+			int slash = location.indexOf('/', S3_SCHEME.length());
+			if (slash < 0) {
+				throw new InvalidJobConfException("Invalid S3 location " + location);
+			}
+			S3Object object = s3Reader.getObject(new GetObjectRequest(location.substring(S3_SCHEME.length(), slash),
+					location.substring(slash + 1)));
+			return object.getObjectContent();
+		}
+
+		Path path = new Path(location);
+		return path.getFileSystem(conf).open(path);
+	}
+
+	/**
+	 * Reads keys with the prefix from CSV data file and passes them to the handler. Delete markers and noncurrent
+	 * versions of versioned buckets are skipped
+	 *
+	 * @return number of keys read
+	 */
+	long readFile(InputStream in, String bucketName, String keyPrefix, FileHandler<?> handler) throws IOException {
+		int keyColumn = fileSchema.indexOf("Key");
+		int sizeColumn = fileSchema.indexOf("Size");
+		int lastModifiedColumn = fileSchema.indexOf("LastModifiedDate");
+		int eTagColumn = fileSchema.indexOf("ETag");
+		int storageClassColumn = fileSchema.indexOf("StorageClass");
+		int isLatestColumn = fileSchema.indexOf("IsLatest");
+		int isDeleteMarkerColumn = fileSchema.indexOf("IsDeleteMarker");
+
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		format.setTimeZone(new SimpleTimeZone(0, "UTC"));
+
+		long numOfKeys = 0;
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		List<String> fields = new ArrayList<String>();
+
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.length() == 0) {
+				continue;
+			}
+			parseLine(line, fields);
+
+			String encodedKey = field(fields, keyColumn);
+			if (encodedKey == null) {
+				continue;
+			}
+
+			// keys are URL encoded
+			String key = URLDecoder.decode(encodedKey, "UTF-8");
+			if (!key.startsWith(keyPrefix)) {
+				continue;
+			}
+			if (isLatestColumn >= 0 && "false".equals(field(fields, isLatestColumn))
+					|| isDeleteMarkerColumn >= 0 && "true".equals(field(fields, isDeleteMarkerColumn))) {
+				continue;
+			}
+
+			S3ObjectSummary objectSummary = new S3ObjectSummary();
+			objectSummary.setBucketName(bucketName);
+			objectSummary.setKey(key);
+			objectSummary.setETag(field(fields, eTagColumn));
+			objectSummary.setStorageClass(field(fields, storageClassColumn));
+
+			String size = field(fields, sizeColumn);
+			if (size != null) {
+				objectSummary.setSize(Long.parseLong(size));
+			}
+			String lastModified = field(fields, lastModifiedColumn);
+			if (lastModified != null) {
+				try {
+					objectSummary.setLastModified(format.parse(lastModified));
+				} catch (ParseException e) {
+					throw new IOException("Invalid last modified date " + lastModified + " of key " + key);
+				}
+			}
+
+			handler.add(objectSummary);
+			numOfKeys++;
+		}
+		return numOfKeys;
+	}
+
+	/**
+	 * @return value of the column or <code>null</code> if the column is not in schema or is empty
+	 */
+	static String field(List<String> fields, int column) {
+		if (column < 0 || column >= fields.size() || fields.get(column).length() == 0) {
+			return null;
+		}
+		return fields.get(column);
+	}
+
+	/**
+	 * Splits CSV line into fields. Fields may be quoted, quotes in quoted field are doubled
+	 */
+	static void parseLine(String line, List<String> fields) {
+		fields.clear();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c != '"') {
+					field.append(c);
+				} else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					field.append(c);
+					i++;
+				} else {
+					quoted = false;
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		fields.add(field.toString());
+	}
+}
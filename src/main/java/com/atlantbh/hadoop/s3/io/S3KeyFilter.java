@@ -0,0 +1,222 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SimpleTimeZone;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.InvalidJobConfException;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * Filter of keys configured in the job. Keys are filtered by glob or regular expression matching the whole key, by
+ * last modified date, by size and by storage class. Filter is applied to listed keys when input splits are calculated,
+ * so filtered keys don't count toward split sizes, and by record readers, so they never reach the mapper even if keys
+ * are listed again (or splits were estimated by sampling).
+ *
+ * @author seljaz
+ *
+ */
+public class S3KeyFilter {
+
+	/**
+	 * Storage class of keys listed without one
+	 */
+	static final String STANDARD = "STANDARD";
+
+	Pattern keyPattern = null;
+	long modifiedAfter = Long.MIN_VALUE;
+	long modifiedBefore = Long.MAX_VALUE;
+	long minSize = 0;
+	long maxSize = Long.MAX_VALUE;
+	Set<String> storageClasses = null;
+
+	/**
+	 * Creates filter from job configuration
+	 *
+	 * @param conf job configuration
+	 * @return filter or <code>null</code> if no filter is configured
+	 * @throws InvalidJobConfException if filter cannot be parsed
+	 */
+	public static S3KeyFilter getFilter(Configuration conf) throws InvalidJobConfException {
+		S3KeyFilter filter = new S3KeyFilter();
+		boolean configured = false;
+
+		String glob = conf.get(S3InputFormat.S3_FILTER_KEY_GLOB);
+		String regex = conf.get(S3InputFormat.S3_FILTER_KEY_REGEX);
+		if (glob != null && regex != null) {
+			throw new InvalidJobConfException("Only one of " + S3InputFormat.S3_FILTER_KEY_GLOB + " and "
+					+ S3InputFormat.S3_FILTER_KEY_REGEX + " can be set");
+		}
+		if (glob != null || regex != null) {
+			try {
+				filter.keyPattern = Pattern.compile(glob != null ? globToRegex(glob) : regex);
+			} catch (PatternSyntaxException e) {
+				throw new InvalidJobConfException("Invalid key filter " + (glob != null ? glob : regex) + ": "
+						+ e.getDescription());
+			}
+			configured = true;
+		}
+
+		String modifiedAfter = conf.get(S3InputFormat.S3_FILTER_MODIFIED_AFTER);
+		if (modifiedAfter != null) {
+			filter.modifiedAfter = parseTime(S3InputFormat.S3_FILTER_MODIFIED_AFTER, modifiedAfter);
+			configured = true;
+		}
+		String modifiedBefore = conf.get(S3InputFormat.S3_FILTER_MODIFIED_BEFORE);
+		if (modifiedBefore != null) {
+			filter.modifiedBefore = parseTime(S3InputFormat.S3_FILTER_MODIFIED_BEFORE, modifiedBefore);
+			configured = true;
+		}
+
+		filter.minSize = conf.getLong(S3InputFormat.S3_FILTER_MIN_SIZE, 0);
+		filter.maxSize = conf.getLong(S3InputFormat.S3_FILTER_MAX_SIZE, Long.MAX_VALUE);
+		configured |= filter.minSize > 0 || filter.maxSize < Long.MAX_VALUE;
+
+		String[] storageClasses = conf.getStrings(S3InputFormat.S3_FILTER_STORAGE_CLASSES);
+		if (storageClasses != null && storageClasses.length > 0) {
+			filter.storageClasses = new HashSet<String>();
+			for (String storageClass : storageClasses) {
+				filter.storageClasses.add(storageClass.trim().toUpperCase());
+			}
+			configured = true;
+		}
+
+		return configured ? filter : null;
+	}
+
+	/**
+	 * Parses time given in milliseconds since epoch or as UTC date ("2013-01-31") or date and time
+	 * ("2013-01-31T12:00:00Z")
+	 */
+	static long parseTime(String name, String value) throws InvalidJobConfException {
+		value = value.trim();
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			// not milliseconds
+		}
+
+		for (String pattern : new String[] { "yyyy-MM-dd'T'HH:mm:ss'Z'", "yyyy-MM-dd" }) {
+			SimpleDateFormat format = new SimpleDateFormat(pattern);
+			format.setTimeZone(new SimpleTimeZone(0, "UTC"));
+			format.setLenient(false);
+			try {
+				Date date = format.parse(value);
+				if (format.format(date).equals(value)) {
+					return date.getTime();
+				}
+			} catch (ParseException e) {
+				// try next pattern
+			}
+		}
+		throw new InvalidJobConfException("Invalid time " + value + " of " + name);
+	}
+
+	/**
+	 * Converts glob to regular expression. "*" matches any characters except "/", "**" matches any characters, "?"
+	 * matches single character except "/", "[...]" matches character class ("[!...]" negated) and "{a,b}" matches
+	 * any of the alternatives
+	 */
+	static String globToRegex(String glob) {
+		StringBuilder regex = new StringBuilder();
+		int groups = 0;
+		boolean inClass = false;
+
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+
+			// characters of character class are copied, ranges included
+			if (inClass) {
+				if (c == ']') {
+					inClass = false;
+				} else if (c == '[' || c == '\\' || c == '&') {
+					regex.append('\\');
+				}
+				regex.append(c);
+				continue;
+			}
+
+			switch (c) {
+			case '*':
+				if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+					regex.append(".*");
+					i++;
+				} else {
+					regex.append("[^/]*");
+				}
+				break;
+			case '?':
+				regex.append("[^/]");
+				break;
+			case '[':
+				regex.append('[');
+				if (i + 1 < glob.length() && glob.charAt(i + 1) == '!') {
+					regex.append('^');
+					i++;
+				}
+				inClass = true;
+				break;
+			case '{':
+				regex.append("(?:");
+				groups++;
+				break;
+			case '}':
+				regex.append(groups > 0 ? ")" : "\\}");
+				groups = Math.max(0, groups - 1);
+				break;
+			case ',':
+				regex.append(groups > 0 ? "|" : ",");
+				break;
+			case '\\':
+				if (i + 1 < glob.length()) {
+					regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+				}
+				break;
+			default:
+				if (Character.isLetterOrDigit(c)) {
+					regex.append(c);
+				} else {
+					regex.append('\\').append(c);
+				}
+			}
+		}
+		return regex.toString();
+	}
+
+	/**
+	 * @param objectSummary key
+	 * @return <code>true</code> if the key passes the filter
+	 */
+	public boolean accept(S3ObjectSummary objectSummary) {
+		if (keyPattern != null && !keyPattern.matcher(objectSummary.getKey()).matches()) {
+			return false;
+		}
+
+		if (modifiedAfter != Long.MIN_VALUE || modifiedBefore != Long.MAX_VALUE) {
+			Date lastModified = objectSummary.getLastModified();
+			if (lastModified == null || lastModified.getTime() < modifiedAfter
+					|| lastModified.getTime() >= modifiedBefore) {
+				return false;
+			}
+		}
+
+		if (objectSummary.getSize() < minSize || objectSummary.getSize() > maxSize) {
+			return false;
+		}
+
+		if (storageClasses != null) {
+			String storageClass = objectSummary.getStorageClass();
+			if (!storageClasses.contains(storageClass != null ? storageClass.toUpperCase() : STANDARD)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,303 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * Calculates given number of input splits without listing all keys from the bucket.
+ *
+ * Keys are mapped to numbers from [0, 1) interval preserving their alphabetical order. Interval between the first
+ * and the last key is probed at equally distant points by listing small number of keys after each point. Density of
+ * keys around each point is estimated from the interval covered by the probe and key space is cut into splits
+ * having roughly equal estimated number of keys. Number of S3 requests is proportional to number of splits and not
+ * to number of keys in the bucket.
+ *
+ * Estimation assumes that keys are spread over the key space after their longest common prefix (hashed, random or 
+ * sequentially numbered keys). For keys forming few dense clusters far apart from each other, splits should be
+ * defined by number of keys instead.
+ *
+ * @author seljaz
+ *
+ */
+public class S3KeySpaceSampler {
+	static Logger LOG = LoggerFactory.getLogger(S3KeySpaceSampler.class);
+
+	/**
+	 * Keys are mapped to numbers using printable ASCII characters as digits. Characters outside of that range are
+	 * mapped to the lowest or highest digit.
+	 */
+	static final char MIN_CHAR = ' ';
+	static final char MAX_CHAR = '~';
+	static final int BASE = MAX_CHAR - MIN_CHAR + 1;
+
+	/**
+	 * Number of characters used in mapping, limited by double precision
+	 */
+	static final int PRECISION = 8;
+
+	/**
+	 * Number of probes used to find the end of key space
+	 */
+	static final int END_PROBES = 20;
+
+	S3BucketReader reader;
+	int probesPerSplit;
+	int probeKeys;
+
+	int numOfProbes = 0;
+
+	/**
+	 * @param reader S3 bucket reader used to probe the key space
+	 * @param probesPerSplit number of probes per requested split
+	 * @param probeKeys number of keys listed by single probe
+	 */
+	public S3KeySpaceSampler(S3BucketReader reader, int probesPerSplit, int probeKeys) {
+		this.reader = reader;
+		this.probesPerSplit = probesPerSplit;
+		this.probeKeys = probeKeys;
+	}
+
+	/**
+	 * Estimates key distribution and cuts the key space into splits
+	 *
+	 * @param bucketName S3 bucket name
+	 * @param keyPrefix prefix of the keys
+	 * @param numOfSplits requested number of splits
+	 * @return list of {@link S3InputSplit}
+	 */
+	public List<InputSplit> getSplits(String bucketName, String keyPrefix, int numOfSplits) {
+		List<InputSplit> splits = new ArrayList<InputSplit>();
+
+		if (numOfSplits <= 1) {
+			splits.add(createSplit(bucketName, keyPrefix, null, null, 0, -1));
+			return splits;
+		}
+
+		List<S3ObjectSummary> first = probe(bucketName, keyPrefix, null, 1);
+		if (first.isEmpty()) {
+			LOG.info("There are no keys with prefix {}", keyPrefix);
+			return splits;
+		}
+
+		// all keys start with the range prefix, so only characters after it are mapped to numbers
+		String firstKey = first.get(0).getKey();
+		String rangePrefix = getRangePrefix(bucketName, keyPrefix, firstKey);
+
+		double start = toFraction(firstKey, rangePrefix);
+		double end = findEnd(bucketName, keyPrefix, rangePrefix, start);
+
+		// probe the key space at equally distant points
+		int numOfSegments = numOfSplits * probesPerSplit;
+		double step = (end - start) / numOfSegments;
+
+		double[] counts = new double[numOfSegments];
+		List<List<S3ObjectSummary>> exactKeys = new ArrayList<List<S3ObjectSummary>>();
+
+		// average object size of sampled keys is used to estimate size of the splits
+		long sampledKeys = 0;
+		long sampledBytes = 0;
+
+		for (int i = 0; i < numOfSegments; i++) {
+			double segmentStart = start + i * step;
+			double segmentEnd = i == numOfSegments - 1 ? Double.MAX_VALUE : segmentStart + step;
+
+			String marker = i == 0 ? null : fromFraction(segmentStart, rangePrefix);
+			List<S3ObjectSummary> sample = probe(bucketName, keyPrefix, marker, probeKeys);
+
+			for (S3ObjectSummary objectSummary : sample) {
+				sampledBytes += objectSummary.getSize();
+			}
+			sampledKeys += sample.size();
+
+			// keys from the sample belonging to this segment
+			List<S3ObjectSummary> segmentKeys = new ArrayList<S3ObjectSummary>();
+			boolean exact = sample.size() < probeKeys;
+			for (S3ObjectSummary objectSummary : sample) {
+				if (toFraction(objectSummary.getKey(), rangePrefix) >= segmentEnd) {
+					exact = true;
+					break;
+				}
+				segmentKeys.add(objectSummary);
+			}
+
+			if (exact) {
+				counts[i] = segmentKeys.size();
+				exactKeys.add(segmentKeys);
+			} else {
+				// extrapolate density of keys covered by the sample to the whole segment
+				double covered = toFraction(sample.get(sample.size() - 1).getKey(), rangePrefix) - segmentStart;
+				counts[i] = sample.size() * step / Math.max(covered, step * 1e-6);
+				exactKeys.add(null);
+			}
+		}
+
+		double total = 0;
+		for (double count : counts) {
+			total += count;
+		}
+
+		double averageSize = sampledKeys > 0 ? sampledBytes / (double) sampledKeys : 0;
+
+		LOG.info("Estimated {} keys with prefix {} using {} probes", new Object[] { Math.round(total), keyPrefix,
+				numOfProbes });
+
+		// cut the key space into splits having equal estimated number of keys
+		String marker = null;
+		double markerCount = 0;
+		double cumulative = 0;
+		int segment = 0;
+
+		for (int i = 1; i < numOfSplits; i++) {
+			double target = total * i / numOfSplits;
+
+			while (segment < numOfSegments && cumulative + counts[segment] < target) {
+				cumulative += counts[segment++];
+			}
+			if (segment == numOfSegments) {
+				break;
+			}
+
+			String lastKey;
+			List<S3ObjectSummary> segmentKeys = exactKeys.get(segment);
+			double offset = target - cumulative;
+
+			if (segmentKeys != null) {
+				// exact keys are known, cut the segment at the key
+				int idx = Math.max(0, (int) Math.ceil(offset) - 1);
+				lastKey = segmentKeys.get(Math.min(idx, segmentKeys.size() - 1)).getKey();
+			} else {
+				lastKey = fromFraction(start + (segment + offset / counts[segment]) * step, rangePrefix);
+			}
+
+			if (marker != null && lastKey.compareTo(marker) <= 0) {
+				continue;
+			}
+
+			splits.add(createSplit(bucketName, keyPrefix, marker, lastKey, Math.round(target - markerCount),
+					Math.round((target - markerCount) * averageSize)));
+			marker = lastKey;
+			markerCount = target;
+		}
+
+		splits.add(createSplit(bucketName, keyPrefix, marker, null, Math.round(total - markerCount),
+				Math.round((total - markerCount) * averageSize)));
+
+		return splits;
+	}
+
+	/**
+	 * @return number of listing requests issued by this sampler
+	 */
+	public int getNumOfProbes() {
+		return numOfProbes;
+	}
+
+	S3InputSplit createSplit(String bucketName, String keyPrefix, String marker, String lastKey, long size, long length) {
+		S3InputSplit split = new S3InputSplit();
+		split.setBucketName(bucketName);
+		split.setKeyPrefix(keyPrefix);
+		split.setMarker(marker);
+		split.setLastKey(lastKey);
+		split.setSize((int) Math.max(0, Math.min(Integer.MAX_VALUE, size)));
+		split.setObjectsLength(length);
+		return split;
+	}
+
+	List<S3ObjectSummary> probe(String bucketName, String keyPrefix, String marker, int maxKeys) {
+		numOfProbes++;
+		ObjectListing listing = reader.listObjects(bucketName, keyPrefix, marker, null, maxKeys);
+		return listing.getObjectSummaries();
+	}
+
+	/**
+	 * Finds the longest prefix shared by all keys. One probe is needed for every character of the prefix.
+	 */
+	String getRangePrefix(String bucketName, String keyPrefix, String firstKey) {
+		String rangePrefix = keyPrefix != null ? keyPrefix : "";
+
+		while (rangePrefix.length() < firstKey.length()) {
+			String candidate = firstKey.substring(0, rangePrefix.length() + 1);
+
+			// is there any key not starting with candidate prefix
+			if (!probe(bucketName, keyPrefix, candidate + Character.MAX_VALUE, 1).isEmpty()) {
+				break;
+			}
+			rangePrefix = candidate;
+		}
+
+		return rangePrefix;
+	}
+
+	/**
+	 * Finds the upper bound of key space using binary search
+	 */
+	double findEnd(String bucketName, String keyPrefix, String rangePrefix, double start) {
+		double low = start;
+		double high = 1.0;
+
+		for (int i = 0; i < END_PROBES; i++) {
+			double middle = (low + high) / 2;
+			List<S3ObjectSummary> keys = probe(bucketName, keyPrefix, fromFraction(middle, rangePrefix), 1);
+
+			if (keys.isEmpty()) {
+				high = middle;
+			} else {
+				low = Math.max(middle, toFraction(keys.get(0).getKey(), rangePrefix));
+			}
+		}
+
+		return high;
+	}
+
+	/**
+	 * Maps the key to number from [0, 1) interval
+	 */
+	static double toFraction(String key, String rangePrefix) {
+		double fraction = 0;
+		double scale = 1.0 / BASE;
+
+		for (int i = rangePrefix.length(); i < key.length() && i < rangePrefix.length() + PRECISION; i++) {
+			char c = key.charAt(i);
+			int digit = c < MIN_CHAR ? 0 : c > MAX_CHAR ? BASE - 1 : c - MIN_CHAR;
+
+			fraction += digit * scale;
+			scale /= BASE;
+		}
+
+		return fraction;
+	}
+
+	/**
+	 * Maps the number from [0, 1) interval back to the key
+	 */
+	static String fromFraction(double fraction, String rangePrefix) {
+		StringBuilder key = new StringBuilder(rangePrefix);
+
+		// round to the last mapped digit
+		fraction += 0.5 * Math.pow(BASE, -PRECISION);
+
+		for (int i = 0; i < PRECISION; i++) {
+			fraction *= BASE;
+			int digit = Math.min(BASE - 1, (int) fraction);
+			fraction -= digit;
+
+			key.append((char) (MIN_CHAR + digit));
+		}
+
+		// trailing lowest digits don't change the order
+		int length = key.length();
+		while (length > rangePrefix.length() && key.charAt(length - 1) == MIN_CHAR) {
+			length--;
+		}
+		key.setLength(length);
+
+		return key.toString();
+	}
+}
@@ -0,0 +1,83 @@
+package com.atlantbh.hadoop.s3.io;
+
+/**
+ * Histogram of request latencies with logarithmic buckets, four buckets per power of two microseconds, so that
+ * percentiles are estimated within 19% of the real value using constant memory.
+ * 
+ * @author seljaz
+ *
+ */
+public class S3LatencyHistogram {
+
+	static final int BUCKETS_PER_POWER = 4;
+	static final int NUM_OF_BUCKETS = 40 * BUCKETS_PER_POWER;
+
+	long[] buckets = new long[NUM_OF_BUCKETS];
+	long count = 0;
+	long max = 0;
+
+	static int getBucket(long micros) {
+		if (micros < 1) {
+			return 0;
+		}
+		int bucket = (int) (Math.log(micros) / Math.log(2) * BUCKETS_PER_POWER) + 1;
+		return Math.min(bucket, NUM_OF_BUCKETS - 1);
+	}
+
+	/**
+	 * @return upper bound of the bucket in microseconds
+	 */
+	static long getUpperBound(int bucket) {
+		return (long) Math.pow(2, bucket / (double) BUCKETS_PER_POWER);
+	}
+
+	/**
+	 * Adds the latency to the histogram
+	 * 
+	 * @param nanos latency in nanoseconds
+	 */
+	public synchronized void add(long nanos) {
+		long micros = nanos / 1000;
+		buckets[getBucket(micros)]++;
+		count++;
+		max = Math.max(max, micros);
+	}
+
+	/**
+	 * @return number of latencies added
+	 */
+	public synchronized long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns estimated percentile of latencies
+	 * 
+	 * @param percentile percentile between 0 and 100
+	 * @return latency in milliseconds, no greater than the maximal latency
+	 */
+	public synchronized double getPercentile(double percentile) {
+		long rank = (long) Math.ceil(count * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < NUM_OF_BUCKETS; i++) {
+			seen += buckets[i];
+			if (seen >= rank && seen > 0) {
+				return Math.min(getUpperBound(i), max) / 1000.0;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return maximal latency in milliseconds
+	 */
+	public synchronized double getMax() {
+		return max / 1000.0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("[count=%d, p50=%.1fms, p90=%.1fms, p99=%.1fms, max=%.1fms]", getCount(),
+				getPercentile(50), getPercentile(90), getPercentile(99), getMax());
+	}
+}
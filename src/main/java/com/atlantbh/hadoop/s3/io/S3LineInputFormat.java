@@ -0,0 +1,58 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * S3 input format for text objects. Each line of the object is one record. Large objects are divided into byte range
+ * input splits (see "s3.input.objectSplitSize"), so single object can be processed by many mappers. Compressed
+ * objects are decompressed while they are read.
+ * 
+ * @author seljaz
+ *
+ */
+public class S3LineInputFormat extends S3InputFormat<Text, Text> {
+
+	public S3LineInputFormat() throws IOException {
+		super();
+	}
+
+	S3ObjectDecompressor decompressor;
+
+	/**
+	 * Compressed objects are read as whole, as compression codecs can't start reading from arbitrary offset. Listing
+	 * doesn't tell Content-Encoding, so object which is not recognized as compressed by key suffix is checked with
+	 * HEAD request. Only objects larger than "s3.input.objectSplitSize" are checked
+	 */
+	@Override
+	protected boolean isSplitable(JobContext context, S3ObjectSummary objectSummary) {
+		S3ObjectDecompressor decompressor;
+		synchronized (this) {
+			// splits of inventory data files are built concurrently
+			if (this.decompressor == null) {
+				this.decompressor = new S3ObjectDecompressor(context.getConfiguration());
+			}
+			decompressor = this.decompressor;
+		}
+		if (decompressor.getCodec(objectSummary.getKey(), null) != null) {
+			return false;
+		}
+
+		ObjectMetadata metadata = s3Reader.getObjectMetadata(objectSummary.getBucketName(), objectSummary.getKey());
+		return decompressor.getCodec(objectSummary.getKey(), metadata.getContentEncoding()) == null;
+	}
+
+	@Override
+	public RecordReader<Text, Text> createRecordReader(InputSplit split, TaskAttemptContext context)
+			throws IOException, InterruptedException {
+		return new S3LineRecordReader();
+	}
+}
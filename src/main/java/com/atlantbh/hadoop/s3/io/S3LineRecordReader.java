@@ -0,0 +1,138 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.util.LineReader;
+
+import com.amazonaws.services.s3.model.S3Object;
+
+/**
+ * Record reader for reading lines of S3 objects as ("bucket/key", line) pairs. Split covering byte range of large
+ * object is read the same way Hadoop reads text file splits: the line crossing the start of the range belongs to
+ * previous split and the line crossing the end of the range is read to its end. Compressed objects are decompressed
+ * by codec chosen by key suffix or Content-Encoding.
+ * 
+ * @author seljaz
+ *
+ */
+public class S3LineRecordReader extends S3RecordReader<Text, Text> {
+
+	Configuration conf;
+	S3ObjectDecompressor decompressor;
+	int maxLineLength;
+	long partSize;
+	int numOfThreads;
+
+	/**
+	 * Byte range of the split or -1 if split covers whole objects
+	 */
+	long splitStart;
+	long splitLength;
+
+	LineReader in = null;
+	long pos;
+	long end;
+
+	public S3LineRecordReader() {
+		outKey = new Text();
+		outValue = new Text();
+	}
+
+	@Override
+	public void initialize(InputSplit split, TaskAttemptContext context) throws IOException, InterruptedException {
+		super.initialize(split, context);
+
+		conf = context.getConfiguration();
+		maxLineLength = conf.getInt("mapred.linerecordreader.maxlength", Integer.MAX_VALUE);
+		partSize = conf.getLong(S3InputFormat.S3_RANGED_GET_PART_SIZE, 8 * 1024 * 1024);
+		numOfThreads = conf.getInt(S3InputFormat.S3_RANGED_GET_THREADS, 4);
+		decompressor = new S3ObjectDecompressor(conf);
+
+		S3InputSplit inputSplit = (S3InputSplit) split;
+		splitStart = inputSplit.getStart();
+		splitLength = inputSplit.getObjectsLength();
+	}
+
+	/**
+	 * Opens the next object of the split
+	 * @return <code>false</code> if there are no more objects
+	 */
+	boolean openNextObject() throws IOException {
+		completeKey();
+		while ((currentKey = getNextSplitKey()) != null) {
+			// range split covers only its last key
+			if (splitStart < 0 || currentKey.getKey().equals(lastKey)) {
+				break;
+			}
+			LOG.warn("Skipped key {} which is not the object of byte range split", currentKey.getKey());
+		}
+		if (currentKey == null) {
+			return false;
+		}
+		currentPosition++;
+		outKey.set(String.format("%s/%s", currentKey.getBucketName(), currentKey.getKey()));
+
+		if (splitStart < 0) {
+			pos = 0;
+			end = Long.MAX_VALUE;
+			S3Object object = reader.getObject(currentKey);
+			object.setObjectContent(trackProgress(object.getObjectContent()));
+			decompressor.decompress(object);
+			in = new LineReader(object.getObjectContent(), conf);
+		} else {
+			// start one byte earlier to find out if the range starts with the new line
+			long start = splitStart > 0 ? splitStart - 1 : 0;
+			end = Math.min(splitStart + splitLength, currentKey.getSize());
+
+			// only the last line crossing the end of the split is read past it
+			S3RangedInputStream ranges = new S3RangedInputStream(reader, currentKey.getBucketName(),
+					currentKey.getKey(), currentKey.getETag(), start, currentKey.getSize(), partSize, numOfThreads, end);
+			in = new LineReader(trackProgress(reader.getMetrics().track(ranges, System.nanoTime())), conf);
+
+			// the first (partial) line belongs to previous split
+			pos = start;
+			if (splitStart > 0) {
+				pos += in.readLine(new Text(), 0, (int) Math.min(Integer.MAX_VALUE, end - pos));
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean nextKeyValue() throws IOException, InterruptedException {
+		while (in != null || openNextObject()) {
+			while (pos < end) {
+				int newSize = in.readLine(outValue, maxLineLength, Math.max((int) Math.min(Integer.MAX_VALUE, end
+						- pos), maxLineLength));
+				if (newSize == 0) {
+					break;
+				}
+				pos += newSize;
+				if (newSize < maxLineLength) {
+					return true;
+				}
+
+				// line too long, try again
+				LOG.info("Skipped line of size {} at pos {}", newSize, pos - newSize);
+			}
+
+			in.close();
+			in = null;
+		}
+
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (in != null) {
+			in.close();
+			in = null;
+		}
+		super.close();
+	}
+}
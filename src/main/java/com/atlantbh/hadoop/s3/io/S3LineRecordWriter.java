@@ -0,0 +1,75 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+/**
+ * Record writer writing (key, value) pairs as lines of S3 object, the same way Hadoop writes text files: key and
+ * value are separated by separator and <code>null</code> or {@link NullWritable} key or value is omitted.
+ * 
+ * @author seljaz
+ *
+ * @param <K>
+ *            Reducer key class
+ * @param <V>
+ *            Reducer value class
+ */
+public class S3LineRecordWriter<K, V> extends RecordWriter<K, V> {
+
+	static final byte[] NEWLINE = { '\n' };
+
+	OutputStream out;
+	byte[] separator;
+
+	/**
+	 * @param out stream writing the object, possibly compressing
+	 * @param separator separator of key and value
+	 * @throws IOException
+	 */
+	public S3LineRecordWriter(OutputStream out, String separator) throws IOException {
+		this.out = out;
+		this.separator = separator.getBytes("UTF-8");
+	}
+
+	void writeObject(Object o) throws IOException {
+		if (o instanceof Text) {
+			Text text = (Text) o;
+			out.write(text.getBytes(), 0, text.getLength());
+		} else {
+			out.write(o.toString().getBytes("UTF-8"));
+		}
+	}
+
+	@Override
+	public synchronized void write(K key, V value) throws IOException, InterruptedException {
+		boolean nullKey = key == null || key instanceof NullWritable;
+		boolean nullValue = value == null || value instanceof NullWritable;
+		if (nullKey && nullValue) {
+			return;
+		}
+
+		if (!nullKey) {
+			writeObject(key);
+		}
+		if (!nullKey && !nullValue) {
+			out.write(separator);
+		}
+		if (!nullValue) {
+			writeObject(value);
+		}
+		out.write(NEWLINE);
+	}
+
+	/**
+	 * Closes the stream, waiting for all parts to be uploaded. Object is completed when the task is committed
+	 */
+	@Override
+	public synchronized void close(TaskAttemptContext context) throws IOException, InterruptedException {
+		out.close();
+	}
+}
@@ -0,0 +1,214 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * Sorted listing of keys having the same prefix, stored on HDFS or local disk between job runs. Manifest holds key,
+ * size, ETag, last modified date and storage class of each key, so split planning can reuse it and list only the keys
+ * added since the manifest was written. Manifest is read and written one key at a time, so it is never held in
+ * memory.
+ *
+ * @author seljaz
+ *
+ */
+public class S3ListingManifest {
+	static Logger LOG = LoggerFactory.getLogger(S3ListingManifest.class);
+
+	static final int MAGIC = 0x53334d46;
+	/**
+	 * Version 1 stores number of keys before the keys, version 2 marks each key instead, so keys can be written as
+	 * they are listed
+	 */
+	static final int VERSION = 2;
+
+	/**
+	 * Opens manifest for reading
+	 *
+	 * @param conf job configuration
+	 * @param path manifest file
+	 * @return manifest reader or <code>null</code> if file doesn't exist
+	 * @throws IOException
+	 */
+	public static Reader open(Configuration conf, Path path) throws IOException {
+		FileSystem fs = path.getFileSystem(conf);
+		if (!fs.exists(path)) {
+			return null;
+		}
+
+		FSDataInputStream in = fs.open(path);
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("File " + path + " is not S3 listing manifest");
+			}
+			int version = WritableUtils.readVInt(in);
+			if (version != 1 && version != VERSION) {
+				throw new IOException("Unsupported version " + version + " of S3 listing manifest " + path);
+			}
+
+			String keyPrefix = Text.readString(in);
+			String bucketName = Text.readString(in);
+			int numOfKeys = version == 1 ? WritableUtils.readVInt(in) : -1;
+
+			return new Reader(in, bucketName, keyPrefix, numOfKeys);
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Creates manifest. Keys are written to temporary file which replaces the manifest when committed, so the previous
+	 * manifest stays intact (and can be read while the new one is written) if writing fails.
+	 *
+	 * @param conf job configuration
+	 * @param path manifest file
+	 * @param bucketName S3 bucket name
+	 * @param keyPrefix prefix of the keys
+	 * @return manifest writer
+	 * @throws IOException
+	 */
+	public static Writer create(Configuration conf, Path path, String bucketName, String keyPrefix)
+			throws IOException {
+		FileSystem fs = path.getFileSystem(conf);
+		Path tmp = new Path(path.getParent(), "." + path.getName() + ".tmp");
+
+		FSDataOutputStream out = fs.create(tmp, true);
+		out.writeInt(MAGIC);
+		WritableUtils.writeVInt(out, VERSION);
+		Text.writeString(out, keyPrefix != null ? keyPrefix : "");
+		Text.writeString(out, bucketName);
+
+		return new Writer(fs, path, tmp, out);
+	}
+
+	/**
+	 * Reads keys of manifest in alphabetical order
+	 */
+	public static class Reader {
+		FSDataInputStream in;
+		String bucketName;
+		String keyPrefix;
+		int remainingKeys;
+		S3ObjectSummaryList.Decoder decoder = new S3ObjectSummaryList.Decoder();
+		String lastKey = null;
+
+		Reader(FSDataInputStream in, String bucketName, String keyPrefix, int numOfKeys) {
+			this.in = in;
+			this.bucketName = bucketName;
+			this.keyPrefix = keyPrefix;
+			this.remainingKeys = numOfKeys;
+		}
+
+		public String getBucketName() {
+			return bucketName;
+		}
+
+		public String getKeyPrefix() {
+			return keyPrefix;
+		}
+
+		/**
+		 * Checks if manifest was created for the same bucket and key prefix
+		 */
+		public boolean matches(String bucketName, String keyPrefix) {
+			return this.bucketName.equals(bucketName) && this.keyPrefix.equals(keyPrefix != null ? keyPrefix : "");
+		}
+
+		/**
+		 * @return next key or <code>null</code> if all keys were read
+		 */
+		public S3ObjectSummary next() throws IOException {
+			if (remainingKeys >= 0 ? remainingKeys == 0 : !in.readBoolean()) {
+				return null;
+			}
+			if (remainingKeys > 0) {
+				remainingKeys--;
+			}
+
+			S3ObjectSummary objectSummary = decoder.read(in, bucketName);
+			lastKey = objectSummary.getKey();
+			return objectSummary;
+		}
+
+		/**
+		 * @return the last key read or <code>null</code> if no key was read
+		 */
+		public String getLastKey() {
+			return lastKey;
+		}
+
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes keys of manifest, which must be added in alphabetical order
+	 */
+	public static class Writer {
+		FileSystem fs;
+		Path path;
+		Path tmp;
+		FSDataOutputStream out;
+		S3ObjectSummaryList.Encoder encoder = new S3ObjectSummaryList.Encoder();
+		long numOfKeys = 0;
+		boolean committed = false;
+
+		Writer(FileSystem fs, Path path, Path tmp, FSDataOutputStream out) {
+			this.fs = fs;
+			this.path = path;
+			this.tmp = tmp;
+			this.out = out;
+		}
+
+		public void add(S3ObjectSummary objectSummary) throws IOException {
+			out.writeBoolean(true);
+			encoder.write(out, objectSummary);
+			numOfKeys++;
+		}
+
+		public long getNumOfKeys() {
+			return numOfKeys;
+		}
+
+		/**
+		 * Replaces the manifest with the keys written
+		 */
+		public void commit() throws IOException {
+			out.writeBoolean(false);
+			out.close();
+
+			if (fs.exists(path) && !fs.delete(path, false)) {
+				throw new IOException("Cannot delete old S3 listing manifest " + path);
+			}
+			if (!fs.rename(tmp, path)) {
+				throw new IOException("Cannot rename " + tmp + " to " + path);
+			}
+			committed = true;
+
+			LOG.info("Written {} keys to S3 listing manifest {}", numOfKeys, path);
+		}
+
+		/**
+		 * Discards the keys written if manifest wasn't committed
+		 */
+		public void close() throws IOException {
+			if (!committed) {
+				out.close();
+				fs.delete(tmp, false);
+			}
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+import com.amazonaws.AmazonServiceException;
+
+/**
+ * Metrics of S3 requests made by bucket reader and the streams it creates. Values of {@link S3Counter} are kept by
+ * this class and also published as Hadoop counters once the task context is set. Latencies of the first byte
+ * (response headers) and of the full body of GET requests are collected in histograms, which are logged by record
+ * readers when they are closed.
+ *
+ * Metrics are updated from prefetching and range fetching threads as well, so all methods are thread safe.
+ *
+ * @author seljaz
+ *
+ */
+public class S3Metrics {
+
+	/**
+	 * Bytes read are published in batches, so reading small chunks doesn't update counters too often
+	 */
+	static final int PUBLISH_BYTES = 64 * 1024;
+
+	AtomicLong[] values = new AtomicLong[S3Counter.values().length];
+	volatile Counter[] counters = null;
+
+	long waitNanos = 0;
+	long waitMillis = 0;
+
+	S3LatencyHistogram firstByte = new S3LatencyHistogram();
+	S3LatencyHistogram fullBody = new S3LatencyHistogram();
+
+	public S3Metrics() {
+		for (int i = 0; i < values.length; i++) {
+			values[i] = new AtomicLong();
+		}
+	}
+
+	/**
+	 * Publishes metrics as Hadoop counters of the task. Values collected so far are published as well
+	 *
+	 * @param context task context
+	 */
+	public void setContext(TaskInputOutputContext<?, ?, ?, ?> context) {
+		Counter[] taskCounters = new Counter[values.length];
+		for (S3Counter counter : S3Counter.values()) {
+			taskCounters[counter.ordinal()] = context.getCounter(counter);
+			taskCounters[counter.ordinal()].increment(values[counter.ordinal()].get());
+		}
+		counters = taskCounters;
+	}
+
+	/**
+	 * Increments the counter
+	 *
+	 * @param counter S3 counter
+	 * @param value increment
+	 */
+	public void increment(S3Counter counter, long value) {
+		values[counter.ordinal()].addAndGet(value);
+
+		Counter[] taskCounters = counters;
+		if (taskCounters != null) {
+			taskCounters[counter.ordinal()].increment(value);
+		}
+	}
+
+	/**
+	 * @param counter S3 counter
+	 * @return value of the counter
+	 */
+	public long get(S3Counter counter) {
+		return values[counter.ordinal()].get();
+	}
+
+	/**
+	 * Adds time spent waiting for S3. Wait time is counted in nanoseconds and published in whole milliseconds
+	 *
+	 * @param nanos time in nanoseconds
+	 */
+	public void addWait(long nanos) {
+		long millis;
+		synchronized (this) {
+			waitNanos += nanos;
+			millis = waitNanos / 1000000 - waitMillis;
+			waitMillis += millis;
+		}
+		if (millis > 0) {
+			increment(S3Counter.WAIT_MILLIS, millis);
+		}
+	}
+
+	/**
+	 * Counts completed (or failed) request
+	 *
+	 * @param counter counter of the request type
+	 * @param startNanos time when the request was sent
+	 */
+	public void addRequest(S3Counter counter, long startNanos) {
+		increment(counter, 1);
+		addWait(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Counts failed request if S3 rejected it because of too high request rate
+	 *
+	 * @param e exception thrown by S3 client
+	 */
+	public void addFailure(AmazonServiceException e) {
+		if (isThrottled(e)) {
+			increment(S3Counter.THROTTLED, 1);
+		}
+	}
+
+	static boolean isThrottled(AmazonServiceException e) {
+		return e.getStatusCode() == 503 || "SlowDown".equals(e.getErrorCode());
+	}
+
+	/**
+	 * @return latencies of response headers of GET requests
+	 */
+	public S3LatencyHistogram getFirstByteLatency() {
+		return firstByte;
+	}
+
+	/**
+	 * @return latencies of complete GET requests, until the content is read
+	 */
+	public S3LatencyHistogram getFullBodyLatency() {
+		return fullBody;
+	}
+
+	/**
+	 * Returns stream of object content which counts bytes read and time spent reading it. Latency of full body is
+	 * recorded when the end of the content is reached or the stream is closed
+	 *
+	 * @param in object content
+	 * @param startNanos time when the request was sent
+	 * @return counting stream
+	 */
+	public InputStream track(InputStream in, long startNanos) {
+		return new TrackingInputStream(in, startNanos);
+	}
+
+	class TrackingInputStream extends FilterInputStream {
+		long startNanos;
+		long bytes = 0;
+		long nanos = 0;
+		boolean done = false;
+
+		TrackingInputStream(InputStream in, long startNanos) {
+			super(in);
+			this.startNanos = startNanos;
+		}
+
+		void count(int read, long readStart) {
+			nanos += System.nanoTime() - readStart;
+			if (read > 0) {
+				bytes += read;
+			}
+			if (read < 0 || bytes >= PUBLISH_BYTES) {
+				publish();
+			}
+		}
+
+		void publish() {
+			if (bytes > 0) {
+				increment(S3Counter.BYTES_READ, bytes);
+				bytes = 0;
+			}
+			if (nanos > 0) {
+				addWait(nanos);
+				nanos = 0;
+			}
+		}
+
+		void finish() {
+			if (!done) {
+				done = true;
+				fullBody.add(System.nanoTime() - startNanos);
+			}
+			publish();
+		}
+
+		@Override
+		public int read() throws IOException {
+			long readStart = System.nanoTime();
+			int b = super.read();
+			count(b < 0 ? -1 : 1, readStart);
+			if (b < 0) {
+				finish();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			long readStart = System.nanoTime();
+			int read = super.read(b, off, len);
+			count(read, readStart);
+			if (read < 0) {
+				finish();
+			}
+			return read;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				finish();
+			}
+		}
+	}
+}
@@ -0,0 +1,280 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+/**
+ * Writes S3 object with multipart upload. Written bytes are collected in part buffers taken from bounded pool and
+ * every full part is uploaded on its own thread while the writer fills the next one, so the writer waits for S3 only
+ * when all buffers are being uploaded.
+ *
+ * Object doesn't exist until the upload is completed with {@link #complete()}, which is done by
+ * {@link S3OutputCommitter} when the task succeeds. Object smaller than single part is uploaded with single PUT request
+ * on completion instead.
+ *
+ * @author seljaz
+ *
+ */
+public class S3MultipartOutputStream extends OutputStream {
+	static Logger LOG = LoggerFactory.getLogger(S3MultipartOutputStream.class);
+
+	/**
+	 * Maximal number of parts of multipart upload
+	 */
+	static final int MAX_PARTS = 10000;
+
+	AmazonS3Client s3Client;
+	String bucketName;
+	String key;
+
+	int partSize;
+	int numOfThreads;
+
+	ExecutorService executor;
+
+	/**
+	 * Free part buffers. At most one buffer more than the number of threads is allocated
+	 */
+	BlockingQueue<byte[]> buffers;
+	int numOfBuffers = 0;
+
+	byte[] part = null;
+	int partPosition = 0;
+	int partNumber = 0;
+
+	String uploadId = null;
+	LinkedList<Future<PartETag>> parts = new LinkedList<Future<PartETag>>();
+	List<PartETag> partETags = new ArrayList<PartETag>();
+
+	boolean closed = false;
+
+	/**
+	 * @param s3Client S3 client shared by all threads
+	 * @param bucketName S3 bucket name
+	 * @param key key of the object
+	 * @param partSize size of single part
+	 * @param numOfThreads number of parts uploaded at the same time
+	 */
+	public S3MultipartOutputStream(AmazonS3Client s3Client, String bucketName, String key, int partSize,
+			int numOfThreads) {
+		this.s3Client = s3Client;
+		this.bucketName = bucketName;
+		this.key = key;
+		this.partSize = Math.max(1, partSize);
+		this.numOfThreads = Math.max(1, numOfThreads);
+
+		executor = Executors.newFixedThreadPool(this.numOfThreads);
+		buffers = new ArrayBlockingQueue<byte[]>(this.numOfThreads + 1);
+	}
+
+	/**
+	 * Takes free buffer from the pool, waiting for one if all buffers are being uploaded
+	 */
+	byte[] takeBuffer() throws IOException {
+		byte[] buffer = buffers.poll();
+		if (buffer == null && numOfBuffers <= numOfThreads) {
+			numOfBuffers++;
+			return new byte[partSize];
+		}
+
+		try {
+			return buffer != null ? buffer : buffers.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Writing object " + key + " was interrupted", e);
+		}
+	}
+
+	/**
+	 * Called when multipart upload is initiated, before any part is uploaded. Does nothing by default
+	 *
+	 * @param uploadId ID of the upload
+	 * @throws IOException
+	 */
+	protected void uploadStarted(String uploadId) throws IOException {
+	}
+
+	/**
+	 * Starts uploading current part and collects parts which are already uploaded
+	 */
+	void uploadPart() throws IOException {
+		if (uploadId == null) {
+			uploadId = s3Client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketName, key))
+					.getUploadId();
+			LOG.info("Started multipart upload of object {}", key);
+			uploadStarted(uploadId);
+		}
+		if (++partNumber > MAX_PARTS) {
+			throw new IOException("Object " + key + " has more than " + MAX_PARTS + " parts of " + partSize + " bytes");
+		}
+
+		final byte[] buffer = part;
+		final int length = partPosition;
+		final int number = partNumber;
+		part = null;
+		partPosition = 0;
+
+		parts.add(executor.submit(new Callable<PartETag>() {
+			@Override
+			public PartETag call() throws Exception {
+				try {
+					UploadPartRequest request = new UploadPartRequest();
+					request.setBucketName(bucketName);
+					request.setKey(key);
+					request.setUploadId(uploadId);
+					request.setPartNumber(number);
+					request.setPartSize(length);
+					request.setInputStream(new ByteArrayInputStream(buffer, 0, length));
+
+					PartETag partETag = s3Client.uploadPart(request).getPartETag();
+					LOG.debug("Uploaded part {} of object {}", number, key);
+					return partETag;
+				} finally {
+					buffers.add(buffer);
+				}
+			}
+		}));
+
+		collectParts(false);
+	}
+
+	/**
+	 * Removes uploaded parts from the queue, failing if upload of any of them failed
+	 *
+	 * @param wait whether to wait for parts which are still being uploaded
+	 */
+	void collectParts(boolean wait) throws IOException {
+		while (!parts.isEmpty() && (wait || parts.getFirst().isDone())) {
+			try {
+				partETags.add(parts.removeFirst().get());
+			} catch (ExecutionException e) {
+				throw new IOException("Uploading part of object " + key + " failed", e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Writing object " + key + " was interrupted", e);
+			}
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (closed) {
+			throw new IOException("Stream is closed");
+		}
+
+		while (len > 0) {
+			if (part == null) {
+				part = takeBuffer();
+			}
+
+			int written = Math.min(len, partSize - partPosition);
+			System.arraycopy(b, off, part, partPosition, written);
+			partPosition += written;
+			off += written;
+			len -= written;
+
+			if (partPosition == partSize) {
+				uploadPart();
+			}
+		}
+	}
+
+	/**
+	 * Uploads the last part and waits until all parts are uploaded. Object is not visible until it is completed
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+
+		// small object is kept in the buffer and uploaded with single request on completion
+		if (uploadId != null && partPosition > 0) {
+			uploadPart();
+		}
+		collectParts(true);
+		executor.shutdown();
+	}
+
+	/**
+	 * Makes the object visible by completing multipart upload or uploading it with single request
+	 *
+	 * @throws IOException if the stream is not closed
+	 */
+	public void complete() throws IOException {
+		if (!closed) {
+			throw new IOException("Object " + key + " cannot be completed before it is closed");
+		}
+
+		if (uploadId != null) {
+			s3Client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName, key, uploadId, partETags));
+			LOG.info("Completed multipart upload of object {} in {} parts", key, partETags.size());
+			uploadId = null;
+		} else {
+			ObjectMetadata metadata = new ObjectMetadata();
+			metadata.setContentLength(partPosition);
+			s3Client.putObject(new PutObjectRequest(bucketName, key, new ByteArrayInputStream(
+					part != null ? part : new byte[0], 0, partPosition), metadata));
+			LOG.info("Uploaded object {}", key);
+		}
+		part = null;
+		partPosition = 0;
+	}
+
+	/**
+	 * Stops uploading and discards uploaded parts. Object is not created
+	 */
+	public void abort() {
+		closed = true;
+		executor.shutdownNow();
+		parts.clear();
+		part = null;
+		partPosition = 0;
+
+		if (uploadId != null) {
+			try {
+				s3Client.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId));
+				LOG.info("Aborted multipart upload of object {}", key);
+			} catch (RuntimeException e) {
+				LOG.warn("Cannot abort multipart upload of object " + key, e);
+			}
+			uploadId = null;
+		}
+	}
+
+	/**
+	 * @return key of the object
+	 */
+	public String getKey() {
+		return key;
+	}
+}
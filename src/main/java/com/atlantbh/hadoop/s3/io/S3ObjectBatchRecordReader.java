@@ -0,0 +1,83 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * Record reader for reading batches of S3 objects as ("bucket/first key", {@link S3ObjectBatchWritable}) pairs.
+ * Batch is closed when it reaches maximal number of objects or when the next object would make its content exceed
+ * maximal number of bytes.
+ * 
+ * @author seljaz
+ *
+ */
+public class S3ObjectBatchRecordReader extends S3RecordReader<Text, S3ObjectBatchWritable> {
+
+	int maxObjects;
+	long maxBytes;
+
+	/**
+	 * Object which didn't fit into previous batch
+	 */
+	S3Object pendingObject = null;
+	S3ObjectSummary pendingKey = null;
+
+	public S3ObjectBatchRecordReader() {
+		outKey = new Text();
+		outValue = new S3ObjectBatchWritable();
+	}
+
+	@Override
+	public void initialize(InputSplit split, TaskAttemptContext context) throws IOException, InterruptedException {
+		super.initialize(split, context);
+
+		maxObjects = context.getConfiguration().getInt(CombineS3InputFormat.S3_BATCH_NUM_OF_OBJECTS, 1000);
+		maxBytes = Math.min(Integer.MAX_VALUE, context.getConfiguration().getLong(
+				CombineS3InputFormat.S3_BATCH_NUM_OF_BYTES, 64 * 1024 * 1024));
+	}
+
+	@Override
+	public boolean nextKeyValue() throws IOException, InterruptedException {
+		outValue.clear();
+
+		while (outValue.size() < maxObjects) {
+			if (pendingObject == null) {
+				if (!nextObject()) {
+					break;
+				}
+				pendingObject = object;
+				pendingKey = currentKey;
+			}
+
+			// length of decompressed content is not known, so compressed size is used as an estimate
+			long length = pendingObject.getObjectMetadata().getContentLength();
+			long estimate = length >= 0 ? length : pendingKey.getSize();
+			if (outValue.size() > 0 && outValue.getContentLength() + estimate > maxBytes) {
+				break;
+			}
+
+			outValue.add(pendingKey, pendingObject.getObjectContent(), length);
+			pendingObject = null;
+		}
+
+		if (outValue.size() == 0) {
+			return false;
+		}
+
+		S3ObjectSummary first = outValue.getObjectSummary(0);
+		outKey.set(String.format("%s/%s", first.getBucketName(), first.getKey()));
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		pendingObject = null;
+		super.close();
+	}
+}
@@ -0,0 +1,200 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * Batch of S3 objects read as single record. Keys of the objects are kept as {@link S3ObjectSummaryList} and content
+ * of all objects is concatenated into single buffer, with offset of each object kept in index. Buffer is reused
+ * between batches.
+ * 
+ * @author seljaz
+ *
+ */
+public class S3ObjectBatchWritable implements Writable {
+
+	S3ObjectSummaryList objectSummaries = new S3ObjectSummaryList();
+
+	/**
+	 * Offset of content of each object in the buffer, followed by total length of content
+	 */
+	int[] offsets = new int[1];
+	byte[] content = new byte[0];
+
+	/**
+	 * @return number of objects in the batch
+	 */
+	public int size() {
+		return objectSummaries.getObjectSummaries().size();
+	}
+
+	/**
+	 * Removes all objects from the batch
+	 */
+	public void clear() {
+		objectSummaries.setObjectSummaries(new ArrayList<S3ObjectSummary>());
+		offsets[0] = 0;
+	}
+
+	/**
+	 * Appends the object to the batch
+	 *
+	 * @param objectSummary key of the object
+	 * @param in content of the object
+	 * @param length length of the content or -1 if content is read to its end
+	 * @throws IOException if content cannot be read
+	 */
+	public void add(S3ObjectSummary objectSummary, InputStream in, long length) throws IOException {
+		if (length < 0) {
+			addUnknownLength(objectSummary, in);
+			return;
+		}
+
+		int start = getContentLength();
+		if (start + length > Integer.MAX_VALUE) {
+			throw new IOException("Batch cannot hold " + (start + length) + " bytes");
+		}
+		int end = start + (int) length;
+		ensureCapacity(size() + 1, end);
+
+		int offset = start;
+		int read;
+		while (offset < end && (read = in.read(content, offset, end - offset)) > 0) {
+			offset += read;
+		}
+		if (offset < end) {
+			throw new IOException("Premature end of object " + objectSummary.getKey() + " after " + (offset - start)
+					+ " of " + length + " bytes");
+		}
+
+		objectSummaries.setBucketName(objectSummary.getBucketName());
+		objectSummaries.getObjectSummaries().add(objectSummary);
+		offsets[size()] = end;
+	}
+
+	void addUnknownLength(S3ObjectSummary objectSummary, InputStream in) throws IOException {
+		int end = getContentLength();
+		ensureCapacity(size() + 1, end + 1);
+
+		int read;
+		while ((read = in.read(content, end, content.length - end)) >= 0) {
+			end += read;
+			if (end == content.length) {
+				if (end == Integer.MAX_VALUE) {
+					throw new IOException("Batch cannot hold content of object " + objectSummary.getKey());
+				}
+				ensureCapacity(size() + 1, end + 1);
+			}
+		}
+
+		objectSummaries.setBucketName(objectSummary.getBucketName());
+		objectSummaries.getObjectSummaries().add(objectSummary);
+		offsets[size()] = end;
+	}
+
+	void ensureCapacity(int numOfObjects, int length) {
+		if (offsets.length < numOfObjects + 1) {
+			int[] newOffsets = new int[Math.max(numOfObjects + 1, offsets.length * 2)];
+			System.arraycopy(offsets, 0, newOffsets, 0, offsets.length);
+			offsets = newOffsets;
+		}
+		if (content.length < length) {
+			byte[] newContent = new byte[(int) Math.min(Integer.MAX_VALUE, Math.max(length, content.length * 2L))];
+			System.arraycopy(content, 0, newContent, 0, getContentLength());
+			content = newContent;
+		}
+	}
+
+	public String getBucketName() {
+		return objectSummaries.getBucketName();
+	}
+
+	/**
+	 * @return keys of the objects in the batch
+	 */
+	public List<S3ObjectSummary> getObjectSummaries() {
+		return objectSummaries.getObjectSummaries();
+	}
+
+	public S3ObjectSummary getObjectSummary(int i) {
+		return getObjectSummaries().get(i);
+	}
+
+	/**
+	 * @return buffer holding content of all objects, valid up to {@link #getContentLength()}
+	 */
+	public byte[] getContent() {
+		return content;
+	}
+
+	/**
+	 * @return total length of content of all objects
+	 */
+	public int getContentLength() {
+		return offsets[size()];
+	}
+
+	/**
+	 * @return offset of content of i-th object in the buffer
+	 */
+	public int getContentOffset(int i) {
+		return offsets[i];
+	}
+
+	/**
+	 * @return length of content of i-th object
+	 */
+	public int getContentLength(int i) {
+		return offsets[i + 1] - offsets[i];
+	}
+
+	/**
+	 * @return stream reading content of i-th object
+	 */
+	public InputStream getContentStream(int i) {
+		return new ByteArrayInputStream(content, getContentOffset(i), getContentLength(i));
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		objectSummaries.write(out);
+		for (int i = 0; i < size(); i++) {
+			WritableUtils.writeVInt(out, getContentLength(i));
+		}
+		out.write(content, 0, getContentLength());
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		objectSummaries.readFields(in);
+
+		int numOfObjects = size();
+		if (offsets.length < numOfObjects + 1) {
+			offsets = new int[numOfObjects + 1];
+		}
+		offsets[0] = 0;
+		for (int i = 0; i < numOfObjects; i++) {
+			offsets[i + 1] = offsets[i] + WritableUtils.readVInt(in);
+		}
+
+		if (content.length < offsets[numOfObjects]) {
+			content = new byte[offsets[numOfObjects]];
+		}
+		in.readFully(content, 0, offsets[numOfObjects]);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("[bucketName=%s, objects=%d, length=%d]", getBucketName(), size(), getContentLength());
+	}
+}
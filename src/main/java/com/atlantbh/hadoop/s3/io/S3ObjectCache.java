@@ -0,0 +1,365 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * Cache of S3 object content on local disk, shared by all tasks running on the node. Objects are stored under the
+ * name derived from bucket name, key and ETag of the object, so cached content is valid as long as listed ETag is the
+ * same and no S3 request is needed to read it.
+ *
+ * Object metadata (content type and encoding, user metadata etc.) is stored in a file next to the content, so cached
+ * object has the same metadata as the object read from S3. Objects are written to temporary file and renamed when
+ * complete, so other JVMs never see partially written object.
+ * Least recently used objects are deleted when total size of the cache exceeds its budget. Eviction is guarded by
+ * lock file, and object which is deleted while being read stays readable until it is closed.
+ *
+ * @author seljaz
+ *
+ */
+public class S3ObjectCache {
+	static Logger LOG = LoggerFactory.getLogger(S3ObjectCache.class);
+
+	static final String TMP_SUFFIX = ".tmp";
+	static final String METADATA_SUFFIX = ".meta";
+	static final String LOCK_FILE = "cache.lock";
+
+	static Map<File, S3ObjectCache> caches = new HashMap<File, S3ObjectCache>();
+
+	File directory;
+	long maxBytes;
+
+	/**
+	 * Estimated size of the cache, updated by this JVM and recalculated on eviction
+	 */
+	long size;
+
+	/**
+	 * Returns the cache for the directory shared by all readers in the JVM
+	 *
+	 * @param directory local directory of the cache
+	 * @param maxBytes maximal total size of cached objects
+	 * @return cache
+	 * @throws IOException if directory cannot be created
+	 */
+	public static synchronized S3ObjectCache getCache(File directory, long maxBytes) throws IOException {
+		S3ObjectCache cache = caches.get(directory.getAbsoluteFile());
+		if (cache == null) {
+			cache = new S3ObjectCache(directory, maxBytes);
+			caches.put(directory.getAbsoluteFile(), cache);
+		}
+		return cache;
+	}
+
+	/**
+	 * @param directory local directory of the cache
+	 * @param maxBytes maximal total size of cached objects
+	 * @throws IOException if directory cannot be created
+	 */
+	public S3ObjectCache(File directory, long maxBytes) throws IOException {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+
+		if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+			throw new IOException("Cannot create cache directory " + directory);
+		}
+
+		size = 0;
+		for (File file : listObjectFiles()) {
+			size += file.length();
+		}
+	}
+
+	/**
+	 * Returns cached object
+	 *
+	 * @param objectSummary key of the object, with ETag
+	 * @return object reading content from local disk or <code>null</code> if object is not cached
+	 */
+	public S3Object get(S3ObjectSummary objectSummary) {
+		if (objectSummary.getETag() == null) {
+			return null;
+		}
+
+		File file = getFile(objectSummary);
+		try {
+			// metadata is written before the content, so it exists if the content does
+			ObjectMetadata metadata = readMetadata(getMetadataFile(file));
+			InputStream in = new FileInputStream(file);
+
+			// file modification time is used as access time for eviction
+			file.setLastModified(System.currentTimeMillis());
+
+			metadata.setContentLength(file.length());
+			metadata.setLastModified(objectSummary.getLastModified());
+			metadata.setHeader("ETag", objectSummary.getETag());
+			return createObject(objectSummary, in, metadata);
+		} catch (FileNotFoundException e) {
+			return null;
+		} catch (IOException e) {
+			LOG.warn("Cannot read metadata of cached object " + objectSummary.getKey(), e);
+			return null;
+		}
+	}
+
+	/**
+	 * Writes content of the object to the cache and returns cached object. Object larger than the cache is not
+	 * cached.
+	 *
+	 * @param objectSummary key of the object, with ETag
+	 * @param object object read from S3
+	 * @return object reading content from local disk or the same object if it is not cached
+	 * @throws IOException if object cannot be written to local disk
+	 */
+	public S3Object put(S3ObjectSummary objectSummary, S3Object object) throws IOException {
+		long length = object.getObjectMetadata().getContentLength();
+		if (objectSummary.getETag() == null || length > maxBytes) {
+			return object;
+		}
+
+		File file = getFile(objectSummary);
+		File parent = file.getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+			throw new IOException("Cannot create cache directory " + parent);
+		}
+
+		// unique temporary file, so concurrent writers of the same object don't interfere
+		File tmp = new File(parent, file.getName() + "." + UUID.randomUUID() + TMP_SUFFIX);
+
+		File metadataTmp = new File(parent, file.getName() + METADATA_SUFFIX + "." + UUID.randomUUID() + TMP_SUFFIX);
+		writeMetadata(metadataTmp, object.getObjectMetadata());
+		File metadataFile = getMetadataFile(file);
+		if (!metadataTmp.renameTo(metadataFile)) {
+			metadataTmp.delete();
+			if (!metadataFile.exists()) {
+				throw new IOException("Cannot rename " + metadataTmp + " to " + metadataFile);
+			}
+		}
+
+		InputStream in = object.getObjectContent();
+		try {
+			OutputStream out = new FileOutputStream(tmp);
+			try {
+				byte[] buffer = new byte[64 * 1024];
+				int read;
+				while ((read = in.read(buffer)) >= 0) {
+					out.write(buffer, 0, read);
+				}
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			tmp.delete();
+			throw e;
+		} finally {
+			in.close();
+		}
+
+		if (tmp.length() != length) {
+			tmp.delete();
+			throw new IOException("Read " + tmp.length() + " of " + length + " bytes of object " + object.getKey());
+		}
+		if (!tmp.renameTo(file)) {
+			// another JVM might have cached the same object already
+			tmp.delete();
+			if (!file.exists()) {
+				throw new IOException("Cannot rename " + tmp + " to " + file);
+			}
+		}
+
+		// file is opened before eviction, so it stays readable even if it is evicted
+		S3Object cached = createObject(objectSummary, new FileInputStream(file), object.getObjectMetadata());
+
+		synchronized (this) {
+			size += length;
+			if (size > maxBytes) {
+				evict();
+			}
+		}
+
+		return cached;
+	}
+
+	/**
+	 * Deletes least recently used objects until the cache is within its budget
+	 */
+	synchronized void evict() throws IOException {
+		RandomAccessFile lockFile = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+		try {
+			FileLock lock = lockFile.getChannel().lock();
+			try {
+				List<File> files = listObjectFiles();
+
+				final Map<File, Long> accessTimes = new HashMap<File, Long>();
+				size = 0;
+				for (File file : files) {
+					accessTimes.put(file, file.lastModified());
+					size += file.length();
+				}
+
+				Collections.sort(files, new Comparator<File>() {
+					@Override
+					public int compare(File o1, File o2) {
+						return accessTimes.get(o1).compareTo(accessTimes.get(o2));
+					}
+				});
+
+				// evict a bit more than needed, so eviction doesn't run on every put
+				long target = maxBytes - maxBytes / 10;
+				int deleted = 0;
+				for (File file : files) {
+					if (size <= target) {
+						break;
+					}
+					long length = file.length();
+					if (file.delete()) {
+						getMetadataFile(file).delete();
+						size -= length;
+						deleted++;
+					}
+				}
+
+				LOG.info("Evicted {} objects from cache {}", deleted, directory);
+			} finally {
+				lock.release();
+			}
+		} finally {
+			lockFile.close();
+		}
+	}
+
+	List<File> listObjectFiles() {
+		List<File> files = new ArrayList<File>();
+
+		File[] subdirectories = directory.listFiles();
+		if (subdirectories == null) {
+			return files;
+		}
+		for (File subdirectory : subdirectories) {
+			File[] objectFiles = subdirectory.listFiles();
+			if (objectFiles == null) {
+				continue;
+			}
+			for (File file : objectFiles) {
+				if (!file.getName().endsWith(TMP_SUFFIX) && !file.getName().endsWith(METADATA_SUFFIX)) {
+					files.add(file);
+				}
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Objects are spread into subdirectories by the first two digits of hashed name
+	 */
+	File getFile(S3ObjectSummary objectSummary) {
+		String name = hash(objectSummary.getBucketName() + "\0" + objectSummary.getKey() + "\0"
+				+ objectSummary.getETag());
+		return new File(new File(directory, name.substring(0, 2)), name);
+	}
+
+	static File getMetadataFile(File file) {
+		return new File(file.getParentFile(), file.getName() + METADATA_SUFFIX);
+	}
+
+	/**
+	 * Writes metadata which is not derived from the listed key: standard headers and user metadata
+	 */
+	static void writeMetadata(File file, ObjectMetadata metadata) throws IOException {
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+		try {
+			S3ObjectWritable.writeString(out, metadata.getCacheControl());
+			S3ObjectWritable.writeString(out, metadata.getContentDisposition());
+			S3ObjectWritable.writeString(out, metadata.getContentEncoding());
+			S3ObjectWritable.writeString(out, metadata.getContentMD5());
+			S3ObjectWritable.writeString(out, metadata.getContentType());
+			S3ObjectWritable.writeString(out, metadata.getServerSideEncryption());
+
+			Map<String, String> userMetadata = metadata.getUserMetadata();
+			WritableUtils.writeVInt(out, userMetadata.size());
+			for (Map.Entry<String, String> entry : userMetadata.entrySet()) {
+				Text.writeString(out, entry.getKey());
+				S3ObjectWritable.writeString(out, entry.getValue());
+			}
+		} catch (IOException e) {
+			out.close();
+			file.delete();
+			throw e;
+		}
+		out.close();
+	}
+
+	static ObjectMetadata readMetadata(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			ObjectMetadata metadata = new ObjectMetadata();
+			metadata.setCacheControl(S3InputSplit.emptyToNull(Text.readString(in)));
+			metadata.setContentDisposition(S3InputSplit.emptyToNull(Text.readString(in)));
+			metadata.setContentEncoding(S3InputSplit.emptyToNull(Text.readString(in)));
+			metadata.setContentMD5(S3InputSplit.emptyToNull(Text.readString(in)));
+			metadata.setContentType(S3InputSplit.emptyToNull(Text.readString(in)));
+			metadata.setServerSideEncryption(S3InputSplit.emptyToNull(Text.readString(in)));
+
+			int numOfEntries = WritableUtils.readVInt(in);
+			for (int i = 0; i < numOfEntries; i++) {
+				metadata.addUserMetadata(Text.readString(in), Text.readString(in));
+			}
+			return metadata;
+		} finally {
+			in.close();
+		}
+	}
+
+	static String hash(String value) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("MD5");
+			return String.format("%032x", new BigInteger(1, digest.digest(value.getBytes("UTF-8"))));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static S3Object createObject(S3ObjectSummary objectSummary, InputStream in, ObjectMetadata metadata) {
+		S3Object object = new S3Object();
+		object.setBucketName(objectSummary.getBucketName());
+		object.setKey(objectSummary.getKey());
+		object.setObjectMetadata(metadata);
+		object.setObjectContent(in);
+		return object;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("[directory=%s, maxBytes=%d, size=%d]", directory, maxBytes, size);
+	}
+}
@@ -0,0 +1,113 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.Decompressor;
+
+import com.amazonaws.services.s3.model.S3Object;
+
+/**
+ * Decompresses content of S3 objects using Hadoop compression codecs. Codec is chosen by suffix of the key (codecs
+ * configured in "io.compression.codecs") or by Content-Encoding of the object. Content is decompressed while it is
+ * read and decompressors are taken from {@link CodecPool} and returned when the stream is closed.
+ *
+ * @author seljaz
+ *
+ */
+public class S3ObjectDecompressor {
+
+	/**
+	 * Suffixes of the codecs used for Content-Encoding values
+	 */
+	static Map<String, String> CONTENT_ENCODINGS = new HashMap<String, String>();
+	static {
+		CONTENT_ENCODINGS.put("gzip", ".gz");
+		CONTENT_ENCODINGS.put("x-gzip", ".gz");
+		CONTENT_ENCODINGS.put("bzip2", ".bz2");
+		CONTENT_ENCODINGS.put("x-bzip2", ".bz2");
+		CONTENT_ENCODINGS.put("deflate", ".deflate");
+		CONTENT_ENCODINGS.put("snappy", ".snappy");
+	}
+
+	CompressionCodecFactory factory;
+
+	public S3ObjectDecompressor(Configuration conf) {
+		factory = new CompressionCodecFactory(conf);
+	}
+
+	/**
+	 * Finds the codec of the object
+	 *
+	 * @param key key of the object
+	 * @param contentEncoding Content-Encoding of the object or <code>null</code>
+	 * @return codec or <code>null</code> if content is not compressed
+	 */
+	public CompressionCodec getCodec(String key, String contentEncoding) {
+		CompressionCodec codec = factory.getCodec(new Path("/" + key));
+
+		if (codec == null && contentEncoding != null) {
+			String suffix = CONTENT_ENCODINGS.get(contentEncoding.trim().toLowerCase());
+			if (suffix != null) {
+				codec = factory.getCodec(new Path("/object" + suffix));
+			}
+		}
+		return codec;
+	}
+
+	/**
+	 * Replaces content of the object with decompressed content. Length of decompressed content is not known, so
+	 * content length of the object is set to -1.
+	 *
+	 * @param object S3 object
+	 * @return <code>true</code> if object was compressed
+	 * @throws IOException if decompressing stream cannot be created
+	 */
+	public boolean decompress(S3Object object) throws IOException {
+		CompressionCodec codec = getCodec(object.getKey(), object.getObjectMetadata().getContentEncoding());
+		if (codec == null) {
+			return false;
+		}
+
+		object.setObjectContent(createInputStream(codec, object.getObjectContent()));
+		object.getObjectMetadata().setContentLength(-1);
+		object.getObjectMetadata().setContentEncoding(null);
+		return true;
+	}
+
+	/**
+	 * Creates decompressing stream using pooled decompressor
+	 *
+	 * @param codec compression codec
+	 * @param in compressed content
+	 * @return stream of decompressed content, which returns decompressor to the pool when closed
+	 * @throws IOException
+	 */
+	public static InputStream createInputStream(CompressionCodec codec, InputStream in) throws IOException {
+		final Decompressor decompressor = CodecPool.getDecompressor(codec);
+
+		return new FilterInputStream(codec.createInputStream(in, decompressor)) {
+			boolean closed = false;
+
+			@Override
+			public void close() throws IOException {
+				if (!closed) {
+					closed = true;
+					try {
+						super.close();
+					} finally {
+						CodecPool.returnDecompressor(decompressor);
+					}
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,179 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * Gets S3 objects ahead of the reader. Objects are requested concurrently on bounded thread pool and returned in the
+ * order their keys were added. Content of each object is read into memory by prefetching thread, so the reader
+ * doesn't wait for S3 at all once the object is fetched.
+ *
+ * Number of objects in flight is limited by the number of threads and total size of buffered objects is limited by
+ * maximal number of bytes. Object larger than that is not buffered, its content is streamed from S3 as it is read.
+ * Streamed object (with buffers of its ranged reads) takes the whole window, so it is fetched alone.
+ *
+ * @author seljaz
+ *
+ */
+public class S3ObjectPrefetcher {
+	static Logger LOG = LoggerFactory.getLogger(S3ObjectPrefetcher.class);
+
+	S3BucketReader reader;
+	int numOfObjects;
+	long maxBytes;
+
+	ExecutorService executor;
+
+	LinkedList<Prefetch> queue = new LinkedList<Prefetch>();
+	long bufferedBytes = 0;
+
+	S3ObjectSummary currentKey;
+
+	static class Prefetch {
+		S3ObjectSummary objectSummary;
+		Future<S3Object> object;
+		long bytes;
+	}
+
+	/**
+	 * @param reader S3 bucket reader used by all prefetching threads
+	 * @param numOfObjects maximal number of objects requested at the same time
+	 * @param maxBytes maximal total size of objects fetched but not yet returned
+	 */
+	public S3ObjectPrefetcher(S3BucketReader reader, int numOfObjects, long maxBytes) {
+		this.reader = reader;
+		this.numOfObjects = Math.max(1, numOfObjects);
+		this.maxBytes = maxBytes;
+
+		executor = Executors.newFixedThreadPool(this.numOfObjects);
+	}
+
+	/**
+	 * Starts fetching the object if there is room for it. Object always fits if nothing is buffered, so objects
+	 * larger than maximal number of bytes are fetched one at a time.
+	 *
+	 * @param objectSummary key of the object
+	 * @return <code>true</code> if fetching started, <code>false</code> if the window is full
+	 */
+	public boolean add(final S3ObjectSummary objectSummary) {
+		// oversized objects are streamed, their ranged reads buffer parts which are not counted, so they take the
+		// whole window
+		final boolean buffered = objectSummary.getSize() <= maxBytes;
+		long bytes = buffered ? objectSummary.getSize() : maxBytes;
+
+		if (!queue.isEmpty() && (queue.size() >= numOfObjects || bufferedBytes + bytes > maxBytes)) {
+			return false;
+		}
+
+		Prefetch prefetch = new Prefetch();
+		prefetch.objectSummary = objectSummary;
+		prefetch.bytes = bytes;
+		prefetch.object = executor.submit(new Callable<S3Object>() {
+			@Override
+			public S3Object call() throws Exception {
+				S3Object object = reader.getObject(objectSummary);
+				if (buffered) {
+					object.setObjectContent(readContent(object));
+				}
+				return object;
+			}
+		});
+
+		queue.add(prefetch);
+		bufferedBytes += bytes;
+
+		return true;
+	}
+
+	/**
+	 * @return <code>true</code> if there are no objects left to return
+	 */
+	public boolean isEmpty() {
+		return queue.isEmpty();
+	}
+
+	/**
+	 * Returns the next object, waiting for it if it is still being fetched
+	 *
+	 * @return the object of the first key added and not yet returned
+	 * @throws IOException if fetching the object failed
+	 */
+	public S3Object next() throws IOException {
+		Prefetch prefetch = queue.removeFirst();
+		bufferedBytes -= prefetch.bytes;
+		currentKey = prefetch.objectSummary;
+
+		try {
+			return prefetch.object.get();
+		} catch (ExecutionException e) {
+			// S3 client exceptions are thrown as they would be without prefetching
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IOException("Getting object " + currentKey.getKey() + " failed", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Getting object " + currentKey.getKey() + " was interrupted", e);
+		}
+	}
+
+	/**
+	 * @return key of the object last returned by {@link #next()}
+	 */
+	public S3ObjectSummary getCurrentKey() {
+		return currentKey;
+	}
+
+	/**
+	 * Stops prefetching threads and releases objects which were fetched but not returned
+	 */
+	public void close() {
+		executor.shutdownNow();
+
+		for (Prefetch prefetch : queue) {
+			if (!prefetch.object.cancel(true) && prefetch.object.isDone()) {
+				try {
+					prefetch.object.get().getObjectContent().close();
+				} catch (Exception e) {
+					LOG.debug("Cannot close object {}", prefetch.objectSummary.getKey(), e);
+				}
+			}
+		}
+		queue.clear();
+		bufferedBytes = 0;
+	}
+
+	static InputStream readContent(S3Object object) throws IOException {
+		InputStream in = object.getObjectContent();
+		try {
+			byte[] content = new byte[(int) object.getObjectMetadata().getContentLength()];
+
+			int offset = 0;
+			int read;
+			while (offset < content.length && (read = in.read(content, offset, content.length - offset)) > 0) {
+				offset += read;
+			}
+			if (offset < content.length) {
+				throw new IOException("Premature end of object " + object.getKey() + " after " + offset + " of "
+						+ content.length + " bytes");
+			}
+
+			return new ByteArrayInputStream(content);
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -2,8 +2,6 @@ package com.atlantbh.hadoop.s3.io;
 
 import java.io.IOException;
 
-import com.amazonaws.services.s3.model.S3Object;
-
 /**
  * Record reader for reading ({@link S3ObjectSummaryWritable}, {@link S3ObjectWritable}) as (key, value) pairs
  * from underlying S3 Input Split
@@ -12,18 +10,16 @@ import com.amazonaws.services.s3.model.S3Object;
  *
  */
 public class S3ObjectRecordReader extends S3RecordReader<S3ObjectSummaryWritable, S3ObjectWritable> {
-	S3Object object;
 	
 	public S3ObjectRecordReader() {
 		outValue = new S3ObjectWritable();
 		outKey = new S3ObjectSummaryWritable();
 	}
-	
+
 	@Override
 	public boolean nextKeyValue() throws IOException, InterruptedException {
 		// we have read another record
-		if (super.nextKeyValue()) {
-			object = reader.getObject(currentKey);
+		if (nextObject()) {
 			
 			// poupulate key
 			outKey.setBucketName(currentKey.getBucketName());
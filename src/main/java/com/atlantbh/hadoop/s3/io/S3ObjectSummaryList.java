@@ -0,0 +1,211 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * Compact {@link Writable} list of {@link S3ObjectSummary} objects from the same bucket. Only key, size, ETag, last
+ * modified date and storage class are serialized.
+ *
+ * Keys are expected to be sorted, so each key is front coded against previous one (only the length of common prefix
+ * and the rest of the key are written). Sizes and dates are written as variable length numbers, MD5 ETags as 16 bytes
+ * and storage class only when it differs from storage class of previous key.
+ *
+ * @author seljaz
+ *
+ */
+public class S3ObjectSummaryList implements Writable {
+
+	static final int ETAG_MD5 = 1;
+	static final int ETAG_STRING = 2;
+	static final int STORAGE_CLASS = 4;
+
+	static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	String bucketName;
+	List<S3ObjectSummary> objectSummaries;
+
+	public S3ObjectSummaryList() {
+		this(null, new ArrayList<S3ObjectSummary>());
+	}
+
+	/**
+	 * @param bucketName S3 bucket name
+	 * @param objectSummaries alphabetically ordered keys from the bucket
+	 */
+	public S3ObjectSummaryList(String bucketName, List<S3ObjectSummary> objectSummaries) {
+		this.bucketName = bucketName;
+		this.objectSummaries = objectSummaries;
+	}
+
+	public String getBucketName() {
+		return bucketName;
+	}
+
+	public void setBucketName(String bucketName) {
+		this.bucketName = bucketName;
+	}
+
+	public List<S3ObjectSummary> getObjectSummaries() {
+		return objectSummaries;
+	}
+
+	public void setObjectSummaries(List<S3ObjectSummary> objectSummaries) {
+		this.objectSummaries = objectSummaries;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		Text.writeString(out, bucketName);
+		WritableUtils.writeVInt(out, objectSummaries.size());
+
+		Encoder encoder = new Encoder();
+		for (S3ObjectSummary objectSummary : objectSummaries) {
+			encoder.write(out, objectSummary);
+		}
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		bucketName = Text.readString(in);
+		int size = WritableUtils.readVInt(in);
+
+		objectSummaries = new ArrayList<S3ObjectSummary>(size);
+
+		Decoder decoder = new Decoder();
+		for (int i = 0; i < size; i++) {
+			objectSummaries.add(decoder.read(in, bucketName));
+		}
+	}
+
+	/**
+	 * Writes keys one by one, each front coded against previous one, so long lists can be streamed
+	 */
+	static class Encoder {
+		String previousKey = "";
+		String previousStorageClass = null;
+
+		void write(DataOutput out, S3ObjectSummary objectSummary) throws IOException {
+			String key = objectSummary.getKey();
+			String eTag = objectSummary.getETag();
+			String storageClass = objectSummary.getStorageClass();
+
+			int flags = 0;
+			if (isMD5(eTag)) {
+				flags |= ETAG_MD5;
+			} else if (eTag != null) {
+				flags |= ETAG_STRING;
+			}
+			if (storageClass != null ? !storageClass.equals(previousStorageClass) : previousStorageClass != null) {
+				flags |= STORAGE_CLASS;
+			}
+			out.writeByte(flags);
+
+			// front coded key
+			int shared = commonPrefixLength(previousKey, key);
+			WritableUtils.writeVInt(out, shared);
+			Text.writeString(out, key.substring(shared));
+
+			WritableUtils.writeVLong(out, objectSummary.getSize());
+			WritableUtils.writeVLong(out, objectSummary.getLastModified() != null ? objectSummary.getLastModified()
+					.getTime() : -1);
+
+			if ((flags & ETAG_MD5) != 0) {
+				for (int i = 0; i < 32; i += 2) {
+					out.writeByte(Integer.parseInt(eTag.substring(i, i + 2), 16));
+				}
+			} else if ((flags & ETAG_STRING) != 0) {
+				Text.writeString(out, eTag);
+			}
+
+			if ((flags & STORAGE_CLASS) != 0) {
+				Text.writeString(out, storageClass != null ? storageClass : "");
+				previousStorageClass = storageClass;
+			}
+
+			previousKey = key;
+		}
+	}
+
+	/**
+	 * Reads keys written by {@link Encoder} one by one
+	 */
+	static class Decoder {
+		String previousKey = "";
+		String storageClass = null;
+
+		S3ObjectSummary read(DataInput in, String bucketName) throws IOException {
+			S3ObjectSummary objectSummary = new S3ObjectSummary();
+			int flags = in.readByte();
+
+			int shared = WritableUtils.readVInt(in);
+			String key = previousKey.substring(0, shared) + Text.readString(in);
+
+			objectSummary.setBucketName(bucketName);
+			objectSummary.setKey(key);
+			objectSummary.setSize(WritableUtils.readVLong(in));
+
+			long lastModified = WritableUtils.readVLong(in);
+			objectSummary.setLastModified(lastModified >= 0 ? new Date(lastModified) : null);
+
+			if ((flags & ETAG_MD5) != 0) {
+				char[] eTag = new char[32];
+				for (int j = 0; j < 32; j += 2) {
+					int b = in.readByte() & 0xff;
+					eTag[j] = HEX_DIGITS[b >> 4];
+					eTag[j + 1] = HEX_DIGITS[b & 0xf];
+				}
+				objectSummary.setETag(new String(eTag));
+			} else if ((flags & ETAG_STRING) != 0) {
+				objectSummary.setETag(Text.readString(in));
+			}
+
+			if ((flags & STORAGE_CLASS) != 0) {
+				storageClass = S3InputSplit.emptyToNull(Text.readString(in));
+			}
+			objectSummary.setStorageClass(storageClass);
+
+			previousKey = key;
+			return objectSummary;
+		}
+	}
+
+	static int commonPrefixLength(String s1, String s2) {
+		int length = Math.min(s1.length(), s2.length());
+		int i = 0;
+		while (i < length && s1.charAt(i) == s2.charAt(i)) {
+			i++;
+		}
+
+		// surrogate pair must not be split between prefix and the rest of the key
+		if (i > 0 && i < s2.length() && Character.isHighSurrogate(s2.charAt(i - 1))) {
+			i--;
+		}
+		return i;
+	}
+
+	/**
+	 * ETag of objects not uploaded in multiple parts is hex encoded MD5 hash of the content
+	 */
+	static boolean isMD5(String eTag) {
+		if (eTag == null || eTag.length() != 32) {
+			return false;
+		}
+		for (int i = 0; i < eTag.length(); i++) {
+			if (Character.digit(eTag.charAt(i), 16) < 0 || Character.isUpperCase(eTag.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
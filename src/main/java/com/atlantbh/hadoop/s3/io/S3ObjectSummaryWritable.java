@@ -49,10 +49,12 @@ public class S3ObjectSummaryWritable extends S3ObjectSummary implements
 	public void write(DataOutput out) throws IOException {
 		Text.writeString(out, getBucketName());
 		Text.writeString(out, getKey());
-		Text.writeString(out, getETag());
-		Text.writeString(out, getStorageClass());
-		Text.writeString(out, getOwner().getId());
-		Text.writeString(out, getOwner().getDisplayName());
+		Text.writeString(out, getETag() != null ? getETag() : "");
+		Text.writeString(out, getStorageClass() != null ? getStorageClass() : "");
+		
+		// owner is not known for keys embedded in input split
+		Text.writeString(out, getOwner() != null ? getOwner().getId() : "");
+		Text.writeString(out, getOwner() != null ? getOwner().getDisplayName() : "");
 		out.writeLong(getSize());
 		out.writeLong(getLastModified().getTime());
 	}
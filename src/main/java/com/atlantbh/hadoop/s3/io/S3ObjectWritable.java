@@ -4,8 +4,12 @@ import java.io.ByteArrayInputStream;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
@@ -14,7 +18,12 @@ import org.apache.hadoop.io.WritableUtils;
 import com.amazonaws.services.s3.model.S3Object;
 
 /**
- * Implementation of {@link WritableComparable} interface for {@link S3Object} class
+ * Implementation of {@link WritableComparable} interface for {@link S3Object} class. Content is copied from the
+ * object stream in fixed size chunks and its length is written as variable length long, so objects are serialized
+ * without buffering whole content in memory. Content of unknown length (e.g. decompressed content) is written as
+ * sequence of chunks, each preceded by its length. Deserialized content is kept in buffers of at most
+ * {@link #SEGMENT_SIZE} bytes reused between records, so content larger than 2 GB is read without single full-size
+ * allocation.
  * 
  * @author seljaz
  *
@@ -22,7 +31,25 @@ import com.amazonaws.services.s3.model.S3Object;
 public class S3ObjectWritable extends S3Object implements
 		WritableComparable<S3Object> {
 	
-	ByteBuffer inBuffer, outBuffer;
+	/**
+	 * Size of chunks content is copied in
+	 */
+	static final int CHUNK_SIZE = 64 * 1024;
+	/**
+	 * Maximal size of single buffer deserialized content is kept in
+	 */
+	static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	int segmentSize = SEGMENT_SIZE;
+	List<byte[]> inBuffers = new ArrayList<byte[]>();
+	byte[] outBuffer;
+
+	/**
+	 * Number of buffers holding content of current record, bytes in the last one and total length of the content
+	 */
+	int numOfSegments;
+	int lastLength;
+	long contentLength;
 	
 	@Override
 	public void readFields(DataInput in) throws IOException {
@@ -32,19 +59,75 @@ public class S3ObjectWritable extends S3Object implements
 		// Metadata
 		this.getObjectMetadata().setContentLength(in.readLong());
 		this.getObjectMetadata().setLastModified(new Date(in.readLong()));
-		this.getObjectMetadata().setCacheControl(Text.readString(in));
-		this.getObjectMetadata().setContentDisposition(Text.readString(in));
-		this.getObjectMetadata().setContentEncoding(Text.readString(in));
-		this.getObjectMetadata().setContentMD5(Text.readString(in));
-		this.getObjectMetadata().setContentType(Text.readString(in));
-		this.getObjectMetadata().setServerSideEncryption(Text.readString(in));
+		this.getObjectMetadata().setCacheControl(S3InputSplit.emptyToNull(Text.readString(in)));
+		this.getObjectMetadata().setContentDisposition(S3InputSplit.emptyToNull(Text.readString(in)));
+		this.getObjectMetadata().setContentEncoding(S3InputSplit.emptyToNull(Text.readString(in)));
+		this.getObjectMetadata().setContentMD5(S3InputSplit.emptyToNull(Text.readString(in)));
+		this.getObjectMetadata().setContentType(S3InputSplit.emptyToNull(Text.readString(in)));
+		this.getObjectMetadata().setServerSideEncryption(S3InputSplit.emptyToNull(Text.readString(in)));
 
 		// Content
-		int size = WritableUtils.readVInt(in);
-		
-		inBuffer = ByteBuffer.allocate(size);
-		in.readFully(inBuffer.array());
-		setObjectContent(new ByteArrayInputStream(inBuffer.array()));
+		numOfSegments = 0;
+		lastLength = 0;
+		contentLength = 0;
+
+		long size = WritableUtils.readVLong(in);
+		if (size < 0) {
+			readChunks(in);
+		} else {
+			readContent(in, size, size);
+		}
+		setObjectContent(getContent());
+	}
+
+	/**
+	 * Reads bytes following the content read so far into buffers. Buffers are reused as long as they are large
+	 * enough
+	 *
+	 * @param length number of bytes to read
+	 * @param expected total length of the content or -1 if it is unknown
+	 */
+	void readContent(DataInput in, long length, long expected) throws IOException {
+		while (length > 0) {
+			if (numOfSegments == 0 || lastLength == inBuffers.get(numOfSegments - 1).length) {
+				// content of unknown length takes at least twice the buffers read so far
+				long needed = expected >= 0 ? expected - contentLength : Math.max(length, contentLength);
+				int bufferSize = (int) Math.min(segmentSize, needed);
+				if (numOfSegments == inBuffers.size()) {
+					inBuffers.add(new byte[bufferSize]);
+				} else if (inBuffers.get(numOfSegments).length < bufferSize) {
+					inBuffers.set(numOfSegments, new byte[bufferSize]);
+				}
+				numOfSegments++;
+				lastLength = 0;
+			}
+
+			byte[] buffer = inBuffers.get(numOfSegments - 1);
+			int read = (int) Math.min(length, buffer.length - lastLength);
+			in.readFully(buffer, lastLength, read);
+			lastLength += read;
+			contentLength += read;
+			length -= read;
+		}
+	}
+
+	/**
+	 * @return stream of the content held in buffers
+	 */
+	InputStream getContent() {
+		if (numOfSegments == 0) {
+			return new ByteArrayInputStream(new byte[0]);
+		}
+		if (numOfSegments == 1) {
+			return new ByteArrayInputStream(inBuffers.get(0), 0, lastLength);
+		}
+
+		List<InputStream> segments = new ArrayList<InputStream>();
+		for (int i = 0; i < numOfSegments; i++) {
+			byte[] buffer = inBuffers.get(i);
+			segments.add(new ByteArrayInputStream(buffer, 0, i < numOfSegments - 1 ? buffer.length : lastLength));
+		}
+		return new SequenceInputStream(Collections.enumeration(segments));
 	}
 
 	@Override
@@ -56,24 +139,73 @@ public class S3ObjectWritable extends S3Object implements
 		out.writeLong(getObjectMetadata().getContentLength());
 		out.writeLong(getObjectMetadata().getLastModified().getTime());
 		
-		Text.writeString(out, getObjectMetadata().getCacheControl());
-		Text.writeString(out, getObjectMetadata().getContentDisposition());
-		Text.writeString(out, getObjectMetadata().getContentEncoding());
-		Text.writeString(out, getObjectMetadata().getContentMD5());
-		Text.writeString(out, getObjectMetadata().getContentType());
-		Text.writeString(out, getObjectMetadata().getServerSideEncryption());
+		writeString(out, getObjectMetadata().getCacheControl());
+		writeString(out, getObjectMetadata().getContentDisposition());
+		writeString(out, getObjectMetadata().getContentEncoding());
+		writeString(out, getObjectMetadata().getContentMD5());
+		writeString(out, getObjectMetadata().getContentType());
+		writeString(out, getObjectMetadata().getServerSideEncryption());
 
 		// Version ID and eTag are read only properties so they're not serialized
 		
 		//TODO Add serialization for user and raw metadata
 		
-		// Read bytes from into outBuffer
-		outBuffer = ByteBuffer.allocate((int)getObjectMetadata().getContentLength());
-		getObjectContent().read(outBuffer.array());
-		
-		//write size and content
-		WritableUtils.writeVInt(out, outBuffer.capacity());
-		out.write(outBuffer.array());
+		// write size and copy content in chunks
+		long size = getObjectMetadata().getContentLength();
+		WritableUtils.writeVLong(out, size);
+
+		if (outBuffer == null) {
+			outBuffer = new byte[CHUNK_SIZE];
+		}
+
+		InputStream content = getObjectContent();
+		if (size < 0) {
+			writeChunks(out, content);
+			return;
+		}
+
+		long remaining = size;
+		while (remaining > 0) {
+			int read = content.read(outBuffer, 0, (int) Math.min(outBuffer.length, remaining));
+			if (read < 0) {
+				throw new IOException("Content of object " + getKey() + " ended after " + (size - remaining) + " of "
+						+ size + " bytes");
+			}
+			out.write(outBuffer, 0, read);
+			remaining -= read;
+		}
+	}
+
+	/**
+	 * Writes content of unknown length as chunks preceded by their length, followed by empty chunk
+	 */
+	void writeChunks(DataOutput out, InputStream content) throws IOException {
+		int read;
+		while ((read = content.read(outBuffer)) >= 0) {
+			if (read > 0) {
+				WritableUtils.writeVInt(out, read);
+				out.write(outBuffer, 0, read);
+			}
+		}
+		WritableUtils.writeVInt(out, 0);
+	}
+
+	/**
+	 * Reads content written as chunks into the buffers
+	 */
+	void readChunks(DataInput in) throws IOException {
+		int chunk;
+		while ((chunk = WritableUtils.readVInt(in)) > 0) {
+			readContent(in, chunk, -1);
+		}
+		getObjectMetadata().setContentLength(contentLength);
+	}
+
+	/**
+	 * Writes the string, or empty string if it is <code>null</code> as most of metadata is optional
+	 */
+	static void writeString(DataOutput out, String s) throws IOException {
+		Text.writeString(out, s != null ? s : "");
 	}
 
 	@Override
@@ -0,0 +1,197 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.JobID;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+
+/**
+ * Commits objects written by {@link S3OutputFormat}. Uploads of task attempt are completed when the task is committed
+ * and aborted when the task fails, so output of failed and speculative attempts never becomes visible.
+ *
+ * Uploads are registered by record writers of the task running in the same JVM. Started uploads are also recorded
+ * in job directory on shared file system (see {@link S3OutputFormat#S3_OUTPUT_UPLOADS_DIR}), so uploads of failed
+ * attempts are aborted by task cleanup attempts running in other JVMs, and uploads left behind by task JVMs which
+ * were killed are aborted on job cleanup.
+ *
+ * @author seljaz
+ *
+ */
+public class S3OutputCommitter extends OutputCommitter {
+	static Logger LOG = LoggerFactory.getLogger(S3OutputCommitter.class);
+
+	static Map<TaskAttemptID, List<S3MultipartOutputStream>> uploads = new HashMap<TaskAttemptID, List<S3MultipartOutputStream>>();
+
+	/**
+	 * Registers upload of task attempt, which is completed or aborted with the task
+	 *
+	 * @param taskAttemptID task attempt writing the object
+	 * @param out stream writing the object
+	 */
+	static synchronized void addUpload(TaskAttemptID taskAttemptID, S3MultipartOutputStream out) {
+		List<S3MultipartOutputStream> taskUploads = uploads.get(taskAttemptID);
+		if (taskUploads == null) {
+			taskUploads = new ArrayList<S3MultipartOutputStream>();
+			uploads.put(taskAttemptID, taskUploads);
+		}
+		taskUploads.add(out);
+	}
+
+	static synchronized List<S3MultipartOutputStream> removeUploads(TaskAttemptID taskAttemptID) {
+		List<S3MultipartOutputStream> taskUploads = uploads.remove(taskAttemptID);
+		return taskUploads != null ? taskUploads : new ArrayList<S3MultipartOutputStream>();
+	}
+
+	/**
+	 * @return directory where uploads started by the job are recorded
+	 */
+	static Path getUploadsDir(Configuration conf, JobID jobID) {
+		String dir = conf.get(S3OutputFormat.S3_OUTPUT_UPLOADS_DIR);
+		if (dir == null) {
+			dir = conf.get("hadoop.tmp.dir", "/tmp/hadoop-" + System.getProperty("user.name")) + "/s3-uploads";
+		}
+		return new Path(dir, jobID.toString());
+	}
+
+	static Path getUploadsDir(Configuration conf, TaskAttemptID taskAttemptID) {
+		return new Path(getUploadsDir(conf, taskAttemptID.getJobID()), taskAttemptID.toString());
+	}
+
+	/**
+	 * Records started upload of task attempt, so it can be aborted on job cleanup if the task attempt is killed
+	 *
+	 * @param conf job configuration
+	 * @param taskAttemptID task attempt writing the object
+	 * @param key key of the object
+	 * @param uploadId ID of multipart upload
+	 * @throws IOException
+	 */
+	static void recordUpload(Configuration conf, TaskAttemptID taskAttemptID, String key, String uploadId)
+			throws IOException {
+		// keys of the attempt may have the same file name
+		Path path = new Path(getUploadsDir(conf, taskAttemptID), MD5Hash.digest(key).toString());
+		FSDataOutputStream out = path.getFileSystem(conf).create(path, true);
+		try {
+			Text.writeString(out, key);
+			Text.writeString(out, uploadId);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Deletes records of uploads of task attempt which were completed or aborted
+	 */
+	static void deleteRecords(Configuration conf, TaskAttemptID taskAttemptID) throws IOException {
+		Path dir = getUploadsDir(conf, taskAttemptID);
+		dir.getFileSystem(conf).delete(dir, true);
+	}
+
+	/**
+	 * Aborts uploads recorded in the directory and its subdirectories. Uploads which were already completed or aborted
+	 * are skipped
+	 */
+	static void abortRecordedUploads(Configuration conf, Path dir) throws IOException {
+		FileSystem fs = dir.getFileSystem(conf);
+		if (!fs.exists(dir)) {
+			return;
+		}
+
+		String bucketName = conf.get(S3OutputFormat.S3_OUTPUT_BUCKET_NAME);
+		AmazonS3Client s3Client = S3ClientFactory.getClient(conf);
+		for (FileStatus record : fs.listStatus(dir)) {
+			if (record.isDir()) {
+				abortRecordedUploads(conf, record.getPath());
+				continue;
+			}
+
+			String key;
+			String uploadId;
+			FSDataInputStream in = fs.open(record.getPath());
+			try {
+				key = Text.readString(in);
+				uploadId = Text.readString(in);
+			} finally {
+				in.close();
+			}
+
+			LOG.info("Aborting incomplete multipart upload of object {}", key);
+			try {
+				s3Client.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId));
+			} catch (AmazonServiceException e) {
+				// upload was completed or aborted after it was recorded
+				if (e.getStatusCode() != 404) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	@Override
+	public void setupJob(JobContext context) throws IOException {
+	}
+
+	/**
+	 * Aborts multipart uploads recorded by task attempts of the job which were neither committed nor aborted. All
+	 * tasks are finished at this point, so such uploads were started by task attempts which were killed. Uploads of
+	 * other jobs and writers are never touched
+	 */
+	@Override
+	public void cleanupJob(JobContext context) throws IOException {
+		Configuration conf = context.getConfiguration();
+		Path dir = getUploadsDir(conf, context.getJobID());
+		abortRecordedUploads(conf, dir);
+		dir.getFileSystem(conf).delete(dir, true);
+	}
+
+	@Override
+	public void setupTask(TaskAttemptContext context) throws IOException {
+	}
+
+	@Override
+	public boolean needsTaskCommit(TaskAttemptContext context) throws IOException {
+		synchronized (S3OutputCommitter.class) {
+			return uploads.containsKey(context.getTaskAttemptID());
+		}
+	}
+
+	@Override
+	public void commitTask(TaskAttemptContext context) throws IOException {
+		for (S3MultipartOutputStream out : removeUploads(context.getTaskAttemptID())) {
+			out.complete();
+		}
+		deleteRecords(context.getConfiguration(), context.getTaskAttemptID());
+	}
+
+	@Override
+	public void abortTask(TaskAttemptContext context) throws IOException {
+		for (S3MultipartOutputStream out : removeUploads(context.getTaskAttemptID())) {
+			out.abort();
+		}
+		// failed attempts are aborted by task cleanup attempt in another JVM, which knows only the records
+		abortRecordedUploads(context.getConfiguration(), getUploadsDir(context.getConfiguration(),
+				context.getTaskAttemptID()));
+		deleteRecords(context.getConfiguration(), context.getTaskAttemptID());
+	}
+}
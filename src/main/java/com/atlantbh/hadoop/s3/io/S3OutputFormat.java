@@ -0,0 +1,110 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.mapred.InvalidJobConfException;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * S3 output format writing output of each task as text object "part-r-NNNNN" under output key prefix. Objects are
+ * written directly to S3 with multipart upload while the task runs, and they become visible when the task is
+ * committed by {@link S3OutputCommitter}. S3 client is configured with the same properties as for input.
+ * 
+ * Output is compressed if compression is enabled with {@link FileOutputFormat#setCompressOutput}.
+ * 
+ * @author seljaz
+ *
+ * @param <K>
+ *            Reducer key class
+ * @param <V>
+ *            Reducer value class
+ */
+public class S3OutputFormat<K, V> extends OutputFormat<K, V> {
+	static Logger LOG = LoggerFactory.getLogger(S3OutputFormat.class);
+
+	/**
+	 * Bucket where output objects are written
+	 */
+	static String S3_OUTPUT_BUCKET_NAME = "s3.output.bucket.name";
+	/**
+	 * Prefix of keys of output objects. Default is no prefix
+	 */
+	static String S3_OUTPUT_KEY_PREFIX = "s3.output.key.prefix";
+	/**
+	 * Size (in bytes) of single part of multipart upload. It is also the size of upload buffer, and S3 requires at
+	 * least 5 MB. Default value is 8 MB
+	 */
+	static String S3_OUTPUT_PART_SIZE = "s3.output.partSize";
+	/**
+	 * Number of parts uploaded at the same time. One more part buffer is filled while they are uploaded. Default value
+	 * is 4
+	 */
+	static String S3_OUTPUT_THREADS = "s3.output.threads";
+	/**
+	 * Directory (on file system shared by all tasks, e.g. HDFS) where started multipart uploads are recorded, so that
+	 * job cleanup can abort uploads of task attempts which were killed. Default is "${hadoop.tmp.dir}/s3-uploads"
+	 */
+	static String S3_OUTPUT_UPLOADS_DIR = "s3.output.uploads.dir";
+
+	static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+	@Override
+	public RecordWriter<K, V> getRecordWriter(TaskAttemptContext context) throws IOException, InterruptedException {
+		final Configuration conf = context.getConfiguration();
+		final TaskAttemptID taskAttemptID = context.getTaskAttemptID();
+
+		String extension = "";
+		CompressionCodec codec = null;
+		if (FileOutputFormat.getCompressOutput(context)) {
+			codec = ReflectionUtils.newInstance(FileOutputFormat.getOutputCompressorClass(context, GzipCodec.class),
+					conf);
+			extension = codec.getDefaultExtension();
+		}
+
+		String key = conf.get(S3_OUTPUT_KEY_PREFIX, "") + FileOutputFormat.getUniqueFile(context, "part", extension);
+
+		int partSize = conf.getInt(S3_OUTPUT_PART_SIZE, 8 * 1024 * 1024);
+		if (partSize < MIN_PART_SIZE) {
+			LOG.warn("{} is less than 5 MB, using 5 MB parts", S3_OUTPUT_PART_SIZE);
+			partSize = MIN_PART_SIZE;
+		}
+
+		S3MultipartOutputStream upload = new S3MultipartOutputStream(S3ClientFactory.getClient(conf),
+				conf.get(S3_OUTPUT_BUCKET_NAME), key, partSize, conf.getInt(S3_OUTPUT_THREADS, 4)) {
+			@Override
+			protected void uploadStarted(String uploadId) throws IOException {
+				S3OutputCommitter.recordUpload(conf, taskAttemptID, getKey(), uploadId);
+			}
+		};
+		S3OutputCommitter.addUpload(taskAttemptID, upload);
+
+		OutputStream out = codec != null ? codec.createOutputStream(upload) : upload;
+		return new S3LineRecordWriter<K, V>(out, conf.get("mapred.textoutputformat.separator", "\t"));
+	}
+
+	@Override
+	public void checkOutputSpecs(JobContext context) throws IOException, InterruptedException {
+		String bucketName = context.getConfiguration().get(S3_OUTPUT_BUCKET_NAME);
+		if (bucketName == null || "".equals(bucketName)) {
+			throw new InvalidJobConfException("S3 output bucket name cannot be empty");
+		}
+	}
+
+	@Override
+	public OutputCommitter getOutputCommitter(TaskAttemptContext context) throws IOException, InterruptedException {
+		return new S3OutputCommitter();
+	}
+}
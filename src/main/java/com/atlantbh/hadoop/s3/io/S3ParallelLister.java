@@ -0,0 +1,294 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * Lists keys from S3 bucket concurrently. Keys having the same prefix are divided into independent shards, either
+ * common prefixes found under the delimiter or explicitly defined shard prefixes (hex digits, dates, etc). Shards are
+ * listed at the same time on bounded thread pool and stitched back together in alphabetical order, so keys are
+ * returned by {@link #getNextKey()} in the same order as if they were listed with single sequence of listObjects
+ * calls.
+ *
+ * Keys are not collected: each shard passes its pages through bounded queue and keys are returned as soon as all
+ * shards before them are returned, so only a few pages per listing thread are held in memory.
+ *
+ * @author seljaz
+ *
+ */
+public class S3ParallelLister {
+	static Logger LOG = LoggerFactory.getLogger(S3ParallelLister.class);
+
+	/**
+	 * Number of pages listed ahead by each shard
+	 */
+	static final int QUEUE_PAGES = 4;
+
+	/**
+	 * Marks the end of shard listing in its queue
+	 */
+	static final List<S3ObjectSummary> END = new ArrayList<S3ObjectSummary>();
+
+	AmazonS3Client s3Client;
+	int numOfThreads;
+	int maxKeys;
+
+	S3Metrics metrics = new S3Metrics();
+	S3RequestGovernor governor = new S3RequestGovernor();
+
+	ExecutorService executor;
+	List<Shard> shards = new ArrayList<Shard>();
+	int currentShard = 0;
+	Iterator<S3ObjectSummary> currentPage;
+	String bucketName;
+
+	/**
+	 * Part of key space listed independently of others. All keys from one shard start with the same prefix so they
+	 * are contiguous in bucket.
+	 */
+	static class Shard {
+		String start;
+		String prefix;
+		List<S3ObjectSummary> objectSummaries;
+		BlockingQueue<List<S3ObjectSummary>> pages;
+		Future<Void> result;
+
+		Shard(String start) {
+			this.start = start;
+		}
+	}
+
+	/**
+	 * @param s3Client S3 client shared by all listing threads
+	 * @param numOfThreads maximal number of concurrent listings
+	 * @param maxKeys maximal number of keys to retrieve from S3 in single call
+	 */
+	public S3ParallelLister(AmazonS3Client s3Client, int numOfThreads, int maxKeys) {
+		this.s3Client = s3Client;
+		this.numOfThreads = numOfThreads;
+		this.maxKeys = maxKeys;
+	}
+
+	/**
+	 * Sets metrics updated by listing requests
+	 *
+	 * @param metrics metrics of S3 requests
+	 */
+	public void setMetrics(S3Metrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Sets governor of listing requests
+	 *
+	 * @param governor request governor
+	 */
+	public void setGovernor(S3RequestGovernor governor) {
+		this.governor = governor;
+	}
+
+	/**
+	 * Starts listing all keys with the same prefix using common prefixes under the delimiter as shards
+	 *
+	 * @param bucketName S3 bucket name
+	 * @param keyPrefix prefix of the keys
+	 * @param delimiter delimiter used to find the shards
+	 * @throws IOException
+	 */
+	public void start(String bucketName, String keyPrefix, String delimiter) throws IOException {
+		S3BucketReader reader = new S3BucketReader(s3Client, bucketName, keyPrefix, null, maxKeys);
+		reader.setMetrics(metrics);
+		reader.setGovernor(governor);
+
+		List<Shard> shards = new ArrayList<Shard>();
+		int numOfPrefixes = 0;
+
+		ObjectListing listing = null;
+		do {
+			if (listing == null) {
+				listing = reader.listObjects(bucketName, keyPrefix, delimiter, maxKeys);
+			} else {
+				listing = reader.listObjects(listing);
+			}
+
+			// keys not containing the delimiter are already listed
+			for (S3ObjectSummary objectSummary : listing.getObjectSummaries()) {
+				Shard shard = new Shard(objectSummary.getKey());
+				shard.objectSummaries = Collections.singletonList(objectSummary);
+				shards.add(shard);
+			}
+			for (String prefix : listing.getCommonPrefixes()) {
+				Shard shard = new Shard(prefix);
+				shard.prefix = prefix;
+				shards.add(shard);
+			}
+			numOfPrefixes += listing.getCommonPrefixes().size();
+		} while (listing.isTruncated());
+
+		LOG.info("Found {} common prefixes under delimiter '{}'", numOfPrefixes, delimiter);
+
+		listShards(bucketName, shards);
+	}
+
+	/**
+	 * Starts listing all keys with the same prefix using explicitly defined shards. Shards must cover all keys of
+	 * interest, keys having the prefix but not starting with any of the shards are not listed.
+	 *
+	 * @param bucketName S3 bucket name
+	 * @param keyPrefix prefix of the keys
+	 * @param shards suffixes appended to key prefix to get prefix of each shard
+	 * @throws IOException
+	 */
+	public void start(String bucketName, String keyPrefix, String[] shards) throws IOException {
+		String[] sorted = shards.clone();
+		Arrays.sort(sorted);
+
+		List<Shard> prefixShards = new ArrayList<Shard>();
+		for (String suffix : sorted) {
+			String prefix = (keyPrefix != null ? keyPrefix : "") + suffix;
+
+			// nested shard would list the same keys twice
+			if (!prefixShards.isEmpty() && prefix.startsWith(prefixShards.get(prefixShards.size() - 1).prefix)) {
+				LOG.warn("Shard {} is nested in shard {}. Ignoring it.", prefix,
+						prefixShards.get(prefixShards.size() - 1).prefix);
+				continue;
+			}
+			Shard shard = new Shard(prefix);
+			shard.prefix = prefix;
+			prefixShards.add(shard);
+		}
+
+		listShards(bucketName, prefixShards);
+	}
+
+	void listShards(final String bucketName, List<Shard> shards) {
+		// keys of one shard are contiguous in the bucket, so ordering the shards by their first key (or prefix)
+		// gives the keys in the same order as sequential listing. Shards are listed in that order, so the shard
+		// being returned is always listed while later ones wait for room in their queues
+		Collections.sort(shards, new Comparator<Shard>() {
+			@Override
+			public int compare(Shard o1, Shard o2) {
+				return o1.start.compareTo(o2.start);
+			}
+		});
+
+		this.bucketName = bucketName;
+		this.shards = shards;
+		currentShard = 0;
+		currentPage = null;
+		executor = Executors.newFixedThreadPool(Math.max(1, numOfThreads));
+
+		for (final Shard shard : shards) {
+			if (shard.prefix == null) {
+				continue;
+			}
+			shard.pages = new ArrayBlockingQueue<List<S3ObjectSummary>>(QUEUE_PAGES);
+			shard.result = executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					try {
+						S3BucketReader reader = new S3BucketReader(s3Client, bucketName, shard.prefix, null, maxKeys);
+						reader.setMetrics(metrics);
+						reader.setGovernor(governor);
+
+						long numOfKeys = 0;
+						ObjectListing listing = null;
+						do {
+							if (listing == null) {
+								listing = reader.listObjects(bucketName, shard.prefix, maxKeys);
+							} else {
+								listing = reader.listObjects(listing);
+							}
+							if (!listing.getObjectSummaries().isEmpty()) {
+								shard.pages.put(listing.getObjectSummaries());
+								numOfKeys += listing.getObjectSummaries().size();
+							}
+						} while (listing.isTruncated());
+
+						LOG.debug("Listed {} keys with prefix {}", numOfKeys, shard.prefix);
+						return null;
+					} finally {
+						// failure is reported by the result when the end is reached
+						try {
+							shard.pages.put(END);
+						} catch (InterruptedException e) {
+							// lister was closed
+						}
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Returns the next key in alphabetical order, waiting for its shard to be listed
+	 *
+	 * @return the next key or <code>null</code> if all keys were returned
+	 * @throws IOException if listing of a shard failed
+	 */
+	public S3ObjectSummary getNextKey() throws IOException {
+		try {
+			while (true) {
+				if (currentPage != null && currentPage.hasNext()) {
+					return currentPage.next();
+				}
+				if (currentShard >= shards.size()) {
+					close();
+					return null;
+				}
+
+				Shard shard = shards.get(currentShard);
+				if (shard.pages == null) {
+					currentPage = shard.objectSummaries.iterator();
+					currentShard++;
+					continue;
+				}
+
+				List<S3ObjectSummary> page = shard.pages.take();
+				if (page == END) {
+					shard.result.get();
+					currentPage = null;
+					currentShard++;
+				} else {
+					currentPage = page.iterator();
+				}
+			}
+		} catch (ExecutionException e) {
+			close();
+			throw new IOException("Listing keys from bucket " + bucketName + " failed", e.getCause());
+		} catch (InterruptedException e) {
+			close();
+			Thread.currentThread().interrupt();
+			throw new IOException("Listing keys from bucket " + bucketName + " was interrupted", e);
+		}
+	}
+
+	/**
+	 * Stops listing threads. Called when all keys are returned or listing fails
+	 */
+	public void close() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+
+/**
+ * Reads large S3 object as consecutive byte ranges fetched concurrently. Ranges are requested on bounded thread pool
+ * and read in order, so the stream returns the same bytes as single GET request. At most one range per thread is
+ * buffered ahead of the reader.
+ *
+ * Every range is requested with ETag of the object as a constraint, so object changed while it is being read causes
+ * an error instead of mixing the content of two versions.
+ *
+ * @author seljaz
+ *
+ */
+public class S3RangedInputStream extends InputStream {
+	static Logger LOG = LoggerFactory.getLogger(S3RangedInputStream.class);
+
+	S3BucketReader reader;
+	String bucketName;
+	String key;
+	String eTag;
+
+	long length;
+	long partSize;
+	int numOfThreads;
+
+	ExecutorService executor;
+	LinkedList<Future<byte[]>> parts = new LinkedList<Future<byte[]>>();
+
+	/**
+	 * Start of the next range to be requested
+	 */
+	long nextRange = 0;
+
+	/**
+	 * Ranges starting at or after this offset are not fetched ahead, but only when the stream reaches them
+	 */
+	long readAheadEnd = Long.MAX_VALUE;
+
+	byte[] part = null;
+	int partPosition = 0;
+
+	boolean closed = false;
+
+	/**
+	 * @param s3Client S3 client shared by all threads
+	 * @param bucketName S3 bucket name
+	 * @param key key of the object
+	 * @param eTag ETag of the object or <code>null</code> if object is not checked for changes
+	 * @param length size of the object
+	 * @param partSize size of single range
+	 * @param numOfThreads number of ranges fetched at the same time
+	 */
+	public S3RangedInputStream(AmazonS3Client s3Client, String bucketName, String key, String eTag, long length,
+			long partSize, int numOfThreads) {
+		this(new S3BucketReader(s3Client, bucketName, null, null, 1000), bucketName, key, eTag, 0, length, partSize,
+				numOfThreads);
+	}
+
+	/**
+	 * Creates stream reading the object from given offset. Ranges are requested through the bucket reader, so they
+	 * are counted in its metrics and limited by its request governor
+	 *
+	 * @param reader S3 bucket reader shared by all threads
+	 * @param bucketName S3 bucket name
+	 * @param key key of the object
+	 * @param eTag ETag of the object or <code>null</code> if object is not checked for changes
+	 * @param start offset of the first byte to read
+	 * @param length size of the object
+	 * @param partSize size of single range
+	 * @param numOfThreads number of ranges fetched at the same time
+	 */
+	public S3RangedInputStream(S3BucketReader reader, String bucketName, String key, String eTag, long start,
+			long length, long partSize, int numOfThreads) {
+		this(reader, bucketName, key, eTag, start, length, partSize, numOfThreads, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Creates stream reading the object from given offset, which fetches ranges ahead only up to given offset. Ranges
+	 * after it are fetched one at a time when the stream reaches them, e.g. when the last line of byte range split
+	 * crosses the end of the split
+	 *
+	 * @param reader S3 bucket reader shared by all threads
+	 * @param bucketName S3 bucket name
+	 * @param key key of the object
+	 * @param eTag ETag of the object or <code>null</code> if object is not checked for changes
+	 * @param start offset of the first byte to read
+	 * @param length size of the object
+	 * @param partSize size of single range
+	 * @param numOfThreads number of ranges fetched at the same time
+	 * @param readAheadEnd offset ranges are fetched ahead up to
+	 */
+	public S3RangedInputStream(S3BucketReader reader, String bucketName, String key, String eTag, long start,
+			long length, long partSize, int numOfThreads, long readAheadEnd) {
+		this.reader = reader;
+		this.bucketName = bucketName;
+		this.key = key;
+		this.eTag = eTag;
+		this.length = length;
+		this.partSize = Math.max(1, Math.min(partSize, Integer.MAX_VALUE));
+		this.numOfThreads = Math.max(1, numOfThreads);
+		this.nextRange = start;
+		this.readAheadEnd = readAheadEnd;
+
+		executor = Executors.newFixedThreadPool(this.numOfThreads);
+		for (int i = 0; i < this.numOfThreads; i++) {
+			readAhead();
+		}
+	}
+
+	/**
+	 * Requests the next range if it starts before the read ahead end
+	 */
+	void readAhead() {
+		if (nextRange < readAheadEnd) {
+			requestNextRange();
+		}
+	}
+
+	boolean requestNextRange() {
+		if (nextRange >= length) {
+			return false;
+		}
+
+		final long start = nextRange;
+		final long end = Math.min(length, start + partSize) - 1;
+		nextRange = end + 1;
+
+		parts.add(executor.submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws Exception {
+				return getRange(start, end);
+			}
+		}));
+		return true;
+	}
+
+	byte[] getRange(long start, long end) throws IOException {
+		GetObjectRequest request = new GetObjectRequest(bucketName, key);
+		request.setRange(start, end);
+		if (eTag != null) {
+			request.withMatchingETagConstraint(eTag);
+		}
+
+		// constraint not met means object was changed
+		S3Object object = reader.getObject(request);
+		if (object == null) {
+			throw new IOException("Object " + key + " was changed while being read");
+		}
+
+		InputStream in = object.getObjectContent();
+		try {
+			byte[] content = new byte[(int) (end - start + 1)];
+
+			int offset = 0;
+			int read;
+			while (offset < content.length && (read = in.read(content, offset, content.length - offset)) > 0) {
+				offset += read;
+			}
+			if (offset < content.length) {
+				throw new IOException("Premature end of range " + start + "-" + end + " of object " + key);
+			}
+
+			LOG.debug("Read range {}-{} of object {}", new Object[] { start, end, key });
+			return content;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Makes the next part current, waiting for it if it is still being fetched
+	 *
+	 * @return <code>false</code> if all parts are read
+	 */
+	boolean nextPart() throws IOException {
+		if (closed) {
+			throw new IOException("Stream is closed");
+		}
+		if (parts.isEmpty() && !requestNextRange()) {
+			return false;
+		}
+
+		try {
+			part = parts.removeFirst().get();
+			partPosition = 0;
+		} catch (ExecutionException e) {
+			close();
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Reading object " + key + " failed", e.getCause());
+		} catch (InterruptedException e) {
+			close();
+			Thread.currentThread().interrupt();
+			throw new IOException("Reading object " + key + " was interrupted", e);
+		}
+
+		// request the next range in place of the one taken
+		readAhead();
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if ((part == null || partPosition == part.length) && !nextPart()) {
+			return -1;
+		}
+		return part[partPosition++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if ((part == null || partPosition == part.length) && !nextPart()) {
+			return -1;
+		}
+
+		int read = Math.min(len, part.length - partPosition);
+		System.arraycopy(part, partPosition, b, off, read);
+		partPosition += read;
+		return read;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return part != null ? part.length - partPosition : 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			executor.shutdownNow();
+			parts.clear();
+			part = null;
+		}
+	}
+}
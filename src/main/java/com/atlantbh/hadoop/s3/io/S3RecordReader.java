@@ -1,13 +1,19 @@
 package com.atlantbh.hadoop.s3.io;
 
+import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
 
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 
 /**
@@ -28,16 +34,80 @@ public abstract class S3RecordReader<KEY, VALUE> extends RecordReader<KEY, VALUE
 	String lastKey;
 	
 	int size;
+	long length;
 	int currentPosition = 0;
 	int maxKeys;
 
 	S3BucketReader reader = null;
+	Iterator<S3ObjectSummary> objectSummaries = null;
 
 	S3ObjectSummary currentKey;
+	S3Object object;
+
+	/**
+	 * Number and total size of keys which are completely read
+	 */
+	int keysDone = 0;
+	long bytesDone = 0;
+	/**
+	 * Content of current object counting bytes read by the mapper
+	 */
+	CountingInputStream content = null;
+
+	S3ObjectDecompressor decompressor = null;
+
+	int prefetchObjects;
+	long prefetchBytes;
+	S3ObjectPrefetcher prefetcher = null;
+	S3ObjectSummary nextKey = null;
+	boolean endOfSplit = false;
+
+	S3KeyFilter filter = null;
 
 	KEY outKey = null;
 	VALUE outValue = null;
 
+	/**
+	 * Input stream counting bytes read from underlying stream
+	 */
+	static class CountingInputStream extends FilterInputStream {
+		volatile long count = 0;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read > 0) {
+				count += read;
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+
 	@Override
 	public void initialize(InputSplit split, TaskAttemptContext context) throws IOException, InterruptedException {
 
@@ -47,25 +117,178 @@ public abstract class S3RecordReader<KEY, VALUE> extends RecordReader<KEY, VALUE
 		keyPrefix = inputSplit.getKeyPrefix();
 		marker = inputSplit.getMarker();
 		lastKey = inputSplit.lastKey;
+		size = inputSplit.getSize();
+		length = inputSplit.getObjectsLength();
 		
 		maxKeys = context.getConfiguration().getInt(S3InputFormat.S3_MAX_KEYS, 100);
 
-		reader = new S3BucketReader(bucketName, keyPrefix, marker, maxKeys);
+		// S3 client (and its connections) is shared by all readers in the JVM
+		reader = new S3BucketReader(S3ClientFactory.getClient(context.getConfiguration()), bucketName, keyPrefix,
+				marker, maxKeys);
+		reader.setGovernor(S3ClientFactory.getGovernor(context.getConfiguration()));
+
+		// record readers get task context with counters when they run in map task
+		if (context instanceof TaskInputOutputContext) {
+			reader.getMetrics().setContext((TaskInputOutputContext<?, ?, ?, ?>) context);
+		}
+		reader.setReadAhead(context.getConfiguration().getInt(S3InputFormat.S3_LISTING_READ_AHEAD, 0));
+		reader.setLastKey(lastKey);
+		reader.setRangedGet(context.getConfiguration().getLong(S3InputFormat.S3_RANGED_GET_THRESHOLD, 0), context
+				.getConfiguration().getLong(S3InputFormat.S3_RANGED_GET_PART_SIZE, 8 * 1024 * 1024), context
+				.getConfiguration().getInt(S3InputFormat.S3_RANGED_GET_THREADS, 4));
+
+		String cacheDirectory = context.getConfiguration().get(S3InputFormat.S3_CACHE_DIRECTORY);
+		if (cacheDirectory != null) {
+			reader.setCache(S3ObjectCache.getCache(new File(cacheDirectory), context.getConfiguration().getLong(
+					S3InputFormat.S3_CACHE_BYTES, 10L * 1024 * 1024 * 1024)));
+		}
+
+		if (context.getConfiguration().getBoolean(S3InputFormat.S3_DECOMPRESS, false)) {
+			decompressor = new S3ObjectDecompressor(context.getConfiguration());
+		}
+
+		prefetchObjects = context.getConfiguration().getInt(S3InputFormat.S3_PREFETCH_OBJECTS, 0);
+		// prefetched objects are read into byte arrays
+		prefetchBytes = Math.min(Integer.MAX_VALUE, context.getConfiguration().getLong(
+				S3InputFormat.S3_PREFETCH_BYTES, 64 * 1024 * 1024));
+
+		filter = S3KeyFilter.getFilter(context.getConfiguration());
+
+		// keys listed while calculating input splits don't have to be listed again
+		if (inputSplit.getObjectSummaries() != null) {
+			objectSummaries = inputSplit.getObjectSummaries().iterator();
+		}
+	}
+
+	/**
+	 * Reads next key either from keys embedded in input split or from S3
+	 * @return next key or <code>null</code> if there are no more keys
+	 */
+	S3ObjectSummary getNextKey() {
+		if (objectSummaries != null) {
+			return objectSummaries.hasNext() ? objectSummaries.next() : null;
+		}
+		return reader.getNextKey();
+	}
+
+	/**
+	 * Reads next key belonging to this split, skipping keys which don't pass the filter
+	 * @return next key or <code>null</code> if end of the split is reached
+	 */
+	S3ObjectSummary getNextSplitKey() {
+		S3ObjectSummary objectSummary;
+		while ((objectSummary = getNextKey()) != null) {
+			// have we reached end of the split
+			if (lastKey != null && objectSummary.getKey().compareTo(lastKey) > 0) {
+				return null;
+			}
+			if (filter == null || filter.accept(objectSummary)) {
+				return objectSummary;
+			}
+			reader.getMetrics().increment(S3Counter.FILTERED_KEYS, 1);
+		}
+		return null;
+	}
+
+	/**
+	 * Counts current key as completely read
+	 */
+	void completeKey() {
+		if (currentKey != null) {
+			keysDone++;
+			bytesDone += currentKey.getSize();
+			currentKey = null;
+		}
+		content = null;
+	}
+
+	/**
+	 * Returns content stream of current object which counts bytes read for progress reporting
+	 *
+	 * @param in (compressed) content of current object
+	 * @return counting stream
+	 */
+	InputStream trackProgress(InputStream in) {
+		content = new CountingInputStream(in);
+		return content;
 	}
 
 	@Override
 	public boolean nextKeyValue() throws IOException, InterruptedException {
-		while ((currentKey = reader.getNextKey()) != null) {
-			// have we reached end of the split
-			if (currentKey.getKey().compareTo(lastKey) <= 0) {
+		completeKey();
+		if ((currentKey = getNextSplitKey()) != null) {
+			currentPosition++;
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Gets next object of the split, either from prefetcher or directly from S3, as current key and object
+	 * @return <code>true</code> if there is another object in the split
+	 */
+	boolean nextObject() throws IOException, InterruptedException {
+		// content of previous object is not read any more
+		closeObject();
+		completeKey();
+
+		if (!fetchObject()) {
+			return false;
+		}
+
+		object.setObjectContent(trackProgress(object.getObjectContent()));
+
+		if (decompressor != null) {
+			decompressor.decompress(object);
+		}
+		return true;
+	}
+
+	boolean fetchObject() throws IOException, InterruptedException {
+		if (prefetchObjects <= 0) {
+			if ((currentKey = getNextSplitKey()) != null) {
 				currentPosition++;
+				object = reader.getObject(currentKey);
 				return true;
+			}
+			return false;
+		}
+
+		if (prefetcher == null) {
+			prefetcher = new S3ObjectPrefetcher(reader, prefetchObjects, prefetchBytes);
+		}
+
+		// keep the prefetch window full, key which didn't fit is kept for the next call
+		while (!endOfSplit) {
+			if (nextKey == null && (nextKey = getNextSplitKey()) == null) {
+				endOfSplit = true;
+			} else if (prefetcher.add(nextKey)) {
+				nextKey = null;
 			} else {
-				return false;
+				break;
 			}
 		}
 
-		return false;
+		if (prefetcher.isEmpty()) {
+			return false;
+		}
+
+		object = prefetcher.next();
+		currentKey = prefetcher.getCurrentKey();
+		currentPosition++;
+		return true;
+	}
+
+	void closeObject() {
+		if (object != null) {
+			try {
+				object.getObjectContent().close();
+			} catch (IOException e) {
+				LOG.debug("Cannot close object {}", object.getKey(), e);
+			}
+			object = null;
+		}
 	}
 
 	@Override
@@ -78,12 +301,45 @@ public abstract class S3RecordReader<KEY, VALUE> extends RecordReader<KEY, VALUE
 		return outValue;
 	}
 
+	/**
+	 * Returns progress as the number of bytes read against the total size of the objects in the split. Bytes read
+	 * from current object count as well, so progress moves while large object is being read. If the size of the
+	 * objects is not known, progress is the number of keys read against the number of keys in the split.
+	 */
 	@Override
 	public float getProgress() throws IOException, InterruptedException {
-		return currentPosition/(float)size;
+		long currentBytes = content != null ? content.count : 0;
+
+		float progress;
+		if (length > 0) {
+			progress = (bytesDone + currentBytes) / (float) length;
+		} else if (size > 0) {
+			float currentKeyProgress = currentKey != null && currentKey.getSize() > 0 ? Math.min(1.0f, currentBytes
+					/ (float) currentKey.getSize()) : 0.0f;
+			progress = (keysDone + currentKeyProgress) / size;
+		} else {
+			// split covering all keys of unknown number
+			return 0.0f;
+		}
+		return Math.min(1.0f, progress);
 	}
 
 	@Override
 	public void close() throws IOException {
+		closeObject();
+		if (prefetcher != null) {
+			prefetcher.close();
+		}
+		if (reader != null) {
+			reader.close();
+
+			S3Metrics metrics = reader.getMetrics();
+			LOG.info("Made {} LIST and {} GET requests and read {} bytes from S3 in {} ms", new Object[] {
+					metrics.get(S3Counter.LIST_REQUESTS), metrics.get(S3Counter.GET_REQUESTS),
+					metrics.get(S3Counter.BYTES_READ), metrics.get(S3Counter.WAIT_MILLIS) });
+			LOG.info("Latency of GET requests: first byte {}, full body {}", metrics.getFirstByteLatency(),
+					metrics.getFullBodyLatency());
+			reader = null;
+		}
 	}
 }
\ No newline at end of file
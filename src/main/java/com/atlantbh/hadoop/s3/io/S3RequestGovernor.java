@@ -0,0 +1,170 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+
+/**
+ * Limits the number of S3 requests in flight and retries failed requests. The limit is adapted to throttling
+ * responses ("503 Slow Down") with additive increase and multiplicative decrease: every successful request raises
+ * the limit by 1/limit (one request per round trip of all requests in flight) and throttled request halves it, so
+ * each task converges to the highest request rate S3 sustains for it.
+ *
+ * Throttled and other retryable requests are retried after exponential backoff with full jitter, so tasks which were
+ * throttled at the same time don't retry at the same time. Governor is shared by all readers of the task (see
+ * {@link S3ClientFactory#getGovernor}), so it is thread safe.
+ *
+ * @author seljaz
+ *
+ */
+public class S3RequestGovernor {
+	static Logger LOG = LoggerFactory.getLogger(S3RequestGovernor.class);
+
+	int maxRequests;
+	int maxRetries;
+	long baseDelay;
+	long maxDelay;
+
+	double limit;
+	int inFlight = 0;
+
+	/**
+	 * Time of the last decrease. Throttling of requests sent before it doesn't decrease the limit again
+	 */
+	long decreasedAt;
+
+	Random random = new Random();
+
+	/**
+	 * Creates governor which doesn't limit requests and doesn't retry them
+	 */
+	public S3RequestGovernor() {
+		this(Integer.MAX_VALUE, 0, 0, 0);
+	}
+
+	/**
+	 * @param maxRequests maximal number of requests in flight
+	 * @param maxRetries maximal number of retries of single request
+	 * @param baseDelay backoff (in milliseconds) before the first retry
+	 * @param maxDelay maximal backoff (in milliseconds)
+	 */
+	public S3RequestGovernor(int maxRequests, int maxRetries, long baseDelay, long maxDelay) {
+		this.maxRequests = Math.max(1, maxRequests);
+		this.maxRetries = maxRetries;
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+
+		limit = this.maxRequests;
+		decreasedAt = System.nanoTime();
+	}
+
+	/**
+	 * Executes the request when the number of requests in flight is under the limit, retrying it if it fails with
+	 * retryable error. Every attempt is counted in metrics
+	 *
+	 * @param request S3 request
+	 * @param counter counter of the request type
+	 * @param metrics metrics updated by the request
+	 * @return result of the request
+	 */
+	public <T> T execute(Callable<T> request, S3Counter counter, S3Metrics metrics) {
+		for (int attempt = 0;; attempt++) {
+			long queued = System.nanoTime();
+			long sent = acquire();
+			boolean throttled = false;
+
+			try {
+				return request.call();
+			} catch (AmazonServiceException e) {
+				metrics.addFailure(e);
+				throttled = S3Metrics.isThrottled(e);
+				if (!isRetryable(e) || attempt >= maxRetries) {
+					throw e;
+				}
+			} catch (AmazonClientException e) {
+				if (attempt >= maxRetries) {
+					throw e;
+				}
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new AmazonClientException("S3 request failed", e);
+			} finally {
+				metrics.addRequest(counter, queued);
+				release(sent, throttled);
+			}
+
+			metrics.increment(S3Counter.RETRIES, 1);
+			backoff(attempt, metrics);
+		}
+	}
+
+	static boolean isRetryable(AmazonServiceException e) {
+		return e.getStatusCode() >= 500 || S3Metrics.isThrottled(e);
+	}
+
+	/**
+	 * Waits until the number of requests in flight is under the limit
+	 *
+	 * @return time when the request is sent
+	 */
+	synchronized long acquire() {
+		try {
+			while (inFlight >= (int) limit) {
+				wait();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AmazonClientException("Waiting for S3 request was interrupted", e);
+		}
+
+		inFlight++;
+		return System.nanoTime();
+	}
+
+	synchronized void release(long sent, boolean throttled) {
+		inFlight--;
+
+		if (throttled) {
+			// requests in flight at the time of the decrease were sent at the old rate
+			if (sent > decreasedAt) {
+				limit = Math.max(1, limit / 2);
+				decreasedAt = System.nanoTime();
+				LOG.info("S3 request was throttled, limit of requests in flight decreased to {}", (int) limit);
+			}
+		} else {
+			limit = Math.min(maxRequests, limit + 1 / limit);
+		}
+
+		notifyAll();
+	}
+
+	/**
+	 * Sleeps random time up to exponentially growing backoff (full jitter)
+	 */
+	void backoff(int attempt, S3Metrics metrics) {
+		long delay = (long) (random.nextDouble() * Math.min(maxDelay, baseDelay * Math.pow(2, attempt)));
+
+		long start = System.nanoTime();
+		try {
+			Thread.sleep(delay);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AmazonClientException("Waiting for S3 request retry was interrupted", e);
+		} finally {
+			metrics.addWait(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * @return current limit of requests in flight
+	 */
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+}
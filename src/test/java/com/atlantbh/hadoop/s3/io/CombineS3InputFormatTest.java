@@ -0,0 +1,126 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.JobID;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Combine S3 input format test
+ * 
+ * @author seljaz
+ *
+ */
+public class CombineS3InputFormatTest {
+
+	static String BUCKET = "bucket";
+
+	List<byte[]> contents = new ArrayList<byte[]>();
+
+	@Before
+	public void setUp() {
+		InMemoryS3Client.reset();
+
+		for (int i = 0; i < 25; i++) {
+			byte[] content = new byte[(i * 7) % 40];
+			Arrays.fill(content, (byte) i);
+			contents.add(content);
+			InMemoryS3Client.putObject(BUCKET, String.format("small/%02d", i), content);
+		}
+	}
+
+	Configuration createConf() {
+		Configuration conf = new Configuration(false);
+		conf.set(S3ClientFactory.S3_CLIENT_CLASS, InMemoryS3Client.class.getName());
+		conf.set(S3InputFormat.S3_BUCKET_NAME, BUCKET);
+		conf.set(S3InputFormat.S3_KEY_PREFIX, "small/");
+		conf.setInt(S3InputFormat.S3_NUM_OF_KEYS_PER_MAPPER, 10);
+		conf.setInt(CombineS3InputFormat.S3_BATCH_NUM_OF_OBJECTS, 4);
+		conf.setLong(CombineS3InputFormat.S3_BATCH_NUM_OF_BYTES, 60);
+		return conf;
+	}
+
+	/**
+	 * Reads all batches and checks that every object is read once, in order and within batch limits
+	 */
+	void testRead(Configuration conf) throws Exception {
+		List<InputSplit> splits = new CombineS3InputFormat().getSplits(new JobContext(conf, new JobID()));
+		Assert.assertEquals(3, splits.size());
+
+		int next = 0;
+		for (InputSplit split : splits) {
+			S3ObjectBatchRecordReader reader = new S3ObjectBatchRecordReader();
+			reader.initialize(split, new TaskAttemptContext(conf, new TaskAttemptID()));
+
+			while (reader.nextKeyValue()) {
+				S3ObjectBatchWritable batch = reader.getCurrentValue();
+				Assert.assertEquals(String.format("%s/small/%02d", BUCKET, next), reader.getCurrentKey().toString());
+				Assert.assertTrue(batch.size() <= 4);
+				Assert.assertTrue(batch.size() == 1 || batch.getContentLength() <= 60);
+
+				for (int i = 0; i < batch.size(); i++) {
+					Assert.assertEquals(String.format("small/%02d", next), batch.getObjectSummary(i).getKey());
+					byte[] content = Arrays.copyOfRange(batch.getContent(), batch.getContentOffset(i), batch
+							.getContentOffset(i)
+							+ batch.getContentLength(i));
+					Assert.assertTrue(Arrays.equals(contents.get(next), content));
+					next++;
+				}
+			}
+			reader.close();
+		}
+		Assert.assertEquals(25, next);
+	}
+
+	@Test
+	public void testRead() throws Exception {
+		testRead(createConf());
+	}
+
+	@Test
+	public void testReadPrefetch() throws Exception {
+		Configuration conf = createConf();
+		conf.setInt(S3InputFormat.S3_PREFETCH_OBJECTS, 3);
+		testRead(conf);
+	}
+
+	/**
+	 * Tests serialization of the batch
+	 */
+	@Test
+	public void testReadWriteBatch() throws Exception {
+		S3BucketReader s3Reader = new S3BucketReader(new InMemoryS3Client(), BUCKET, "small/", null, 100);
+
+		S3ObjectBatchWritable batchIn = new S3ObjectBatchWritable();
+		for (int i = 0; i < 5; i++) {
+			batchIn.add(s3Reader.getNextKey(), new ByteArrayInputStream(contents.get(i)), contents.get(i).length);
+		}
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		batchIn.write(new DataOutputStream(baos));
+
+		S3ObjectBatchWritable batchOut = new S3ObjectBatchWritable();
+		batchOut.readFields(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+
+		Assert.assertEquals(5, batchOut.size());
+		Assert.assertEquals(BUCKET, batchOut.getBucketName());
+		for (int i = 0; i < 5; i++) {
+			Assert.assertEquals(batchIn.getObjectSummary(i).getKey(), batchOut.getObjectSummary(i).getKey());
+			Assert.assertEquals(contents.get(i).length, batchOut.getContentLength(i));
+			Assert.assertEquals(contents.get(i).length > 0 ? i : -1, batchOut.getContentStream(i).read());
+		}
+	}
+}
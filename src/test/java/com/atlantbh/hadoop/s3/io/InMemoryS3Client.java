@@ -0,0 +1,445 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ListMultipartUploadsRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.MultipartUpload;
+import com.amazonaws.services.s3.model.MultipartUploadListing;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+
+/**
+ * In-memory fake of Amazon S3 client used in tests. Buckets are shared between all instances so the client created
+ * by the code under test sees the objects put by the test.
+ *
+ * @author seljaz
+ *
+ */
+public class InMemoryS3Client extends AmazonS3Client {
+
+	static Map<String, ConcurrentSkipListMap<String, StoredObject>> buckets = new ConcurrentHashMap<String, ConcurrentSkipListMap<String, StoredObject>>();
+
+	static AtomicInteger listRequests = new AtomicInteger();
+	static AtomicInteger getRequests = new AtomicInteger();
+	/**
+	 * Number of following LIST and GET requests rejected with "503 Slow Down"
+	 */
+	static AtomicInteger throttledRequests = new AtomicInteger();
+
+	static Map<String, StoredUpload> uploads = new ConcurrentHashMap<String, StoredUpload>();
+
+	static class StoredObject {
+		byte[] content;
+		String eTag;
+		Date lastModified;
+		String storageClass;
+		String contentEncoding;
+	}
+
+	static class StoredUpload {
+		String bucketName;
+		String key;
+		Map<Integer, byte[]> parts = new ConcurrentHashMap<Integer, byte[]>();
+	}
+
+	public InMemoryS3Client() {
+		super(new BasicAWSCredentials("accessKey", "secretKey"));
+	}
+
+	/**
+	 * Constructor used by {@link S3ClientFactory}
+	 */
+	public InMemoryS3Client(AWSCredentials credentials, ClientConfiguration clientConfiguration) {
+		super(credentials, clientConfiguration);
+	}
+
+	/**
+	 * Removes all buckets and resets request counters
+	 */
+	public static void reset() {
+		buckets.clear();
+		uploads.clear();
+		listRequests.set(0);
+		getRequests.set(0);
+		throttledRequests.set(0);
+	}
+
+	public static void putObject(String bucketName, String key, byte[] content) {
+		putObject(bucketName, key, content, new Date(), "STANDARD");
+	}
+
+	public static synchronized void putObject(String bucketName, String key, byte[] content, Date lastModified,
+			String storageClass) {
+		ConcurrentSkipListMap<String, StoredObject> bucket = buckets.get(bucketName);
+		if (bucket == null) {
+			bucket = new ConcurrentSkipListMap<String, StoredObject>();
+			buckets.put(bucketName, bucket);
+		}
+
+		StoredObject object = new StoredObject();
+		object.content = content;
+		object.eTag = md5(content);
+		object.lastModified = lastModified;
+		object.storageClass = storageClass;
+
+		bucket.put(key, object);
+	}
+
+	/**
+	 * Sets Content-Encoding of stored object
+	 */
+	public static void setContentEncoding(String bucketName, String key, String contentEncoding) {
+		getStoredObject(bucketName, key).contentEncoding = contentEncoding;
+	}
+
+	/**
+	 * Puts objects with keys made of the prefix and sequence number, all with the same content. Stored object is
+	 * shared by all keys, so millions of keys can be kept in memory
+	 */
+	public static synchronized void putObjects(String bucketName, String keyPrefix, int count, byte[] content) {
+		putObject(bucketName, String.format("%s%09d", keyPrefix, 0), content);
+		StoredObject object = buckets.get(bucketName).get(String.format("%s%09d", keyPrefix, 0));
+
+		for (int i = 1; i < count; i++) {
+			buckets.get(bucketName).put(String.format("%s%09d", keyPrefix, i), object);
+		}
+	}
+
+	static String md5(byte[] content) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("MD5");
+			return String.format("%032x", new BigInteger(1, digest.digest(content)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static void throttle() {
+		int remaining;
+		do {
+			remaining = throttledRequests.get();
+			if (remaining <= 0) {
+				return;
+			}
+		} while (!throttledRequests.compareAndSet(remaining, remaining - 1));
+
+		AmazonServiceException e = new AmazonServiceException("Please reduce your request rate.");
+		e.setStatusCode(503);
+		e.setErrorCode("SlowDown");
+		throw e;
+	}
+
+	static ConcurrentSkipListMap<String, StoredObject> getBucket(String bucketName) {
+		ConcurrentSkipListMap<String, StoredObject> bucket = buckets.get(bucketName);
+		if (bucket == null) {
+			AmazonServiceException e = new AmazonServiceException("The specified bucket does not exist");
+			e.setStatusCode(404);
+			e.setErrorCode("NoSuchBucket");
+			throw e;
+		}
+		return bucket;
+	}
+
+	static StoredObject getStoredObject(String bucketName, String key) {
+		StoredObject object = getBucket(bucketName).get(key);
+		if (object == null) {
+			AmazonServiceException e = new AmazonServiceException("The specified key does not exist");
+			e.setStatusCode(404);
+			e.setErrorCode("NoSuchKey");
+			throw e;
+		}
+		return object;
+	}
+
+	@Override
+	public ObjectListing listObjects(ListObjectsRequest request) throws AmazonClientException,
+			AmazonServiceException {
+		listRequests.incrementAndGet();
+		throttle();
+
+		String prefix = request.getPrefix() != null ? request.getPrefix() : "";
+		String marker = request.getMarker();
+		String delimiter = request.getDelimiter() != null && !"".equals(request.getDelimiter()) ? request
+				.getDelimiter() : null;
+		int maxKeys = request.getMaxKeys() != null ? request.getMaxKeys() : 1000;
+
+		// listing starts after the marker or at the prefix, whichever is greater
+		String from = prefix;
+		if (marker != null && (marker + "\0").compareTo(prefix) > 0) {
+			from = marker + "\0";
+		}
+		SortedMap<String, StoredObject> bucket = getBucket(request.getBucketName()).tailMap(from);
+
+		ObjectListing listing = new ObjectListing();
+		listing.setBucketName(request.getBucketName());
+		listing.setPrefix(request.getPrefix());
+		listing.setMarker(marker);
+		listing.setDelimiter(request.getDelimiter());
+		listing.setMaxKeys(maxKeys);
+		listing.setCommonPrefixes(new ArrayList<String>());
+
+		int count = 0;
+		String last = null;
+
+		for (Map.Entry<String, StoredObject> entry : bucket.entrySet()) {
+			String key = entry.getKey();
+			if (!key.startsWith(prefix)) {
+				break;
+			}
+
+			String commonPrefix = null;
+			if (delimiter != null) {
+				int idx = key.indexOf(delimiter, prefix.length());
+				if (idx >= 0) {
+					commonPrefix = key.substring(0, idx + delimiter.length());
+				}
+			}
+
+			// keys rolled up into already returned common prefix are skipped
+			if (commonPrefix != null
+					&& (commonPrefix.equals(last) || (marker != null && commonPrefix.compareTo(marker) <= 0))) {
+				continue;
+			}
+
+			if (count == maxKeys) {
+				listing.setTruncated(true);
+				listing.setNextMarker(last);
+				break;
+			}
+
+			if (commonPrefix != null) {
+				listing.getCommonPrefixes().add(commonPrefix);
+				last = commonPrefix;
+			} else {
+				listing.getObjectSummaries().add(toSummary(request.getBucketName(), key, entry.getValue()));
+				last = key;
+			}
+			count++;
+		}
+
+		return listing;
+	}
+
+	@Override
+	public ObjectListing listNextBatchOfObjects(ObjectListing previousObjectListing) throws AmazonClientException,
+			AmazonServiceException {
+		return listObjects(new ListObjectsRequest(previousObjectListing.getBucketName(),
+				previousObjectListing.getPrefix(), previousObjectListing.getNextMarker(),
+				previousObjectListing.getDelimiter(), previousObjectListing.getMaxKeys()));
+	}
+
+	@Override
+	public S3Object getObject(GetObjectRequest request) throws AmazonClientException, AmazonServiceException {
+		getRequests.incrementAndGet();
+		throttle();
+
+		StoredObject stored = getStoredObject(request.getBucketName(), request.getKey());
+
+		// client returns null when constraint is not met
+		if (request.getMatchingETagConstraints() != null && !request.getMatchingETagConstraints().isEmpty()
+				&& !request.getMatchingETagConstraints().contains(stored.eTag)) {
+			return null;
+		}
+
+		int start = 0;
+		int end = stored.content.length - 1;
+		if (request.getRange() != null) {
+			start = (int) request.getRange()[0];
+			end = (int) Math.min(request.getRange()[1], stored.content.length - 1);
+		}
+
+		S3Object object = new S3Object();
+		object.setBucketName(request.getBucketName());
+		object.setKey(request.getKey());
+		object.setObjectMetadata(toMetadata(stored));
+		object.getObjectMetadata().setContentLength(Math.max(0, end - start + 1));
+		object.setObjectContent(new ByteArrayInputStream(stored.content, start, Math.max(0, end - start + 1)));
+
+		return object;
+	}
+
+	@Override
+	public S3Object getObject(String bucketName, String key) throws AmazonClientException, AmazonServiceException {
+		return getObject(new GetObjectRequest(bucketName, key));
+	}
+
+	@Override
+	public ObjectMetadata getObjectMetadata(String bucketName, String key) throws AmazonClientException,
+			AmazonServiceException {
+		return toMetadata(getStoredObject(bucketName, key));
+	}
+
+	@Override
+	public PutObjectResult putObject(PutObjectRequest request) throws AmazonClientException, AmazonServiceException {
+		byte[] content = read(request.getInputStream());
+		putObject(request.getBucketName(), request.getKey(), content);
+
+		PutObjectResult result = new PutObjectResult();
+		result.setETag(md5(content));
+		return result;
+	}
+
+	@Override
+	public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request)
+			throws AmazonClientException, AmazonServiceException {
+		getBucket(request.getBucketName());
+
+		StoredUpload upload = new StoredUpload();
+		upload.bucketName = request.getBucketName();
+		upload.key = request.getKey();
+		String uploadId = UUID.randomUUID().toString();
+		uploads.put(uploadId, upload);
+
+		InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+		result.setBucketName(request.getBucketName());
+		result.setKey(request.getKey());
+		result.setUploadId(uploadId);
+		return result;
+	}
+
+	@Override
+	public UploadPartResult uploadPart(UploadPartRequest request) throws AmazonClientException,
+			AmazonServiceException {
+		byte[] content = read(request.getInputStream());
+		getUpload(request.getUploadId()).parts.put(request.getPartNumber(), content);
+
+		UploadPartResult result = new UploadPartResult();
+		result.setPartNumber(request.getPartNumber());
+		result.setETag(md5(content));
+		return result;
+	}
+
+	@Override
+	public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request)
+			throws AmazonClientException, AmazonServiceException {
+		StoredUpload upload = getUpload(request.getUploadId());
+
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		int lastPartNumber = 0;
+		for (PartETag partETag : request.getPartETags()) {
+			byte[] part = upload.parts.get(partETag.getPartNumber());
+			if (partETag.getPartNumber() <= lastPartNumber || part == null || !md5(part).equals(partETag.getETag())) {
+				AmazonServiceException e = new AmazonServiceException("Invalid part " + partETag.getPartNumber());
+				e.setStatusCode(400);
+				e.setErrorCode("InvalidPart");
+				throw e;
+			}
+			content.write(part, 0, part.length);
+			lastPartNumber = partETag.getPartNumber();
+		}
+
+		uploads.remove(request.getUploadId());
+		putObject(upload.bucketName, upload.key, content.toByteArray());
+		return new CompleteMultipartUploadResult();
+	}
+
+	@Override
+	public void abortMultipartUpload(AbortMultipartUploadRequest request) throws AmazonClientException,
+			AmazonServiceException {
+		getUpload(request.getUploadId());
+		uploads.remove(request.getUploadId());
+	}
+
+	@Override
+	public MultipartUploadListing listMultipartUploads(ListMultipartUploadsRequest request)
+			throws AmazonClientException, AmazonServiceException {
+		String prefix = request.getPrefix() != null ? request.getPrefix() : "";
+
+		MultipartUploadListing listing = new MultipartUploadListing();
+		listing.setBucketName(request.getBucketName());
+		listing.setPrefix(request.getPrefix());
+		List<MultipartUpload> multipartUploads = new ArrayList<MultipartUpload>();
+		for (Map.Entry<String, StoredUpload> entry : new TreeMap<String, StoredUpload>(uploads).entrySet()) {
+			if (entry.getValue().bucketName.equals(request.getBucketName()) && entry.getValue().key.startsWith(prefix)) {
+				MultipartUpload upload = new MultipartUpload();
+				upload.setKey(entry.getValue().key);
+				upload.setUploadId(entry.getKey());
+				multipartUploads.add(upload);
+			}
+		}
+		listing.setMultipartUploads(multipartUploads);
+		return listing;
+	}
+
+	static StoredUpload getUpload(String uploadId) {
+		StoredUpload upload = uploads.get(uploadId);
+		if (upload == null) {
+			AmazonServiceException e = new AmazonServiceException("The specified upload does not exist");
+			e.setStatusCode(404);
+			e.setErrorCode("NoSuchUpload");
+			throw e;
+		}
+		return upload;
+	}
+
+	static byte[] read(InputStream in) {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} catch (IOException e) {
+			throw new AmazonClientException("Cannot read content", e);
+		}
+	}
+
+	static ObjectMetadata toMetadata(StoredObject stored) {
+		ObjectMetadata metadata = new ObjectMetadata();
+		metadata.setContentLength(stored.content.length);
+		metadata.setLastModified(stored.lastModified);
+		metadata.setContentType("application/octet-stream");
+		metadata.setHeader("ETag", stored.eTag);
+		metadata.setContentEncoding(stored.contentEncoding);
+		return metadata;
+	}
+
+	static S3ObjectSummary toSummary(String bucketName, String key, StoredObject stored) {
+		S3ObjectSummary summary = new S3ObjectSummary();
+		summary.setBucketName(bucketName);
+		summary.setKey(key);
+		summary.setSize(stored.content.length);
+		summary.setETag(stored.eTag);
+		summary.setLastModified(stored.lastModified);
+		summary.setStorageClass(stored.storageClass);
+		return summary;
+	}
+}
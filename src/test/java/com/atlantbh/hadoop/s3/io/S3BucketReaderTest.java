@@ -0,0 +1,96 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * S3 bucket reader test
+ * 
+ * @author seljaz
+ *
+ */
+public class S3BucketReaderTest {
+
+	static String BUCKET = "bucket";
+
+	@Before
+	public void setUp() {
+		InMemoryS3Client.reset();
+
+		for (int i = 0; i < 25; i++) {
+			InMemoryS3Client.putObject(BUCKET, String.format("prefix/%03d", i), new byte[i]);
+		}
+		InMemoryS3Client.putObject(BUCKET, "other", new byte[0]);
+	}
+
+	List<String> readKeys(S3BucketReader reader) {
+		List<String> keys = new ArrayList<String>();
+		S3ObjectSummary objectSummary;
+		while ((objectSummary = reader.getNextKey()) != null) {
+			keys.add(objectSummary.getKey());
+		}
+		return keys;
+	}
+
+	/**
+	 * Tests that reading with listing pages read ahead returns the same keys as reading page by page
+	 */
+	@Test
+	public void testGetNextKeyReadAhead() {
+		List<String> expected = readKeys(new S3BucketReader(new InMemoryS3Client(), BUCKET, "prefix/", "prefix/004",
+				4));
+		Assert.assertEquals(20, expected.size());
+
+		InMemoryS3Client.listRequests.set(0);
+
+		S3BucketReader reader = new S3BucketReader(new InMemoryS3Client(), BUCKET, "prefix/", "prefix/004", 4);
+		reader.setReadAhead(2);
+		Assert.assertEquals(expected, readKeys(reader));
+		Assert.assertNull(reader.getNextKey());
+		Assert.assertEquals(5, InMemoryS3Client.listRequests.get());
+		reader.close();
+	}
+
+	/**
+	 * Tests that pages after the page containing the last key of split are not listed ahead
+	 */
+	@Test
+	public void testGetNextKeyReadAheadLastKey() {
+		S3BucketReader reader = new S3BucketReader(new InMemoryS3Client(), BUCKET, "prefix/", "prefix/004", 4);
+		reader.setReadAhead(2);
+		reader.setLastKey("prefix/009");
+
+		List<String> keys = readKeys(reader);
+		Assert.assertEquals(8, keys.size());
+		Assert.assertEquals("prefix/012", keys.get(7));
+		Assert.assertEquals(2, InMemoryS3Client.listRequests.get());
+		reader.close();
+
+		// page ending with the last key is the last page listed
+		InMemoryS3Client.listRequests.set(0);
+		reader = new S3BucketReader(new InMemoryS3Client(), BUCKET, "prefix/", "prefix/004", 4);
+		reader.setReadAhead(2);
+		reader.setLastKey("prefix/008");
+
+		Assert.assertEquals(4, readKeys(reader).size());
+		Assert.assertEquals(1, InMemoryS3Client.listRequests.get());
+		reader.close();
+	}
+
+	/**
+	 * Tests that listing failure in background thread is thrown by the reader
+	 */
+	@Test(expected = AmazonServiceException.class)
+	public void testGetNextKeyReadAheadFailure() {
+		S3BucketReader reader = new S3BucketReader(new InMemoryS3Client(), "missing", "prefix/", null, 4);
+		reader.setReadAhead(2);
+		reader.getNextKey();
+	}
+}
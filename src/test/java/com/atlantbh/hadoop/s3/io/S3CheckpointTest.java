@@ -0,0 +1,213 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.JobID;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * S3 checkpoint test
+ *
+ * @author seljaz
+ *
+ */
+public class S3CheckpointTest {
+
+	static String BUCKET = "bucket";
+	static long TIME = 1359590400000L;
+
+	Configuration conf;
+	Path checkpointPath;
+
+	@Before
+	public void setUp() throws Exception {
+		InMemoryS3Client.reset();
+
+		File dir = File.createTempFile("checkpoint", "");
+		dir.delete();
+		dir.deleteOnExit();
+		checkpointPath = new Path(new File(dir, "logs.checkpoint").toURI().toString());
+
+		conf = new Configuration(false);
+		conf.set(S3ClientFactory.S3_CLIENT_CLASS, InMemoryS3Client.class.getName());
+		conf.set(S3InputFormat.S3_BUCKET_NAME, BUCKET);
+		conf.set(S3InputFormat.S3_KEY_PREFIX, "logs/");
+		conf.setInt(S3InputFormat.S3_NUM_OF_KEYS_PER_MAPPER, 5);
+		conf.setInt(S3InputFormat.S3_MAX_KEYS, 10);
+		conf.set(S3InputFormat.S3_CHECKPOINT_PATH, checkpointPath.toString());
+	}
+
+	void putObject(int i, long lastModified) {
+		InMemoryS3Client.putObject(BUCKET, String.format("logs/%03d", i), new byte[i], new Date(lastModified),
+				"STANDARD");
+	}
+
+	/**
+	 * Calculates input splits and reads all objects
+	 *
+	 * @return keys read
+	 */
+	List<String> run() throws Exception {
+		List<InputSplit> splits = new S3ContentInputFormat().getSplits(new JobContext(conf, new JobID()));
+
+		List<String> keys = new ArrayList<String>();
+		for (InputSplit split : splits) {
+			S3ContentRecordReader reader = new S3ContentRecordReader();
+			reader.initialize(split, new TaskAttemptContext(conf, new TaskAttemptID()));
+			while (reader.nextKeyValue()) {
+				keys.add(reader.getCurrentKey().toString());
+			}
+			reader.close();
+		}
+		return keys;
+	}
+
+	/**
+	 * Tests that committed run is not processed again and only added and modified objects are read
+	 */
+	@Test
+	public void testIncremental() throws Exception {
+		for (int i = 0; i < 20; i++) {
+			putObject(i, TIME);
+		}
+
+		Assert.assertEquals(20, run().size());
+		// failed run is processed again
+		Assert.assertEquals(20, run().size());
+
+		Assert.assertTrue(S3Checkpoint.commit(conf));
+		Assert.assertTrue(run().isEmpty());
+
+		putObject(5, TIME + 1000);
+		putObject(20, TIME);
+		putObject(21, TIME + 1000);
+		InMemoryS3Client.getRequests.set(0);
+
+		List<String> keys = run();
+		Assert.assertEquals(3, keys.size());
+		Assert.assertEquals("logs/005", keys.get(0));
+		Assert.assertEquals("logs/020", keys.get(1));
+		Assert.assertEquals("logs/021", keys.get(2));
+		Assert.assertEquals(3, InMemoryS3Client.getRequests.get());
+
+		S3Checkpoint.commit(conf);
+		S3Checkpoint checkpoint = S3Checkpoint.read(conf, checkpointPath);
+		Assert.assertEquals(TIME + 1000, checkpoint.getLastModified());
+		Assert.assertEquals("logs/021", checkpoint.getLastKey());
+		Assert.assertTrue(run().isEmpty());
+	}
+
+	/**
+	 * Tests that append only runs list only keys after the last key of the checkpoint
+	 */
+	@Test
+	public void testAppendOnly() throws Exception {
+		conf.setBoolean(S3InputFormat.S3_CHECKPOINT_APPEND_ONLY, true);
+		for (int i = 0; i < 50; i++) {
+			putObject(i, TIME);
+		}
+
+		Assert.assertEquals(50, run().size());
+		S3Checkpoint.commit(conf);
+
+		putObject(50, TIME + 1000);
+		putObject(51, TIME + 1000);
+		InMemoryS3Client.listRequests.set(0);
+
+		List<String> keys = run();
+		Assert.assertEquals(2, keys.size());
+		Assert.assertEquals("logs/050", keys.get(0));
+		Assert.assertEquals(1, InMemoryS3Client.listRequests.get());
+	}
+
+	/**
+	 * Tests that keys rejected by the filter don't advance the checkpoint
+	 */
+	@Test
+	public void testFiltered() throws Exception {
+		conf.set(S3InputFormat.S3_FILTER_KEY_GLOB, "logs/00*");
+		for (int i = 0; i < 20; i++) {
+			putObject(i, i < 10 ? TIME : TIME + 1000);
+		}
+
+		Assert.assertEquals(10, run().size());
+		S3Checkpoint.commit(conf);
+		S3Checkpoint checkpoint = S3Checkpoint.read(conf, checkpointPath);
+		Assert.assertEquals(TIME, checkpoint.getLastModified());
+		Assert.assertEquals("logs/009", checkpoint.getLastKey());
+
+		// keys filtered out before are processed when the filter is changed
+		conf.set(S3InputFormat.S3_FILTER_KEY_GLOB, "logs/**");
+		List<String> keys = run();
+		Assert.assertEquals(10, keys.size());
+		Assert.assertEquals("logs/010", keys.get(0));
+	}
+
+	/**
+	 * Tests that keys modified in the same second as the high-water mark are processed once
+	 */
+	@Test
+	public void testSameLastModified() throws Exception {
+		S3Checkpoint checkpoint = new S3Checkpoint(BUCKET, "logs/");
+		checkpoint.update(createObjectSummary("logs/b", TIME));
+		checkpoint.update(createObjectSummary("logs/a", TIME - 1000));
+
+		Assert.assertEquals("logs/b", checkpoint.getLastKey());
+		Assert.assertFalse(checkpoint.isChanged(createObjectSummary("logs/a", TIME - 1000)));
+		Assert.assertFalse(checkpoint.isChanged(createObjectSummary("logs/b", TIME)));
+		Assert.assertTrue(checkpoint.isChanged(createObjectSummary("logs/c", TIME)));
+		Assert.assertTrue(checkpoint.isChanged(createObjectSummary("logs/a", TIME + 1000)));
+
+		checkpoint.write(conf, checkpointPath);
+		checkpoint = S3Checkpoint.read(conf, checkpointPath);
+		Assert.assertFalse(checkpoint.isChanged(createObjectSummary("logs/b", TIME)));
+		Assert.assertTrue(checkpoint.isChanged(createObjectSummary("logs/c", TIME)));
+	}
+
+	/**
+	 * Tests that keys modified within the safety lag don't advance the checkpoint and are processed again
+	 */
+	@Test
+	public void testLag() throws Exception {
+		conf.setLong(S3InputFormat.S3_CHECKPOINT_LAG, 60 * 60 * 1000L);
+		long now = System.currentTimeMillis();
+		putObject(0, TIME);
+		putObject(1, now);
+
+		Assert.assertEquals(2, run().size());
+		S3Checkpoint.commit(conf);
+		S3Checkpoint checkpoint = S3Checkpoint.read(conf, checkpointPath);
+		Assert.assertEquals(TIME, checkpoint.getLastModified());
+		Assert.assertEquals("logs/000", checkpoint.getLastKey());
+
+		List<String> keys = run();
+		Assert.assertEquals(1, keys.size());
+		Assert.assertEquals("logs/001", keys.get(0));
+
+		checkpoint.setLimit(now - 1000);
+		Assert.assertTrue(checkpoint.isChanged(createObjectSummary("logs/001", now)));
+		checkpoint.update(createObjectSummary("logs/001", now));
+		Assert.assertEquals(TIME, checkpoint.getLastModified());
+	}
+
+	S3ObjectSummary createObjectSummary(String key, long lastModified) {
+		S3ObjectSummary objectSummary = new S3ObjectSummary();
+		objectSummary.setBucketName(BUCKET);
+		objectSummary.setKey(key);
+		objectSummary.setLastModified(new Date(lastModified));
+		return objectSummary;
+	}
+}
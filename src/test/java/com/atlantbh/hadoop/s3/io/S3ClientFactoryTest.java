@@ -0,0 +1,72 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.amazonaws.ClientConfiguration;
+
+/**
+ * S3 client factory test
+ * 
+ * @author seljaz
+ *
+ */
+public class S3ClientFactoryTest {
+
+	/**
+	 * Tests that clients are shared between equal configurations
+	 */
+	@Test
+	public void testGetClient() throws IOException {
+		Configuration conf = new Configuration(false);
+		conf.setInt(S3ClientFactory.S3_CLIENT_MAX_CONNECTIONS, 100);
+
+		Configuration sameConf = new Configuration(false);
+		sameConf.setInt(S3ClientFactory.S3_CLIENT_MAX_CONNECTIONS, 100);
+
+		Configuration otherConf = new Configuration(false);
+		otherConf.setInt(S3ClientFactory.S3_CLIENT_MAX_CONNECTIONS, 200);
+
+		Assert.assertSame(S3ClientFactory.getClient(conf), S3ClientFactory.getClient(sameConf));
+		Assert.assertNotSame(S3ClientFactory.getClient(conf), S3ClientFactory.getClient(otherConf));
+	}
+
+	/**
+	 * Tests reading of client settings
+	 */
+	@Test
+	public void testGetClientConfiguration() {
+		Configuration conf = new Configuration(false);
+		conf.setInt(S3ClientFactory.S3_CLIENT_MAX_CONNECTIONS, 100);
+		conf.setInt(S3ClientFactory.S3_CLIENT_SOCKET_TIMEOUT, 1000);
+		conf.setInt(S3ClientFactory.S3_CLIENT_SOCKET_RECEIVE_BUFFER, 65536);
+
+		ClientConfiguration clientConfiguration = S3ClientFactory.getClientConfiguration(conf);
+
+		Assert.assertEquals(100, clientConfiguration.getMaxConnections());
+		Assert.assertEquals(1000, clientConfiguration.getSocketTimeout());
+		Assert.assertEquals(new ClientConfiguration().getConnectionTimeout(), clientConfiguration
+				.getConnectionTimeout());
+		Assert.assertEquals(0, clientConfiguration.getSocketBufferSizeHints()[0]);
+		Assert.assertEquals(65536, clientConfiguration.getSocketBufferSizeHints()[1]);
+	}
+
+	/**
+	 * Tests that credentials from configuration take precedence over credentials file
+	 */
+	@Test
+	public void testGetCredentials() throws IOException {
+		Configuration conf = new Configuration(false);
+		Assert.assertEquals("accessKey", S3ClientFactory.getCredentials(conf).getAWSAccessKeyId());
+		// credentials file is parsed once
+		Assert.assertSame(S3ClientFactory.getCredentials(conf), S3ClientFactory.getCredentials(conf));
+
+		conf.set(S3ClientFactory.S3_ACCESS_KEY, "jobAccessKey");
+		conf.set(S3ClientFactory.S3_SECRET_KEY, "jobSecretKey");
+		Assert.assertEquals("jobAccessKey", S3ClientFactory.getCredentials(conf).getAWSAccessKeyId());
+		Assert.assertEquals("jobSecretKey", S3ClientFactory.getCredentials(conf).getAWSSecretKey());
+	}
+}
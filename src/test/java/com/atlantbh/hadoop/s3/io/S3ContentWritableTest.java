@@ -0,0 +1,134 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * S3 content writable test
+ *
+ * @author seljaz
+ *
+ */
+public class S3ContentWritableTest {
+
+	static byte[] content(int length) {
+		byte[] content = new byte[length];
+		for (int i = 0; i < length; i++) {
+			content[i] = (byte) i;
+		}
+		return content;
+	}
+
+	static byte[] serialize(S3ContentWritable value) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		value.write(new DataOutputStream(out));
+		return out.toByteArray();
+	}
+
+	/**
+	 * Tests serialization and that the buffer is reused when smaller content is read
+	 */
+	@Test
+	public void testReadWrite() throws Exception {
+		S3ContentWritable in = new S3ContentWritable();
+		in.setObject("bucket", "prefix/a", "etag", 1000L);
+		in.set(content(300), 0, 300);
+		byte[] large = serialize(in);
+
+		in.setObject("bucket", "prefix/b", null, 2000L);
+		in.set(content(300), 100, 50);
+		byte[] small = serialize(in);
+
+		S3ContentWritable out = new S3ContentWritable();
+		out.readFields(new DataInputStream(new ByteArrayInputStream(large)));
+		Assert.assertEquals("bucket", out.getBucketName());
+		Assert.assertEquals("prefix/a", out.getKey());
+		Assert.assertEquals("etag", out.getETag());
+		Assert.assertEquals(1000L, out.getLastModified());
+		Assert.assertEquals(300, out.getLength());
+		Assert.assertArrayEquals(content(300), Arrays.copyOf(out.getBytes(), out.getLength()));
+
+		byte[] buffer = out.getBytes();
+		out.readFields(new DataInputStream(new ByteArrayInputStream(small)));
+		Assert.assertEquals("prefix/b", out.getKey());
+		Assert.assertNull(out.getETag());
+		Assert.assertEquals(50, out.getLength());
+		Assert.assertEquals(100, out.getBytes()[0]);
+		Assert.assertSame(buffer, out.getBytes());
+	}
+
+	/**
+	 * Tests reading content of known and unknown length from stream
+	 */
+	@Test
+	public void testReadContent() throws Exception {
+		S3ContentWritable value = new S3ContentWritable();
+
+		value.readContent(new ByteArrayInputStream(content(1000)), 1000);
+		Assert.assertEquals(1000, value.getLength());
+		Assert.assertEquals(1000, value.getCapacity());
+
+		value.readContent(new ByteArrayInputStream(content(5000)), -1);
+		Assert.assertEquals(5000, value.getLength());
+		Assert.assertArrayEquals(content(5000), Arrays.copyOf(value.getBytes(), value.getLength()));
+		Assert.assertEquals(5000, value.getInputStream().available());
+
+		byte[] buffer = value.getBytes();
+		value.readContent(new ByteArrayInputStream(content(10)), -1);
+		Assert.assertEquals(10, value.getLength());
+		Assert.assertSame(buffer, value.getBytes());
+	}
+
+	/**
+	 * Tests that content shorter than its length fails
+	 */
+	@Test(expected = IOException.class)
+	public void testReadContentEnded() throws Exception {
+		new S3ContentWritable().readContent(new ByteArrayInputStream(content(10)), 20);
+	}
+
+	/**
+	 * Tests that record reader reads all objects into the same value
+	 */
+	@Test
+	public void testRecordReader() throws Exception {
+		InMemoryS3Client.reset();
+		InMemoryS3Client.putObject("bucket", "prefix/a", content(200));
+		InMemoryS3Client.putObject("bucket", "prefix/b", content(100));
+
+		Configuration conf = new Configuration(false);
+		conf.set(S3ClientFactory.S3_CLIENT_CLASS, InMemoryS3Client.class.getName());
+
+		S3InputSplit split = new S3InputSplit();
+		split.setBucketName("bucket");
+		split.setKeyPrefix("prefix/");
+
+		S3ContentRecordReader reader = new S3ContentRecordReader();
+		reader.initialize(split, new TaskAttemptContext(conf, new TaskAttemptID()));
+
+		Assert.assertTrue(reader.nextKeyValue());
+		Assert.assertEquals("prefix/a", reader.getCurrentKey().toString());
+		Assert.assertEquals("bucket", reader.getCurrentValue().getBucketName());
+		Assert.assertEquals(200, reader.getCurrentValue().getLength());
+		byte[] buffer = reader.getCurrentValue().getBytes();
+
+		Assert.assertTrue(reader.nextKeyValue());
+		Assert.assertEquals("prefix/b", reader.getCurrentKey().toString());
+		Assert.assertEquals(100, reader.getCurrentValue().getLength());
+		Assert.assertArrayEquals(content(100), Arrays.copyOf(reader.getCurrentValue().getBytes(), 100));
+		Assert.assertSame(buffer, reader.getCurrentValue().getBytes());
+
+		Assert.assertFalse(reader.nextKeyValue());
+		reader.close();
+	}
+}
@@ -1,7 +1,19 @@
 package com.atlantbh.hadoop.s3.io;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.JobID;
+import org.junit.Assert;
+import org.junit.Before;
 import org.junit.Test;
 
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
 /**
  * S3 Input Format test
  * 
@@ -9,9 +21,87 @@ import org.junit.Test;
  *
  */
 public class S3InputFormatTest {
+
+	static String BUCKET = "bucket";
+
+	@Before
+	public void setUp() {
+		InMemoryS3Client.reset();
+	}
 	
 	@Test
 	public void testGetSplits() {
 		//TODO Not implemented
 	}
+
+	/**
+	 * Adds keys using listing manifest to builder embedding all keys in one split
+	 */
+	static List<S3ObjectSummary> addFromManifest(S3InputFormat<?, ?> format, Configuration conf, Path manifestPath)
+			throws IOException {
+		S3InputSplitBuilder builder = new S3InputSplitBuilder(BUCKET, "logs/", Integer.MAX_VALUE, Long.MAX_VALUE);
+		builder.setEmbedKeys(true);
+		format.addFromManifest(new JobContext(conf, new JobID()), builder, manifestPath, BUCKET, "logs/", 10,
+				Long.MAX_VALUE);
+		return ((S3InputSplit) builder.build().get(0)).getObjectSummaries();
+	}
+
+	/**
+	 * Tests that only keys added after the last key of listing manifest are listed from S3
+	 */
+	@Test
+	public void testListObjectsWithManifest() throws Exception {
+		for (int i = 0; i < 50; i++) {
+			InMemoryS3Client.putObject(BUCKET, String.format("logs/%03d", i), new byte[i]);
+		}
+
+		File dir = File.createTempFile("manifest", "");
+		dir.delete();
+		dir.deleteOnExit();
+
+		Configuration conf = new Configuration();
+		Path manifestPath = new Path(new File(dir, "logs.manifest").toURI().toString());
+
+		S3ObjectSummaryInputFormat format = new S3ObjectSummaryInputFormat();
+		format.s3Reader = new S3BucketReader(new InMemoryS3Client(), BUCKET, "logs/", null, 10);
+
+		List<S3ObjectSummary> objectSummaries = addFromManifest(format, conf, manifestPath);
+		Assert.assertEquals(50, objectSummaries.size());
+
+		// next run lists only new keys
+		for (int i = 50; i < 55; i++) {
+			InMemoryS3Client.putObject(BUCKET, String.format("logs/%03d", i), new byte[i]);
+		}
+		InMemoryS3Client.listRequests.set(0);
+
+		objectSummaries = addFromManifest(format, conf, manifestPath);
+		Assert.assertEquals(55, objectSummaries.size());
+		Assert.assertEquals("logs/054", objectSummaries.get(54).getKey());
+		Assert.assertEquals(1, InMemoryS3Client.listRequests.get());
+
+		// refreshed prefixes pick up changed and deleted keys, nested prefix is listed once
+		InMemoryS3Client.putObject(BUCKET, "logs/0101", new byte[1]);
+		InMemoryS3Client.putObject(BUCKET, "logs/012", new byte[100]);
+		InMemoryS3Client.buckets.get(BUCKET).remove("logs/013");
+		InMemoryS3Client.buckets.get(BUCKET).remove("logs/053");
+		InMemoryS3Client.putObject(BUCKET, "logs/060", new byte[1]);
+		conf.setStrings(S3InputFormat.S3_MANIFEST_REFRESH_PREFIXES, "05", "01", "012");
+
+		objectSummaries = addFromManifest(format, conf, manifestPath);
+		Assert.assertEquals(55, objectSummaries.size());
+		Assert.assertEquals("logs/0101", objectSummaries.get(11).getKey());
+		Assert.assertEquals(100, objectSummaries.get(13).getSize());
+		Assert.assertEquals("logs/014", objectSummaries.get(14).getKey());
+		Assert.assertEquals("logs/052", objectSummaries.get(52).getKey());
+		Assert.assertEquals("logs/054", objectSummaries.get(53).getKey());
+		Assert.assertEquals("logs/060", objectSummaries.get(54).getKey());
+
+		// manifest was rewritten with the same keys
+		InMemoryS3Client.listRequests.set(0);
+		conf.set(S3InputFormat.S3_MANIFEST_REFRESH_PREFIXES, "");
+		List<S3ObjectSummary> reused = addFromManifest(format, conf, manifestPath);
+		Assert.assertEquals(55, reused.size());
+		Assert.assertEquals(100, reused.get(13).getSize());
+		Assert.assertEquals(1, InMemoryS3Client.listRequests.get());
+	}
 }
@@ -0,0 +1,85 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.util.List;
+
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * S3 input split builder test
+ * 
+ * @author seljaz
+ *
+ */
+public class S3InputSplitBuilderTest {
+
+	static S3ObjectSummary summary(String key, long size) {
+		S3ObjectSummary objectSummary = new S3ObjectSummary();
+		objectSummary.setBucketName("bucket");
+		objectSummary.setKey(key);
+		objectSummary.setSize(size);
+		return objectSummary;
+	}
+
+	/**
+	 * Tests that keys are split into splits of equal number of keys, last split having the rest of keys
+	 */
+	@Test
+	public void testBuildByNumOfKeys() {
+		S3InputSplitBuilder builder = new S3InputSplitBuilder("bucket", "prefix", 2);
+		for (int i = 0; i < 5; i++) {
+			builder.add(summary("prefix" + i, 1));
+		}
+
+		List<InputSplit> splits = builder.build();
+		Assert.assertEquals(3, splits.size());
+
+		S3InputSplit first = (S3InputSplit) splits.get(0);
+		Assert.assertNull(first.getMarker());
+		Assert.assertEquals("prefix1", first.getLastKey());
+		Assert.assertEquals(2, first.getSize());
+
+		S3InputSplit last = (S3InputSplit) splits.get(2);
+		Assert.assertEquals("prefix3", last.getMarker());
+		Assert.assertEquals("prefix4", last.getLastKey());
+		Assert.assertEquals(1, last.getSize());
+	}
+
+	/**
+	 * Tests that keys are packed into splits by size of their objects, respecting maximal number of keys
+	 */
+	@Test
+	public void testBuildByNumOfBytes() throws Exception {
+		S3InputSplitBuilder builder = new S3InputSplitBuilder("bucket", "prefix", 3, 100);
+		long[] sizes = new long[] { 40, 40, 40, 500, 10, 10, 10, 10 };
+		for (int i = 0; i < sizes.length; i++) {
+			builder.add(summary("prefix" + i, sizes[i]));
+		}
+
+		List<InputSplit> splits = builder.build();
+		Assert.assertEquals(5, splits.size());
+
+		Assert.assertEquals(80, splits.get(0).getLength());
+		Assert.assertEquals(2, ((S3InputSplit) splits.get(0)).getSize());
+
+		// large object is put in split of its own
+		Assert.assertEquals(40, splits.get(1).getLength());
+		Assert.assertEquals(500, splits.get(2).getLength());
+
+		// number of keys is limited
+		Assert.assertEquals(3, ((S3InputSplit) splits.get(3)).getSize());
+		Assert.assertEquals("prefix6", ((S3InputSplit) splits.get(3)).getLastKey());
+		Assert.assertEquals(10, splits.get(4).getLength());
+	}
+
+	/**
+	 * Tests that no splits are created when there are no keys
+	 */
+	@Test
+	public void testBuildEmpty() {
+		Assert.assertTrue(new S3InputSplitBuilder("bucket", "prefix", 2).build().isEmpty());
+	}
+}
@@ -5,13 +5,21 @@ import static org.junit.Assert.fail;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
+import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
 
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
 import org.junit.Test;
 
 import junit.framework.Assert;
 
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
 
 /**
  * S3 Input split class test
@@ -33,6 +41,7 @@ public class S3InputSplitTest {
 		objIn.setLastKey("last Key");
 		objIn.setMarker("marker");
 		objIn.setSize(56);
+		objIn.setObjectsLength(5L << 32);
 
 		try {
 			// serialize input object
@@ -51,11 +60,186 @@ public class S3InputSplitTest {
 			Assert.assertEquals(objIn.getLastKey(), objOut.getLastKey());
 			Assert.assertEquals(objIn.getMarker(), objOut.getMarker());
 			Assert.assertEquals(objIn.getSize(), objOut.getSize());
+			Assert.assertEquals(objIn.getObjectsLength(), objOut.getObjectsLength());
+			Assert.assertEquals(5L << 32, objOut.getLength());
 			
+		} catch (InterruptedException e) {
+			fail("Interrupted");
 		} catch (IOException e) {
 			e.printStackTrace();
 			fail("Exeception while writing data to out stream.");
 		}
 	}
-	
+
+	/**
+	 * Tests serialization of split with embedded keys
+	 */
+	@Test
+	public void testReadWriteEmbeddedKeys() throws IOException {
+		S3InputSplit objIn = new S3InputSplit();
+		S3InputSplit objOut = new S3InputSplit();
+
+		List<S3ObjectSummary> objectSummaries = new ArrayList<S3ObjectSummary>();
+		for (int i = 0; i < 3; i++) {
+			S3ObjectSummary objectSummary = new S3ObjectSummary();
+			objectSummary.setBucketName("bucketName");
+			objectSummary.setKey("key prefix/" + i);
+			objectSummary.setSize(i);
+			objectSummary.setETag("0123456789abcdef0123456789abcde" + i);
+			objectSummary.setLastModified(new Date());
+			objectSummary.setStorageClass("STANDARD");
+			objectSummaries.add(objectSummary);
+		}
+
+		objIn.setBucketName("bucketName");
+		objIn.setKeyPrefix("key prefix/");
+		objIn.setLastKey("key prefix/2");
+		objIn.setObjectSummaries(objectSummaries);
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		objIn.write(new DataOutputStream(baos));
+		objOut.readFields(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+
+		Assert.assertEquals(3, objOut.getObjectSummaries().size());
+		for (int i = 0; i < 3; i++) {
+			Assert.assertEquals(objectSummaries.get(i).getKey(), objOut.getObjectSummaries().get(i).getKey());
+			Assert.assertEquals(objectSummaries.get(i).getETag(), objOut.getObjectSummaries().get(i).getETag());
+			Assert.assertEquals(objectSummaries.get(i).getLastModified(), objOut.getObjectSummaries().get(i)
+					.getLastModified());
+		}
+	}
+
+	/**
+	 * Tests serialization of split without marker and last key
+	 */
+	@Test
+	public void testReadWriteUnbounded() throws IOException {
+		S3InputSplit objIn = new S3InputSplit();
+		S3InputSplit objOut = new S3InputSplit();
+
+		objIn.setBucketName("bucketName");
+		objIn.setKeyPrefix("key prefix");
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		objIn.write(new DataOutputStream(baos));
+		objOut.readFields(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+
+		Assert.assertNull(objOut.getMarker());
+		Assert.assertNull(objOut.getLastKey());
+
+		// splits of the whole bucket have no prefix
+		objIn.setKeyPrefix(null);
+		objIn.setMarker("a");
+		objIn.setLastKey("b");
+
+		objOut = readWrite(objIn);
+		Assert.assertNull(objOut.getKeyPrefix());
+		Assert.assertEquals("a", objOut.getMarker());
+		Assert.assertEquals("b", objOut.getLastKey());
+	}
+
+	S3InputSplit readWrite(S3InputSplit split) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		split.write(new DataOutputStream(baos));
+
+		S3InputSplit objOut = new S3InputSplit();
+		objOut.readFields(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+		return objOut;
+	}
+
+	/**
+	 * Tests front coding of keys which don't share the prefix and of keys with surrogate pairs
+	 */
+	@Test
+	public void testReadWriteFrontCoded() throws IOException {
+		S3InputSplit objIn = new S3InputSplit();
+		objIn.setBucketName("bucketName");
+		objIn.setKeyPrefix("prefix/");
+		objIn.setMarker("other");
+		objIn.setLastKey("prefix/\uD834\uDD1E");
+
+		S3InputSplit objOut = readWrite(objIn);
+		Assert.assertEquals("other", objOut.getMarker());
+		Assert.assertEquals("prefix/\uD834\uDD1E", objOut.getLastKey());
+
+		objIn.setMarker("prefix/\uD834\uDD1E");
+		objIn.setLastKey("prefix/\uD834\uDD1F");
+
+		objOut = readWrite(objIn);
+		Assert.assertEquals("prefix/\uD834\uDD1E", objOut.getMarker());
+		Assert.assertEquals("prefix/\uD834\uDD1F", objOut.getLastKey());
+
+		// last key without marker is coded against the prefix
+		objIn.setMarker(null);
+		objOut = readWrite(objIn);
+		Assert.assertNull(objOut.getMarker());
+		Assert.assertEquals("prefix/\uD834\uDD1F", objOut.getLastKey());
+		Assert.assertEquals("prefix/", objOut.getKeyPrefix());
+	}
+
+	/**
+	 * Writes the split in the format which stores bucket name, prefix, marker and last key in full
+	 */
+	static void writeUncoded(S3InputSplit split, DataOutput out) throws IOException {
+		Text.writeString(out, split.getBucketName());
+		Text.writeString(out, split.getKeyPrefix());
+		Text.writeString(out, split.getMarker());
+		Text.writeString(out, split.getLastKey());
+		WritableUtils.writeVInt(out, split.getSize());
+		WritableUtils.writeVLong(out, split.getObjectsLength());
+		WritableUtils.writeVLong(out, split.getStart());
+		out.writeBoolean(false);
+	}
+
+	/**
+	 * Tests size of serialization of splits of the bucket with sequentially named keys. Time of 1M splits is measured
+	 * by S3WritableBenchmark
+	 */
+	@Test
+	public void testReadWriteSequentialSplits() throws IOException {
+		int count = 10000;
+
+		S3InputSplit split = new S3InputSplit();
+		split.setBucketName("bucket-name");
+		split.setKeyPrefix("logs/2013/01/");
+		split.setSize(1000);
+
+		ByteArrayOutputStream uncoded = new ByteArrayOutputStream();
+		DataOutputStream uncodedOut = new DataOutputStream(uncoded);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(baos);
+
+		for (int i = 0; i < count; i++) {
+			split.setMarker(String.format("logs/2013/01/access-%010d.log", i * 1000L));
+			split.setLastKey(String.format("logs/2013/01/access-%010d.log", i * 1000L + 999));
+			split.setObjectsLength(i * 1000L * 1024);
+
+			split.write(out);
+
+			writeUncoded(split, uncodedOut);
+		}
+
+		byte[] bytes = baos.toByteArray();
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+
+		S3InputSplit previous = null;
+		for (int i = 0; i < count; i++) {
+			S3InputSplit objOut = new S3InputSplit();
+			objOut.readFields(in);
+			if (i % 100 == 0) {
+				Assert.assertEquals(String.format("logs/2013/01/access-%010d.log", i * 1000L), objOut.getMarker());
+				Assert.assertEquals(String.format("logs/2013/01/access-%010d.log", i * 1000L + 999), objOut
+						.getLastKey());
+				Assert.assertEquals(i * 1000L * 1024, objOut.getObjectsLength());
+			}
+			if (previous != null) {
+				Assert.assertSame(previous.getBucketName(), objOut.getBucketName());
+				Assert.assertSame(previous.getKeyPrefix(), objOut.getKeyPrefix());
+			}
+			previous = objOut;
+		}
+		Assert.assertEquals(-1, in.read());
+
+		Assert.assertTrue(bytes.length < uncoded.size() * 3 / 4);
+	}
 }
@@ -0,0 +1,238 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.InvalidJobConfException;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.JobID;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * S3 inventory reader test
+ *
+ * @author seljaz
+ *
+ */
+public class S3InventoryReaderTest {
+
+	static String BUCKET = "bucket";
+	static String INVENTORY = "inventory";
+
+	static String MANIFEST = "{\"sourceBucket\":\"bucket\",\"destinationBucket\":\"arn:aws:s3:::inventory\","
+			+ "\"version\":\"2016-11-30\",\"fileFormat\":\"%s\",\"fileSchema\":\"Bucket, Key, Size, "
+			+ "LastModifiedDate, ETag, StorageClass, IsLatest, IsDeleteMarker\",\"files\":["
+			+ "{\"key\":\"bucket/daily/data/b.csv.gz\",\"size\":100,\"MD5checksum\":\"\"},"
+			+ "{\"key\":\"bucket/daily/data/a.csv\",\"size\":100,\"MD5checksum\":\"\"}]}";
+
+	static String FILE_A = "\"bucket\",\"logs/003\",\"3\",\"2013-01-31T12:00:00.000Z\",\"e3\",\"STANDARD\","
+			+ "\"true\",\"false\"\n"
+			+ "\"bucket\",\"logs/a+%22b%22\",\"5\",\"2013-01-31T12:00:00.000Z\",\"e5\",\"GLACIER\","
+			+ "\"true\",\"false\"\n"
+			+ "\"bucket\",\"other/1\",\"1\",\"2013-01-31T12:00:00.000Z\",\"e1\",\"STANDARD\","
+			+ "\"true\",\"false\"\n";
+
+	/**
+	 * Unordered keys, noncurrent version and delete marker
+	 */
+	static String FILE_B = "\"bucket\",\"logs/002\",\"2\",\"2013-01-31T12:00:00.000Z\",\"e2\",\"STANDARD\","
+			+ "\"true\",\"false\"\n"
+			+ "\"bucket\",\"logs/001\",\"1\",\"2013-01-31T12:00:00.000Z\",\"e1\",\"STANDARD\","
+			+ "\"true\",\"false\"\n"
+			+ "\"bucket\",\"logs/001\",\"\",\"2013-01-30T12:00:00.000Z\",\"\",\"\",\"false\",\"false\"\n"
+			+ "\"bucket\",\"logs/004\",\"\",\"2013-01-31T12:00:00.000Z\",\"\",\"\",\"true\",\"true\"\n";
+
+	File dir;
+
+	@Before
+	public void setUp() throws Exception {
+		InMemoryS3Client.reset();
+
+		dir = File.createTempFile("inventory", "");
+		dir.delete();
+		dir.mkdirs();
+		dir.deleteOnExit();
+	}
+
+	static byte[] gzip(String content) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		OutputStream out = new GZIPOutputStream(bytes);
+		out.write(content.getBytes("UTF-8"));
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	File write(String name, byte[] content) throws IOException {
+		File file = new File(dir, name);
+		file.deleteOnExit();
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	String writeLocalInventory(String fileFormat) throws IOException {
+		write("a.csv", FILE_A.getBytes("UTF-8"));
+		write("b.csv.gz", gzip(FILE_B));
+		return write("manifest.json", String.format(MANIFEST, fileFormat).getBytes("UTF-8")).toURI().toString();
+	}
+
+	List<String> keys(List<S3ObjectSummary> objectSummaries) {
+		List<String> keys = new ArrayList<String>();
+		for (S3ObjectSummary objectSummary : objectSummaries) {
+			keys.add(objectSummary.getKey());
+		}
+		return keys;
+	}
+
+	/**
+	 * Reads keys of all data files and sorts them
+	 */
+	List<S3ObjectSummary> listObjects(S3InventoryReader reader, String manifest, String bucketName, String keyPrefix)
+			throws IOException {
+		List<S3ObjectSummary> objectSummaries = new ArrayList<S3ObjectSummary>();
+		for (List<S3ObjectSummary> fileObjectSummaries : reader.readFiles(manifest, null, bucketName, keyPrefix,
+				new S3InventoryReader.FileHandlerFactory<List<S3ObjectSummary>>() {
+					@Override
+					public S3InventoryReader.FileHandler<List<S3ObjectSummary>> create(String file) {
+						final List<S3ObjectSummary> list = new ArrayList<S3ObjectSummary>();
+						return new S3InventoryReader.FileHandler<List<S3ObjectSummary>>() {
+							@Override
+							public void add(S3ObjectSummary objectSummary) {
+								list.add(objectSummary);
+							}
+
+							@Override
+							public List<S3ObjectSummary> finish() {
+								return list;
+							}
+						};
+					}
+				})) {
+			objectSummaries.addAll(fileObjectSummaries);
+		}
+
+		Collections.sort(objectSummaries, new Comparator<S3ObjectSummary>() {
+			@Override
+			public int compare(S3ObjectSummary o1, S3ObjectSummary o2) {
+				return o1.getKey().compareTo(o2.getKey());
+			}
+		});
+		return objectSummaries;
+	}
+
+	@Test
+	public void testListObjectsLocal() throws Exception {
+		String manifest = writeLocalInventory("CSV");
+
+		S3InventoryReader reader = new S3InventoryReader(new Configuration(), null, 2);
+		List<S3ObjectSummary> objectSummaries = listObjects(reader, manifest, BUCKET, "logs/");
+
+		Assert.assertEquals(Arrays.asList("logs/001", "logs/002", "logs/003", "logs/a \"b\""), keys(objectSummaries));
+
+		S3ObjectSummary objectSummary = objectSummaries.get(3);
+		Assert.assertEquals(BUCKET, objectSummary.getBucketName());
+		Assert.assertEquals(5, objectSummary.getSize());
+		Assert.assertEquals("e5", objectSummary.getETag());
+		Assert.assertEquals("GLACIER", objectSummary.getStorageClass());
+		Assert.assertEquals(1359633600000L, objectSummary.getLastModified().getTime());
+	}
+
+	@Test
+	public void testListObjectsS3() throws Exception {
+		InMemoryS3Client.putObject(INVENTORY, "bucket/daily/2013-01-31T00-00Z/manifest.json", String.format(MANIFEST,
+				"CSV").getBytes("UTF-8"));
+		InMemoryS3Client.putObject(INVENTORY, "bucket/daily/data/a.csv", FILE_A.getBytes("UTF-8"));
+		InMemoryS3Client.putObject(INVENTORY, "bucket/daily/data/b.csv.gz", gzip(FILE_B));
+
+		S3BucketReader s3Reader = new S3BucketReader(new InMemoryS3Client(), BUCKET, null, null, 100);
+		S3InventoryReader reader = new S3InventoryReader(new Configuration(), s3Reader, 2);
+		List<S3ObjectSummary> objectSummaries = listObjects(reader,
+				"s3://inventory/bucket/daily/2013-01-31T00-00Z/manifest.json", BUCKET, null);
+
+		Assert.assertEquals(Arrays.asList("logs/001", "logs/002", "logs/003", "logs/a \"b\"", "other/1"),
+				keys(objectSummaries));
+		Assert.assertEquals(3, InMemoryS3Client.getRequests.get());
+		Assert.assertEquals(0, InMemoryS3Client.listRequests.get());
+	}
+
+	@Test
+	public void testUnsupportedInventory() throws Exception {
+		S3InventoryReader reader = new S3InventoryReader(new Configuration(), null, 2);
+		try {
+			listObjects(reader, writeLocalInventory("ORC"), BUCKET, null);
+			Assert.fail();
+		} catch (InvalidJobConfException e) {
+			// expected
+		}
+
+		try {
+			listObjects(reader, writeLocalInventory("CSV"), "other", null);
+			Assert.fail();
+		} catch (InvalidJobConfException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Tests that splits are built from each inventory data file and read without listing keys
+	 */
+	@Test
+	public void testGetSplits() throws Exception {
+		for (String key : new String[] { "logs/001", "logs/002", "logs/003", "logs/a \"b\"" }) {
+			InMemoryS3Client.putObject(BUCKET, key, new byte[1]);
+		}
+
+		Configuration conf = new Configuration(false);
+		conf.set(S3ClientFactory.S3_CLIENT_CLASS, InMemoryS3Client.class.getName());
+		conf.set(S3InputFormat.S3_BUCKET_NAME, BUCKET);
+		conf.set(S3InputFormat.S3_KEY_PREFIX, "logs/");
+		conf.setInt(S3InputFormat.S3_NUM_OF_KEYS_PER_MAPPER, 3);
+		conf.set(S3InputFormat.S3_INVENTORY_MANIFEST, writeLocalInventory("CSV"));
+
+		List<InputSplit> splits = new S3ContentInputFormat().getSplits(new JobContext(conf, new JobID()));
+		Assert.assertEquals(2, splits.size());
+
+		List<String> keys = new ArrayList<String>();
+		for (InputSplit split : splits) {
+			S3ContentRecordReader reader = new S3ContentRecordReader();
+			reader.initialize(split, new TaskAttemptContext(conf, new TaskAttemptID()));
+			while (reader.nextKeyValue()) {
+				keys.add(reader.getCurrentKey().toString());
+			}
+			reader.close();
+		}
+
+		// keys of data file are not ordered
+		Collections.sort(keys);
+		Assert.assertEquals(Arrays.asList("logs/001", "logs/002", "logs/003", "logs/a \"b\""), keys);
+		Assert.assertEquals(0, InMemoryS3Client.listRequests.get());
+	}
+
+	@Test
+	public void testParseLine() {
+		List<String> fields = new ArrayList<String>();
+		S3InventoryReader.parseLine("\"a\",b,\"c,\"\"d\"\"\",,\"\"", fields);
+		Assert.assertEquals(Arrays.asList("a", "b", "c,\"d\"", "", ""), fields);
+	}
+}
@@ -0,0 +1,218 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.InvalidJobConfException;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.JobID;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * S3 key filter test
+ *
+ * @author seljaz
+ *
+ */
+public class S3KeyFilterTest {
+
+	static String BUCKET = "bucket";
+	static long DAY = 24 * 60 * 60 * 1000L;
+
+	@Before
+	public void setUp() {
+		InMemoryS3Client.reset();
+	}
+
+	S3ObjectSummary createObjectSummary(String key, long size, long lastModified, String storageClass) {
+		S3ObjectSummary objectSummary = new S3ObjectSummary();
+		objectSummary.setBucketName(BUCKET);
+		objectSummary.setKey(key);
+		objectSummary.setSize(size);
+		objectSummary.setLastModified(new Date(lastModified));
+		objectSummary.setStorageClass(storageClass);
+		return objectSummary;
+	}
+
+	boolean accept(Configuration conf, String key) throws Exception {
+		return S3KeyFilter.getFilter(conf).accept(createObjectSummary(key, 1, 0, null));
+	}
+
+	@Test
+	public void testGlob() throws Exception {
+		Configuration conf = new Configuration(false);
+		conf.set(S3InputFormat.S3_FILTER_KEY_GLOB, "logs/*.log");
+		Assert.assertTrue(accept(conf, "logs/a.log"));
+		Assert.assertFalse(accept(conf, "logs/a.log.gz"));
+		Assert.assertFalse(accept(conf, "logs/2013/a.log"));
+		Assert.assertFalse(accept(conf, "logs/a_log"));
+
+		conf.set(S3InputFormat.S3_FILTER_KEY_GLOB, "logs/**/part-?{0,5}.{log,txt}");
+		Assert.assertTrue(accept(conf, "logs/2013/01/part-10.log"));
+		Assert.assertTrue(accept(conf, "logs/x/part-a5.txt"));
+		Assert.assertFalse(accept(conf, "logs/x/part-a1.txt"));
+		Assert.assertFalse(accept(conf, "logs/x/part-/5.txt"));
+		Assert.assertFalse(accept(conf, "logs/part-10.log"));
+
+		conf.set(S3InputFormat.S3_FILTER_KEY_GLOB, "logs/[!a-c]\\*[\\]");
+		Assert.assertTrue(accept(conf, "logs/d*\\"));
+		Assert.assertFalse(accept(conf, "logs/b*\\"));
+		Assert.assertFalse(accept(conf, "logs/dx\\"));
+	}
+
+	@Test
+	public void testRegex() throws Exception {
+		Configuration conf = new Configuration(false);
+		conf.set(S3InputFormat.S3_FILTER_KEY_REGEX, "logs/\\d{4}/.*\\.gz");
+		Assert.assertTrue(accept(conf, "logs/2013/a.log.gz"));
+		Assert.assertFalse(accept(conf, "logs/2013/a.log"));
+		Assert.assertFalse(accept(conf, "old/logs/2013/a.log.gz"));
+	}
+
+	@Test
+	public void testInvalidConfiguration() throws Exception {
+		Assert.assertNull(S3KeyFilter.getFilter(new Configuration(false)));
+
+		Configuration conf = new Configuration(false);
+		conf.set(S3InputFormat.S3_FILTER_KEY_GLOB, "*");
+		conf.set(S3InputFormat.S3_FILTER_KEY_REGEX, ".*");
+		assertInvalid(conf);
+
+		conf = new Configuration(false);
+		conf.set(S3InputFormat.S3_FILTER_KEY_REGEX, "logs/(");
+		assertInvalid(conf);
+
+		conf = new Configuration(false);
+		conf.set(S3InputFormat.S3_FILTER_MODIFIED_AFTER, "2013-02-30");
+		assertInvalid(conf);
+	}
+
+	void assertInvalid(Configuration conf) {
+		try {
+			S3KeyFilter.getFilter(conf);
+			Assert.fail();
+		} catch (InvalidJobConfException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testParseTime() throws Exception {
+		Assert.assertEquals(1359590400000L, S3KeyFilter.parseTime("time", "1359590400000"));
+		Assert.assertEquals(1359590400000L, S3KeyFilter.parseTime("time", "2013-01-31"));
+		Assert.assertEquals(1359633600000L, S3KeyFilter.parseTime("time", " 2013-01-31T12:00:00Z"));
+	}
+
+	@Test
+	public void testAccept() throws Exception {
+		Configuration conf = new Configuration(false);
+		conf.set(S3InputFormat.S3_FILTER_MODIFIED_AFTER, String.valueOf(10 * DAY));
+		conf.set(S3InputFormat.S3_FILTER_MODIFIED_BEFORE, String.valueOf(20 * DAY));
+		conf.setLong(S3InputFormat.S3_FILTER_MIN_SIZE, 1);
+		conf.setLong(S3InputFormat.S3_FILTER_MAX_SIZE, 100);
+		conf.set(S3InputFormat.S3_FILTER_STORAGE_CLASSES, "standard, REDUCED_REDUNDANCY");
+		S3KeyFilter filter = S3KeyFilter.getFilter(conf);
+
+		Assert.assertTrue(filter.accept(createObjectSummary("a", 1, 10 * DAY, "STANDARD")));
+		Assert.assertTrue(filter.accept(createObjectSummary("a", 100, 20 * DAY - 1, "REDUCED_REDUNDANCY")));
+		Assert.assertTrue(filter.accept(createObjectSummary("a", 50, 15 * DAY, null)));
+
+		Assert.assertFalse(filter.accept(createObjectSummary("a", 50, 10 * DAY - 1, "STANDARD")));
+		Assert.assertFalse(filter.accept(createObjectSummary("a", 50, 20 * DAY, "STANDARD")));
+		Assert.assertFalse(filter.accept(createObjectSummary("a", 0, 15 * DAY, "STANDARD")));
+		Assert.assertFalse(filter.accept(createObjectSummary("a", 101, 15 * DAY, "STANDARD")));
+		Assert.assertFalse(filter.accept(createObjectSummary("a", 50, 15 * DAY, "GLACIER")));
+
+		S3ObjectSummary objectSummary = createObjectSummary("a", 50, 0, "STANDARD");
+		objectSummary.setLastModified(null);
+		Assert.assertFalse(filter.accept(objectSummary));
+	}
+
+	void putObjects() {
+		for (int i = 0; i < 40; i++) {
+			String key = String.format("logs/%02d.%s", i, i % 2 == 0 ? "log" : "txt");
+			InMemoryS3Client.putObject(BUCKET, key, new byte[i], new Date(i * DAY), i % 4 == 0 ? "GLACIER"
+					: "STANDARD");
+		}
+	}
+
+	Configuration createConf() {
+		Configuration conf = new Configuration(false);
+		conf.set(S3ClientFactory.S3_CLIENT_CLASS, InMemoryS3Client.class.getName());
+		conf.set(S3InputFormat.S3_BUCKET_NAME, BUCKET);
+		conf.set(S3InputFormat.S3_KEY_PREFIX, "logs/");
+		conf.setInt(S3InputFormat.S3_NUM_OF_KEYS_PER_MAPPER, 3);
+		conf.set(S3InputFormat.S3_FILTER_KEY_GLOB, "logs/*.log");
+		conf.set(S3InputFormat.S3_FILTER_MODIFIED_AFTER, String.valueOf(10 * DAY));
+		conf.set(S3InputFormat.S3_FILTER_STORAGE_CLASSES, "STANDARD");
+		return conf;
+	}
+
+	List<String> expectedKeys() {
+		List<String> keys = new ArrayList<String>();
+		for (int i = 10; i < 40; i++) {
+			if (i % 2 == 0 && i % 4 != 0) {
+				keys.add(String.format("%s/logs/%02d.log", BUCKET, i));
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * Tests that filtered keys are not included in input splits and are not read
+	 */
+	@Test
+	public void testGetSplits() throws Exception {
+		putObjects();
+		Configuration conf = createConf();
+
+		S3ObjectSummaryInputFormat format = new S3ObjectSummaryInputFormat();
+		List<InputSplit> splits = format.getSplits(new JobContext(conf, new JobID()));
+		Assert.assertEquals(3, splits.size());
+		Assert.assertEquals(32, format.filteredKeys);
+
+		List<String> keys = new ArrayList<String>();
+		for (InputSplit split : splits) {
+			S3ObjectSummaryRecordReader reader = new S3ObjectSummaryRecordReader();
+			reader.initialize(split, new TaskAttemptContext(conf, new TaskAttemptID()));
+			while (reader.nextKeyValue()) {
+				keys.add(reader.getCurrentKey().toString());
+			}
+			reader.close();
+		}
+		Assert.assertEquals(expectedKeys(), keys);
+	}
+
+	/**
+	 * Tests that record reader skips filtered keys of split which lists keys again
+	 */
+	@Test
+	public void testNextKeyValue() throws Exception {
+		putObjects();
+		Configuration conf = createConf();
+
+		S3InputSplit split = new S3InputSplit();
+		split.setBucketName(BUCKET);
+		split.setKeyPrefix("logs/");
+
+		S3ObjectSummaryRecordReader reader = new S3ObjectSummaryRecordReader();
+		reader.initialize(split, new TaskAttemptContext(conf, new TaskAttemptID()));
+
+		List<String> keys = new ArrayList<String>();
+		while (reader.nextKeyValue()) {
+			keys.add(reader.getCurrentKey().toString());
+		}
+		Assert.assertEquals(expectedKeys(), keys);
+		Assert.assertEquals(32, reader.reader.getMetrics().get(S3Counter.FILTERED_KEYS));
+		reader.close();
+	}
+}
@@ -0,0 +1,102 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.util.List;
+
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * S3 key space sampler test
+ * 
+ * @author seljaz
+ *
+ */
+public class S3KeySpaceSamplerTest {
+
+	static String BUCKET = "bucket";
+	static String PREFIX = "logs/";
+
+	int numOfKeys = 0;
+
+	@Before
+	public void setUp() {
+		InMemoryS3Client.reset();
+
+		// hashed keys, with one part of the key space three times denser than the other
+		for (int i = 0; i < 6000; i++) {
+			InMemoryS3Client.putObject(BUCKET, String.format("%sa%08x", PREFIX, i * 0x9E3779B1), new byte[1]);
+			numOfKeys++;
+		}
+		for (int i = 0; i < 2000; i++) {
+			InMemoryS3Client.putObject(BUCKET, String.format("%sb%08x", PREFIX, i * 0x9E3779B1), new byte[1]);
+			numOfKeys++;
+		}
+		InMemoryS3Client.putObject(BUCKET, "other/1", new byte[1]);
+	}
+
+	/**
+	 * Tests that every key belongs to exactly one split and splits have roughly equal number of keys
+	 */
+	@Test
+	public void testGetSplits() throws Exception {
+		S3BucketReader reader = new S3BucketReader(new InMemoryS3Client(), BUCKET, PREFIX, null, 100);
+		S3KeySpaceSampler sampler = new S3KeySpaceSampler(reader, 4, 100);
+
+		int numOfSplits = 10;
+		List<InputSplit> splits = sampler.getSplits(BUCKET, PREFIX, numOfSplits);
+
+		Assert.assertEquals(numOfSplits, splits.size());
+		Assert.assertNull(((S3InputSplit) splits.get(0)).getMarker());
+		Assert.assertNull(((S3InputSplit) splits.get(splits.size() - 1)).getLastKey());
+
+		// number of probes doesn't depend on number of keys
+		Assert.assertTrue(sampler.getNumOfProbes() < 100);
+
+		int total = 0;
+		for (InputSplit inputSplit : splits) {
+			S3InputSplit split = (S3InputSplit) inputSplit;
+
+			int count = 0;
+			for (String key : InMemoryS3Client.getBucket(BUCKET).keySet()) {
+				if (key.startsWith(PREFIX) && (split.getMarker() == null || key.compareTo(split.getMarker()) > 0)
+						&& (split.getLastKey() == null || key.compareTo(split.getLastKey()) <= 0)) {
+					count++;
+				}
+			}
+
+			Assert.assertTrue("Unbalanced split " + split + " having " + count + " keys", count > 0
+					&& count < 3 * numOfKeys / numOfSplits);
+			total += count;
+		}
+
+		Assert.assertEquals(numOfKeys, total);
+	}
+
+	/**
+	 * Tests that single split covers the whole key space without probing it
+	 */
+	@Test
+	public void testSingleSplit() throws Exception {
+		S3BucketReader reader = new S3BucketReader(new InMemoryS3Client(), BUCKET, PREFIX, null, 100);
+		S3KeySpaceSampler sampler = new S3KeySpaceSampler(reader, 4, 100);
+
+		List<InputSplit> splits = sampler.getSplits(BUCKET, PREFIX, 1);
+
+		Assert.assertEquals(1, splits.size());
+		Assert.assertEquals(0, sampler.getNumOfProbes());
+	}
+
+	/**
+	 * Tests mapping of keys to numbers
+	 */
+	@Test
+	public void testFraction() {
+		String key = S3KeySpaceSampler.fromFraction(S3KeySpaceSampler.toFraction("logs/abc", "logs/"), "logs/");
+		Assert.assertEquals("logs/abc", key);
+
+		Assert.assertTrue(S3KeySpaceSampler.toFraction("logs/abc", "logs/") < S3KeySpaceSampler.toFraction(
+				"logs/abd", "logs/"));
+	}
+}
@@ -0,0 +1,139 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.JobID;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * S3 line input format test
+ * 
+ * @author seljaz
+ *
+ */
+public class S3LineInputFormatTest {
+
+	static String BUCKET = "bucket";
+
+	List<String> expected = new ArrayList<String>();
+	StringBuilder large;
+
+	@Before
+	public void setUp() {
+		InMemoryS3Client.reset();
+
+		// lines of different length, including empty lines, so split boundaries fall everywhere
+		large = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			StringBuilder line = new StringBuilder();
+			for (int j = 0; j < i % 31; j++) {
+				line.append((char) ('a' + j % 26));
+			}
+			large.append(line).append('\n');
+			expected.add(BUCKET + "/logs/a.log " + line);
+		}
+
+		InMemoryS3Client.putObject(BUCKET, "logs/a.log", large.toString().getBytes());
+		InMemoryS3Client.putObject(BUCKET, "logs/b.log", "first\nsecond".getBytes());
+		expected.add(BUCKET + "/logs/b.log first");
+		expected.add(BUCKET + "/logs/b.log second");
+	}
+
+	/**
+	 * Tests that compressed object is read as whole and decompressed
+	 */
+	@Test
+	public void testReadCompressed() throws Exception {
+		InMemoryS3Client.putObject(BUCKET, "logs/c.log.gz", S3ObjectDecompressorTest.gzip(large.toString()));
+		for (int i = 0; i < 200; i++) {
+			expected.add(expected.get(i).replace("a.log", "c.log.gz"));
+		}
+
+		Assert.assertEquals(expected, readAll(createConf()));
+	}
+
+	/**
+	 * Tests that object compressed by Content-Encoding, which can't be recognized by key suffix, is not divided into
+	 * byte ranges
+	 */
+	@Test
+	public void testReadContentEncoded() throws Exception {
+		InMemoryS3Client.putObject(BUCKET, "logs/c.log", S3ObjectDecompressorTest.gzip(large.toString()));
+		InMemoryS3Client.setContentEncoding(BUCKET, "logs/c.log", "gzip");
+		for (int i = 0; i < 200; i++) {
+			expected.add(expected.get(i).replace("a.log", "c.log"));
+		}
+
+		Assert.assertEquals(expected, readAll(createConf()));
+	}
+
+	/**
+	 * Tests that byte range splits read only their object, even if a key is added before it after planning
+	 */
+	@Test
+	public void testKeyAddedAfterPlanning() throws Exception {
+		Configuration conf = createConf();
+		List<InputSplit> splits = new S3LineInputFormat().getSplits(new JobContext(conf, new JobID()));
+		InMemoryS3Client.putObject(BUCKET, "logs/a", "added\n".getBytes());
+
+		Assert.assertEquals(expected, read(conf, splits));
+	}
+
+	List<String> read(Configuration conf, List<InputSplit> splits) throws Exception {
+		List<String> lines = new ArrayList<String>();
+		for (InputSplit split : splits) {
+			S3LineRecordReader reader = new S3LineRecordReader();
+			reader.initialize(split, new TaskAttemptContext(conf, new TaskAttemptID()));
+			while (reader.nextKeyValue()) {
+				lines.add(reader.getCurrentKey() + " " + reader.getCurrentValue());
+			}
+			reader.close();
+		}
+		return lines;
+	}
+
+	List<String> readAll(Configuration conf) throws Exception {
+		S3LineInputFormat format = new S3LineInputFormat();
+		List<InputSplit> splits = format.getSplits(new JobContext(conf, new JobID()));
+		Assert.assertTrue(splits.size() > 10);
+		return read(conf, splits);
+	}
+
+	Configuration createConf() {
+		Configuration conf = new Configuration(false);
+		conf.set(S3ClientFactory.S3_CLIENT_CLASS, InMemoryS3Client.class.getName());
+		conf.set(S3InputFormat.S3_BUCKET_NAME, BUCKET);
+		conf.set(S3InputFormat.S3_KEY_PREFIX, "logs/");
+		conf.setLong(S3InputFormat.S3_NUM_OF_BYTES_PER_MAPPER, 100);
+		conf.setLong(S3InputFormat.S3_RANGED_GET_PART_SIZE, 64);
+		conf.setInt(S3InputFormat.S3_RANGED_GET_THREADS, 2);
+		return conf;
+	}
+
+	/**
+	 * Tests that every line of large object divided into byte ranges is read exactly once
+	 */
+	@Test
+	public void testReadRanges() throws Exception {
+		Assert.assertEquals(expected, readAll(createConf()));
+	}
+
+	/**
+	 * Tests reading byte ranges with keys embedded in splits
+	 */
+	@Test
+	public void testReadRangesEmbeddedKeys() throws Exception {
+		Configuration conf = createConf();
+		conf.setBoolean(S3InputFormat.S3_EMBED_KEYS, true);
+
+		Assert.assertEquals(expected, readAll(conf));
+	}
+}
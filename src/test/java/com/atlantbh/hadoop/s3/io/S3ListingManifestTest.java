@@ -0,0 +1,120 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * S3 listing manifest test
+ * 
+ * @author seljaz
+ *
+ */
+public class S3ListingManifestTest {
+
+	static S3ObjectSummary summary(String key, String eTag, String storageClass) {
+		S3ObjectSummary objectSummary = new S3ObjectSummary();
+		objectSummary.setBucketName("bucket");
+		objectSummary.setKey(key);
+		objectSummary.setSize(key.length() * 1000L);
+		objectSummary.setETag(eTag);
+		objectSummary.setLastModified(new Date(1330000000000L + key.length()));
+		objectSummary.setStorageClass(storageClass);
+		return objectSummary;
+	}
+
+	static List<S3ObjectSummary> objectSummaries() {
+		List<S3ObjectSummary> objectSummaries = new ArrayList<S3ObjectSummary>();
+		objectSummaries.add(summary("logs/2012/01/a", "0123456789abcdef0123456789abcdef", "STANDARD"));
+		objectSummaries.add(summary("logs/2012/01/b", "0123456789abcdef0123456789abcdef-12", "STANDARD"));
+		objectSummaries.add(summary("logs/2012/02/a𝄞", null, "GLACIER"));
+		objectSummaries.add(summary("logs/2012/02/a𝄟", "0123456789abcdef0123456789abcdef", null));
+		return objectSummaries;
+	}
+
+	static void assertManifest(List<S3ObjectSummary> objectSummaries, S3ListingManifest.Reader manifest)
+			throws IOException {
+		Assert.assertTrue(manifest.matches("bucket", "logs/"));
+
+		for (S3ObjectSummary expected : objectSummaries) {
+			S3ObjectSummary actual = manifest.next();
+
+			Assert.assertEquals(expected.getBucketName(), actual.getBucketName());
+			Assert.assertEquals(expected.getKey(), actual.getKey());
+			Assert.assertEquals(expected.getSize(), actual.getSize());
+			Assert.assertEquals(expected.getETag(), actual.getETag());
+			Assert.assertEquals(expected.getLastModified(), actual.getLastModified());
+			Assert.assertEquals(expected.getStorageClass(), actual.getStorageClass());
+		}
+		Assert.assertNull(manifest.next());
+		Assert.assertEquals(objectSummaries.get(objectSummaries.size() - 1).getKey(), manifest.getLastKey());
+		manifest.close();
+	}
+
+	/**
+	 * Tests writing and reading of manifest
+	 */
+	@Test
+	public void testReadWrite() throws IOException {
+		List<S3ObjectSummary> objectSummaries = objectSummaries();
+
+		File dir = File.createTempFile("manifest", "");
+		dir.delete();
+		dir.deleteOnExit();
+
+		Configuration conf = new Configuration();
+		Path path = new Path(new File(dir, "logs.manifest").toURI().toString());
+
+		S3ListingManifest.Writer writer = S3ListingManifest.create(conf, path, "bucket", "logs/");
+		for (S3ObjectSummary objectSummary : objectSummaries) {
+			writer.add(objectSummary);
+		}
+		writer.commit();
+		writer.close();
+
+		assertManifest(objectSummaries, S3ListingManifest.open(conf, path));
+
+		// manifest which is not committed doesn't replace the previous one
+		writer = S3ListingManifest.create(conf, path, "bucket", "logs/");
+		writer.add(objectSummaries.get(0));
+		writer.close();
+
+		assertManifest(objectSummaries, S3ListingManifest.open(conf, path));
+		Assert.assertFalse(new File(dir, ".logs.manifest.tmp").exists());
+
+		Assert.assertNull(S3ListingManifest.open(conf, new Path(path.getParent(), "missing")));
+	}
+
+	/**
+	 * Tests reading of manifest written by version 1, which stores number of keys
+	 */
+	@Test
+	public void testReadVersion1() throws IOException {
+		List<S3ObjectSummary> objectSummaries = objectSummaries();
+
+		File file = File.createTempFile("manifest", ".bin");
+		file.deleteOnExit();
+
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+		out.writeInt(S3ListingManifest.MAGIC);
+		WritableUtils.writeVInt(out, 1);
+		Text.writeString(out, "logs/");
+		new S3ObjectSummaryList("bucket", objectSummaries).write(out);
+		out.close();
+
+		assertManifest(objectSummaries, S3ListingManifest.open(new Configuration(), new Path(file.toURI().toString())));
+	}
+}
@@ -0,0 +1,587 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.SimpleTimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * Local HTTP stand-in for Amazon S3 used in end-to-end tests. It serves LIST, GET (including byte ranges and
+ * If-Match) and HEAD requests for objects stored in {@link InMemoryS3Client} over persistent HTTP/1.1 connections,
+ * so the real SDK client with its HTTP stack can be pointed at it with {@link S3ClientFactory#S3_ENDPOINT}. Minimal
+ * HTTP server is used instead of the one in JDK, which changes the case of header names the client relies on.
+ *
+ * Server can simulate behavior of S3 under load: every request is delayed by latency drawn from configured
+ * {@link Latency} distribution, content is sent at limited bandwidth per connection and requests are rejected with
+ * "503 Slow Down" above configured request rate or with configured probability.
+ *
+ * SDK client addresses buckets with DNS compatible names as virtual hosts (bucket.host), so tests use bucket names
+ * which are not DNS compatible (e.g. with upper case letters), which are addressed by path (host/bucket/key).
+ *
+ * @author seljaz
+ *
+ */
+public class S3LocalServer {
+
+	/**
+	 * Distribution of request latency
+	 */
+	public static abstract class Latency {
+		/**
+		 * @return latency of next request in milliseconds
+		 */
+		abstract long next(Random random);
+
+		public static Latency none() {
+			return constant(0);
+		}
+
+		public static Latency constant(final long millis) {
+			return new Latency() {
+				@Override
+				long next(Random random) {
+					return millis;
+				}
+			};
+		}
+
+		public static Latency uniform(final long minMillis, final long maxMillis) {
+			return new Latency() {
+				@Override
+				long next(Random random) {
+					return minMillis + (long) (random.nextDouble() * (maxMillis - minMillis));
+				}
+			};
+		}
+
+		/**
+		 * Long tailed distribution typical for S3 first byte latency
+		 *
+		 * @param medianMillis median latency
+		 * @param sigma standard deviation of the logarithm of latency, e.g. 0.5 makes 99th percentile about 3 times
+		 *            the median
+		 */
+		public static Latency logNormal(final double medianMillis, final double sigma) {
+			return new Latency() {
+				@Override
+				long next(Random random) {
+					return (long) (medianMillis * Math.exp(sigma * random.nextGaussian()));
+				}
+			};
+		}
+	}
+
+	static final int CHUNK_SIZE = 16 * 1024;
+
+	ServerSocket serverSocket;
+	ExecutorService executor = Executors.newCachedThreadPool();
+	InMemoryS3Client storage = new InMemoryS3Client();
+	Random random = new Random();
+
+	volatile Latency listLatency = Latency.none();
+	volatile Latency getLatency = Latency.none();
+	volatile long bytesPerSecond = 0;
+	volatile double throttleProbability = 0;
+	volatile int maxRequestsPerSecond = 0;
+
+	long second = 0;
+	int requestsInSecond = 0;
+
+	AtomicInteger requests = new AtomicInteger();
+	AtomicInteger throttledRequests = new AtomicInteger();
+
+	/**
+	 * HTTP request
+	 */
+	static class Request {
+		String method;
+		String path;
+		String query;
+		/**
+		 * Headers by lower case name
+		 */
+		Map<String, String> headers = new HashMap<String, String>();
+	}
+
+	/**
+	 * HTTP response. Header names are written as they are set, as the SDK client matches them case sensitively
+	 */
+	static class Response {
+		int status = 200;
+		Map<String, String> headers = new LinkedHashMap<String, String>();
+		InputStream body;
+		long length = 0;
+	}
+
+	/**
+	 * Starts the server on free port of the loopback interface
+	 */
+	public S3LocalServer() throws IOException {
+		serverSocket = new ServerSocket(0, 100, InetAddress.getByName("127.0.0.1"));
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		});
+	}
+
+	void accept() {
+		while (!serverSocket.isClosed()) {
+			try {
+				final Socket socket = serverSocket.accept();
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						serve(socket);
+					}
+				});
+			} catch (IOException e) {
+				// server is stopped
+			}
+		}
+	}
+
+	/**
+	 * Serves requests of persistent connection until the client closes it
+	 */
+	void serve(Socket socket) {
+		try {
+			socket.setTcpNoDelay(true);
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			OutputStream out = new BufferedOutputStream(socket.getOutputStream(), CHUNK_SIZE);
+
+			Request request;
+			while ((request = readRequest(in)) != null) {
+				Response response = handle(request);
+				writeResponse(out, request, response);
+			}
+		} catch (IOException e) {
+			// connection is closed
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// ignored
+			}
+		}
+	}
+
+	/**
+	 * @return endpoint URL of the server
+	 */
+	public String getEndpoint() {
+		return "http://127.0.0.1:" + serverSocket.getLocalPort();
+	}
+
+	public void stop() {
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			// ignored
+		}
+		executor.shutdownNow();
+	}
+
+	public void setListLatency(Latency listLatency) {
+		this.listLatency = listLatency;
+	}
+
+	/**
+	 * Sets latency of GET and HEAD requests (time to the first byte)
+	 */
+	public void setGetLatency(Latency getLatency) {
+		this.getLatency = getLatency;
+	}
+
+	/**
+	 * Limits the bandwidth of every connection. Zero means unlimited
+	 */
+	public void setBytesPerSecond(long bytesPerSecond) {
+		this.bytesPerSecond = bytesPerSecond;
+	}
+
+	/**
+	 * Rejects given fraction of requests with "503 Slow Down"
+	 */
+	public void setThrottleProbability(double throttleProbability) {
+		this.throttleProbability = throttleProbability;
+	}
+
+	/**
+	 * Rejects requests above given rate with "503 Slow Down". Zero means unlimited
+	 */
+	public void setMaxRequestsPerSecond(int maxRequestsPerSecond) {
+		this.maxRequestsPerSecond = maxRequestsPerSecond;
+	}
+
+	/**
+	 * @return number of requests received, including throttled ones
+	 */
+	public int getRequests() {
+		return requests.get();
+	}
+
+	public int getThrottledRequests() {
+		return throttledRequests.get();
+	}
+
+	Response handle(Request request) throws IOException {
+		requests.incrementAndGet();
+
+		int slash = request.path.indexOf('/', 1);
+		String bucketName = decode(slash < 0 ? request.path.substring(1) : request.path.substring(1, slash));
+		String key = slash < 0 ? "" : decode(request.path.substring(slash + 1));
+		boolean list = "GET".equals(request.method) && "".equals(key);
+
+		sleep((list ? listLatency : getLatency).next(random));
+
+		if (isThrottled()) {
+			throttledRequests.incrementAndGet();
+			return error(503, "SlowDown", "Please reduce your request rate.");
+		}
+
+		try {
+			if (list) {
+				return list(request, bucketName);
+			} else if ("GET".equals(request.method)) {
+				return get(request, bucketName, key);
+			} else if ("HEAD".equals(request.method)) {
+				return head(bucketName, key);
+			} else {
+				return error(501, "NotImplemented", request.method + " is not implemented");
+			}
+		} catch (AmazonServiceException e) {
+			return error(e.getStatusCode(), e.getErrorCode(), e.getMessage());
+		}
+	}
+
+	boolean isThrottled() {
+		if (throttleProbability > 0 && random.nextDouble() < throttleProbability) {
+			return true;
+		}
+		if (maxRequestsPerSecond > 0) {
+			synchronized (this) {
+				long now = System.currentTimeMillis() / 1000;
+				if (now != second) {
+					second = now;
+					requestsInSecond = 0;
+				}
+				return ++requestsInSecond > maxRequestsPerSecond;
+			}
+		}
+		return false;
+	}
+
+	Response list(Request request, String bucketName) throws IOException {
+		Map<String, String> query = parseQuery(request.query);
+		ListObjectsRequest listRequest = new ListObjectsRequest(bucketName, query.get("prefix"), query.get("marker"),
+				query.get("delimiter"), query.containsKey("max-keys") ? Integer.valueOf(query.get("max-keys")) : null);
+		ObjectListing listing = storage.listObjects(listRequest);
+
+		StringBuilder xml = new StringBuilder();
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+		xml.append("<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">");
+		element(xml, "Name", bucketName);
+		element(xml, "Prefix", listing.getPrefix());
+		element(xml, "Marker", listing.getMarker());
+		if (listing.getNextMarker() != null && listing.getDelimiter() != null) {
+			element(xml, "NextMarker", listing.getNextMarker());
+		}
+		element(xml, "MaxKeys", String.valueOf(listing.getMaxKeys()));
+		if (listing.getDelimiter() != null) {
+			element(xml, "Delimiter", listing.getDelimiter());
+		}
+		element(xml, "IsTruncated", String.valueOf(listing.isTruncated()));
+
+		SimpleDateFormat iso8601 = dateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		for (S3ObjectSummary objectSummary : listing.getObjectSummaries()) {
+			xml.append("<Contents>");
+			element(xml, "Key", objectSummary.getKey());
+			element(xml, "LastModified", iso8601.format(objectSummary.getLastModified()));
+			element(xml, "ETag", "\"" + objectSummary.getETag() + "\"");
+			element(xml, "Size", String.valueOf(objectSummary.getSize()));
+			element(xml, "StorageClass", objectSummary.getStorageClass());
+			xml.append("</Contents>");
+		}
+		for (String commonPrefix : listing.getCommonPrefixes()) {
+			xml.append("<CommonPrefixes>");
+			element(xml, "Prefix", commonPrefix);
+			xml.append("</CommonPrefixes>");
+		}
+		xml.append("</ListBucketResult>");
+
+		return xml(200, xml.toString());
+	}
+
+	Response get(Request request, String bucketName, String key) throws IOException {
+		GetObjectRequest getRequest = new GetObjectRequest(bucketName, key);
+
+		String ifMatch = request.headers.get("if-match");
+		if (ifMatch != null) {
+			getRequest.withMatchingETagConstraint(ifMatch.replace("\"", ""));
+		}
+
+		long length = storage.getObjectMetadata(bucketName, key).getContentLength();
+		String range = request.headers.get("range");
+		long start = 0;
+		if (range != null && range.startsWith("bytes=")) {
+			String[] bounds = range.substring("bytes=".length()).split("-");
+			start = Long.parseLong(bounds[0]);
+			long end = bounds.length > 1 ? Long.parseLong(bounds[1]) : length - 1;
+			if (start >= length) {
+				return error(416, "InvalidRange", "The requested range is not satisfiable");
+			}
+			getRequest.setRange(start, end);
+		}
+
+		S3Object object = storage.getObject(getRequest);
+		if (object == null) {
+			return error(412, "PreconditionFailed", "At least one of the preconditions you specified did not hold");
+		}
+
+		Response response = new Response();
+		setHeaders(response, object.getObjectMetadata());
+		if (range != null) {
+			response.status = 206;
+			response.headers.put("Content-Range", "bytes " + start + "-"
+					+ (start + response.length - 1) + "/" + length);
+		}
+		response.body = object.getObjectContent();
+		return response;
+	}
+
+	Response head(String bucketName, String key) {
+		Response response = new Response();
+		setHeaders(response, storage.getObjectMetadata(bucketName, key));
+		return response;
+	}
+
+	void setHeaders(Response response, ObjectMetadata metadata) {
+		response.length = metadata.getContentLength();
+		response.headers.put("ETag", "\"" + metadata.getETag() + "\"");
+		response.headers.put("Last-Modified", dateFormat("EEE, dd MMM yyyy HH:mm:ss z").format(
+				metadata.getLastModified()));
+		response.headers.put("Content-Type", "application/octet-stream");
+		response.headers.put("Accept-Ranges", "bytes");
+	}
+
+	Response error(int status, String code, String message) throws IOException {
+		StringBuilder xml = new StringBuilder();
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Error>");
+		element(xml, "Code", code);
+		element(xml, "Message", message);
+		element(xml, "RequestId", Integer.toHexString(random.nextInt()));
+		xml.append("</Error>");
+
+		return xml(status, xml.toString());
+	}
+
+	static Response xml(int status, String xml) throws IOException {
+		byte[] bytes = xml.getBytes("UTF-8");
+
+		Response response = new Response();
+		response.status = status;
+		response.headers.put("Content-Type", "application/xml");
+		response.body = new ByteArrayInputStream(bytes);
+		response.length = bytes.length;
+		return response;
+	}
+
+	/**
+	 * Reads request line and headers
+	 *
+	 * @return request or <code>null</code> if the client closed the connection
+	 */
+	static Request readRequest(InputStream in) throws IOException {
+		String line = readLine(in);
+		if (line == null || line.length() == 0) {
+			return null;
+		}
+
+		String[] parts = line.split(" ");
+		Request request = new Request();
+		request.method = parts[0];
+		int idx = parts[1].indexOf('?');
+		request.path = idx < 0 ? parts[1] : parts[1].substring(0, idx);
+		request.query = idx < 0 ? null : parts[1].substring(idx + 1);
+
+		while ((line = readLine(in)) != null && line.length() > 0) {
+			int colon = line.indexOf(':');
+			request.headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+		}
+
+		// requests served by the server have no content, but the body must be consumed anyway
+		String contentLength = request.headers.get("content-length");
+		if (contentLength != null) {
+			long remaining = Long.parseLong(contentLength);
+			while (remaining > 0) {
+				long skipped = in.skip(remaining);
+				if (skipped <= 0) {
+					throw new EOFException();
+				}
+				remaining -= skipped;
+			}
+		}
+		return request;
+	}
+
+	static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = in.read()) >= 0 && c != '\n') {
+			if (c != '\r') {
+				line.append((char) c);
+			}
+		}
+		return c < 0 && line.length() == 0 ? null : line.toString();
+	}
+
+	void writeResponse(OutputStream out, Request request, Response response) throws IOException {
+		StringBuilder head = new StringBuilder();
+		head.append("HTTP/1.1 ").append(response.status).append(' ').append(reason(response.status)).append("\r\n");
+		head.append("Date: ").append(dateFormat("EEE, dd MMM yyyy HH:mm:ss z").format(new Date())).append("\r\n");
+		for (Map.Entry<String, String> header : response.headers.entrySet()) {
+			head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+		}
+		head.append("Content-Length: ").append(response.length).append("\r\n\r\n");
+		out.write(head.toString().getBytes("ISO-8859-1"));
+
+		if (!"HEAD".equals(request.method) && response.body != null) {
+			send(out, response.body);
+		}
+		out.flush();
+	}
+
+	static String reason(int status) {
+		switch (status) {
+		case 200:
+			return "OK";
+		case 206:
+			return "Partial Content";
+		case 404:
+			return "Not Found";
+		case 412:
+			return "Precondition Failed";
+		case 416:
+			return "Requested Range Not Satisfiable";
+		case 501:
+			return "Not Implemented";
+		case 503:
+			return "Slow Down";
+		default:
+			return "Error";
+		}
+	}
+
+	/**
+	 * Copies the content in chunks. With bandwidth limit every chunk is sent when it would be fully transferred at
+	 * the limited rate
+	 */
+	void send(OutputStream out, InputStream in) throws IOException {
+		long limit = bytesPerSecond;
+		byte[] buffer = new byte[limit > 0 ? (int) Math.max(1, Math.min(CHUNK_SIZE, limit / 10)) : CHUNK_SIZE];
+		long start = System.nanoTime();
+		long sent = 0;
+
+		int read;
+		while ((read = in.read(buffer)) >= 0) {
+			if (limit > 0) {
+				out.flush();
+				sleep((sent + read) * 1000 / limit - (System.nanoTime() - start) / 1000000);
+			}
+			out.write(buffer, 0, read);
+			sent += read;
+		}
+	}
+
+	static void element(StringBuilder xml, String name, String value) {
+		xml.append('<').append(name).append('>');
+		if (value != null) {
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				switch (c) {
+				case '<':
+					xml.append("&lt;");
+					break;
+				case '>':
+					xml.append("&gt;");
+					break;
+				case '&':
+					xml.append("&amp;");
+					break;
+				case '"':
+					xml.append("&quot;");
+					break;
+				default:
+					xml.append(c);
+				}
+			}
+		}
+		xml.append("</").append(name).append('>');
+	}
+
+	static Map<String, String> parseQuery(String query) throws IOException {
+		Map<String, String> parameters = new HashMap<String, String>();
+		if (query != null) {
+			for (String parameter : query.split("&")) {
+				int idx = parameter.indexOf('=');
+				if (idx < 0) {
+					parameters.put(decode(parameter), "");
+				} else {
+					parameters.put(decode(parameter.substring(0, idx)), decode(parameter.substring(idx + 1)));
+				}
+			}
+		}
+		return parameters;
+	}
+
+	static String decode(String value) throws IOException {
+		// "+" is not used for spaces in S3 paths
+		return URLDecoder.decode(value.replace("+", "%2B"), "UTF-8");
+	}
+
+	static SimpleDateFormat dateFormat(String pattern) {
+		SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+		format.setTimeZone(new SimpleTimeZone(0, "GMT"));
+		return format;
+	}
+
+	static void sleep(long millis) throws IOException {
+		if (millis <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Request was interrupted");
+		}
+	}
+}
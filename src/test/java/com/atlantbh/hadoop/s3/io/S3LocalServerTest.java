@@ -0,0 +1,190 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * Tests S3 client and readers against local S3 server
+ *
+ * @author seljaz
+ *
+ */
+public class S3LocalServerTest {
+
+	/**
+	 * Bucket name which is not DNS compatible, so the client addresses it by path
+	 */
+	static final String BUCKET = "Local_Bucket";
+
+	S3LocalServer server;
+	Configuration conf;
+
+	@Before
+	public void setUp() throws Exception {
+		InMemoryS3Client.reset();
+		for (int i = 0; i < 25; i++) {
+			InMemoryS3Client.putObject(BUCKET, String.format("logs/%03d", i), content(i * 100));
+		}
+
+		server = new S3LocalServer();
+		conf = createConfiguration(server);
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+	}
+
+	static Configuration createConfiguration(S3LocalServer server) {
+		Configuration conf = new Configuration(false);
+		conf.set(S3ClientFactory.S3_ENDPOINT, server.getEndpoint());
+		conf.set(S3ClientFactory.S3_ACCESS_KEY, "accessKey");
+		conf.set(S3ClientFactory.S3_SECRET_KEY, "secretKey");
+		return conf;
+	}
+
+	static byte[] content(int length) {
+		byte[] content = new byte[length];
+		for (int i = 0; i < length; i++) {
+			content[i] = (byte) (i % 251);
+		}
+		return content;
+	}
+
+	/**
+	 * Reads the content and closes the stream, so HTTP connection is released
+	 */
+	static byte[] read(InputStream in) throws IOException {
+		try {
+			return InMemoryS3Client.read(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Tests listing in pages and reading objects through HTTP
+	 */
+	@Test
+	public void testListAndGet() throws Exception {
+		S3BucketReader reader = new S3BucketReader(S3ClientFactory.getClient(conf), BUCKET, "logs/", null, 10);
+
+		int count = 0;
+		S3ObjectSummary objectSummary;
+		while ((objectSummary = reader.getNextKey()) != null) {
+			Assert.assertEquals(String.format("logs/%03d", count), objectSummary.getKey());
+			Assert.assertEquals(count * 100, objectSummary.getSize());
+
+			S3Object object = reader.getObject(objectSummary);
+			Assert.assertArrayEquals(content(count * 100), read(object.getObjectContent()));
+			count++;
+		}
+		Assert.assertEquals(25, count);
+		Assert.assertEquals(3, reader.getMetrics().get(S3Counter.LIST_REQUESTS));
+	}
+
+	/**
+	 * Tests reading object in byte ranges
+	 */
+	@Test
+	public void testRangedGet() throws Exception {
+		S3BucketReader reader = new S3BucketReader(S3ClientFactory.getClient(conf), BUCKET, "logs/", null, 10);
+		String eTag = InMemoryS3Client.getStoredObject(BUCKET, "logs/024").eTag;
+
+		InputStream in = new S3RangedInputStream(reader, BUCKET, "logs/024", eTag, 100, 2100, 300, 3);
+		Assert.assertArrayEquals(Arrays.copyOfRange(content(2400), 100, 2100), read(in));
+		Assert.assertEquals(7, reader.getMetrics().get(S3Counter.GET_REQUESTS));
+	}
+
+	/**
+	 * Tests that throttled requests are retried by governor
+	 */
+	@Test
+	public void testThrottling() throws Exception {
+		server.setThrottleProbability(0.5);
+		conf.setBoolean(S3ClientFactory.S3_CLIENT_GOVERNOR, true);
+		conf.setInt(S3ClientFactory.S3_CLIENT_GOVERNOR_MAX_RETRIES, 30);
+		conf.setLong(S3ClientFactory.S3_CLIENT_GOVERNOR_BASE_DELAY, 1);
+		conf.setLong(S3ClientFactory.S3_CLIENT_GOVERNOR_MAX_DELAY, 10);
+
+		S3BucketReader reader = new S3BucketReader(S3ClientFactory.getClient(conf), BUCKET, "logs/", null, 10);
+		reader.setGovernor(new S3RequestGovernor(10, 30, 1, 10));
+
+		int count = 0;
+		S3ObjectSummary objectSummary;
+		while ((objectSummary = reader.getNextKey()) != null) {
+			Assert.assertArrayEquals(content(count * 100), read(reader.getObject(objectSummary).getObjectContent()));
+			count++;
+		}
+		Assert.assertEquals(25, count);
+		Assert.assertTrue(server.getThrottledRequests() > 0);
+		Assert.assertEquals(server.getThrottledRequests(), reader.getMetrics().get(S3Counter.THROTTLED));
+	}
+
+	/**
+	 * Tests that requests are delayed by latency and bandwidth limit
+	 */
+	@Test
+	public void testLatencyAndBandwidth() throws Exception {
+		server.setGetLatency(S3LocalServer.Latency.constant(100));
+		server.setBytesPerSecond(10000);
+
+		S3BucketReader reader = new S3BucketReader(S3ClientFactory.getClient(conf), BUCKET, "logs/", null, 10);
+		S3ObjectSummary objectSummary = new S3ObjectSummary();
+		objectSummary.setBucketName(BUCKET);
+		objectSummary.setKey("logs/020");
+		objectSummary.setSize(2000);
+
+		long start = System.currentTimeMillis();
+		Assert.assertEquals(2000, read(reader.getObject(objectSummary).getObjectContent()).length);
+		Assert.assertTrue(System.currentTimeMillis() - start >= 250);
+	}
+
+	public static class ContentMapper extends Mapper<S3ObjectSummaryWritable, S3ObjectWritable, NullWritable, NullWritable> {
+		@Override
+		protected void map(S3ObjectSummaryWritable key, S3ObjectWritable value, Context context) throws IOException {
+			read(value.getObjectContent());
+		}
+	}
+
+	/**
+	 * Runs job reading all objects with local job runner
+	 */
+	@Test
+	public void testJob() throws Exception {
+		Configuration jobConf = new Configuration();
+		jobConf.set("mapred.job.tracker", "local");
+		jobConf.set("fs.default.name", "file:///");
+		jobConf.set(S3ClientFactory.S3_ENDPOINT, server.getEndpoint());
+		jobConf.set(S3ClientFactory.S3_ACCESS_KEY, "accessKey");
+		jobConf.set(S3ClientFactory.S3_SECRET_KEY, "secretKey");
+		jobConf.set(S3InputFormat.S3_BUCKET_NAME, BUCKET);
+		jobConf.set(S3InputFormat.S3_KEY_PREFIX, "logs/");
+		jobConf.setInt(S3InputFormat.S3_NUM_OF_KEYS_PER_MAPPER, 10);
+
+		Job job = new Job(jobConf, "local S3");
+		job.setInputFormatClass(S3ObjectInputFormat.class);
+		job.setMapperClass(ContentMapper.class);
+		job.setNumReduceTasks(0);
+		job.setOutputFormatClass(NullOutputFormat.class);
+
+		Assert.assertTrue(job.waitForCompletion(false));
+		Assert.assertEquals(25, job.getCounters().findCounter("org.apache.hadoop.mapred.Task$Counter",
+				"MAP_INPUT_RECORDS").getValue());
+		Assert.assertEquals(25 * 24 * 100 / 2, job.getCounters().findCounter(S3Counter.BYTES_READ).getValue());
+	}
+}
@@ -0,0 +1,119 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.InputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.MapContext;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.amazonaws.AmazonServiceException;
+
+/**
+ * S3 metrics test
+ * 
+ * @author seljaz
+ *
+ */
+public class S3MetricsTest {
+
+	static class CountersReporter extends StatusReporter {
+		Counters counters = new Counters();
+
+		@Override
+		public Counter getCounter(Enum<?> name) {
+			return counters.findCounter(name);
+		}
+
+		@Override
+		public Counter getCounter(String group, String name) {
+			return counters.findCounter(group, name);
+		}
+
+		@Override
+		public void progress() {
+		}
+
+		@Override
+		public void setStatus(String status) {
+		}
+	}
+
+	/**
+	 * Tests that requests made by record reader are published as task counters
+	 */
+	@Test
+	public void testCounters() throws Exception {
+		InMemoryS3Client.reset();
+		InMemoryS3Client.putObject("bucket", "prefix/a", new byte[100 * 1024]);
+		InMemoryS3Client.putObject("bucket", "prefix/b", new byte[10]);
+
+		Configuration conf = new Configuration(false);
+		conf.set(S3ClientFactory.S3_CLIENT_CLASS, InMemoryS3Client.class.getName());
+
+		S3InputSplit split = new S3InputSplit();
+		split.setBucketName("bucket");
+		split.setKeyPrefix("prefix/");
+
+		CountersReporter reporter = new CountersReporter();
+		S3ObjectRecordReader reader = new S3ObjectRecordReader();
+		reader.initialize(split, new MapContext<Object, Object, Object, Object>(conf, new TaskAttemptID(), null, null,
+				null, reporter, split));
+
+		while (reader.nextKeyValue()) {
+			InputStream in = reader.getCurrentValue().getObjectContent();
+			while (in.read(new byte[1000]) >= 0) {
+			}
+		}
+		S3Metrics metrics = reader.reader.getMetrics();
+		reader.close();
+
+		Assert.assertEquals(1, reporter.getCounter(S3Counter.LIST_REQUESTS).getValue());
+		Assert.assertEquals(2, reporter.getCounter(S3Counter.GET_REQUESTS).getValue());
+		Assert.assertEquals(100 * 1024 + 10, reporter.getCounter(S3Counter.BYTES_READ).getValue());
+		Assert.assertEquals(metrics.get(S3Counter.WAIT_MILLIS), reporter.getCounter(S3Counter.WAIT_MILLIS).getValue());
+		Assert.assertEquals(2, metrics.getFirstByteLatency().getCount());
+		Assert.assertEquals(2, metrics.getFullBodyLatency().getCount());
+	}
+
+	/**
+	 * Tests that only "503 Slow Down" responses are counted as throttling
+	 */
+	@Test
+	public void testThrottled() {
+		S3Metrics metrics = new S3Metrics();
+
+		AmazonServiceException slowDown = new AmazonServiceException("Please reduce your request rate.");
+		slowDown.setStatusCode(503);
+		slowDown.setErrorCode("SlowDown");
+		metrics.addFailure(slowDown);
+
+		AmazonServiceException noSuchKey = new AmazonServiceException("The specified key does not exist");
+		noSuchKey.setStatusCode(404);
+		noSuchKey.setErrorCode("NoSuchKey");
+		metrics.addFailure(noSuchKey);
+
+		Assert.assertEquals(1, metrics.get(S3Counter.THROTTLED));
+	}
+
+	/**
+	 * Tests that percentiles are estimated within the bucket resolution
+	 */
+	@Test
+	public void testLatencyHistogram() {
+		S3LatencyHistogram histogram = new S3LatencyHistogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.add(i * 1000000L);
+		}
+
+		Assert.assertEquals(1000, histogram.getCount());
+		Assert.assertEquals(500, histogram.getPercentile(50), 500 * 0.19);
+		Assert.assertEquals(990, histogram.getPercentile(99), 990 * 0.19);
+		Assert.assertEquals(1000, histogram.getPercentile(100), 0.0);
+		Assert.assertEquals(1000, histogram.getMax(), 0.0);
+	}
+}
@@ -0,0 +1,105 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * S3 multipart output stream test
+ * 
+ * @author seljaz
+ *
+ */
+public class S3MultipartOutputStreamTest {
+
+	static String BUCKET = "bucket";
+
+	InMemoryS3Client s3Client;
+
+	@Before
+	public void setUp() {
+		InMemoryS3Client.reset();
+		InMemoryS3Client.putObject(BUCKET, "other", new byte[0]);
+		s3Client = new InMemoryS3Client();
+	}
+
+	byte[] createContent(int length) {
+		byte[] content = new byte[length];
+		for (int i = 0; i < length; i++) {
+			content[i] = (byte) (i % 13);
+		}
+		return content;
+	}
+
+	/**
+	 * Tests that parts written in chunks of different size are uploaded in order and object is visible only after
+	 * it is completed
+	 */
+	@Test
+	public void testMultipartUpload() throws IOException {
+		byte[] content = createContent(95);
+
+		S3MultipartOutputStream out = new S3MultipartOutputStream(s3Client, BUCKET, "out/a", 10, 3);
+		int offset = 0;
+		int chunk = 1;
+		while (offset < content.length) {
+			int length = Math.min(chunk, content.length - offset);
+			out.write(content, offset, length);
+			offset += length;
+			chunk = chunk * 2 % 23;
+		}
+		out.close();
+
+		Assert.assertEquals(1, InMemoryS3Client.uploads.size());
+		Assert.assertNull(InMemoryS3Client.buckets.get(BUCKET).get("out/a"));
+
+		out.complete();
+
+		Assert.assertTrue(InMemoryS3Client.uploads.isEmpty());
+		Assert.assertTrue(Arrays.equals(content, InMemoryS3Client.buckets.get(BUCKET).get("out/a").content));
+		Assert.assertTrue(out.numOfBuffers <= 4);
+	}
+
+	/**
+	 * Tests that object smaller than single part is uploaded with single request
+	 */
+	@Test
+	public void testSmallObject() throws IOException {
+		S3MultipartOutputStream out = new S3MultipartOutputStream(s3Client, BUCKET, "out/a", 10, 3);
+		out.write(createContent(5));
+		out.close();
+
+		Assert.assertTrue(InMemoryS3Client.uploads.isEmpty());
+		Assert.assertNull(InMemoryS3Client.buckets.get(BUCKET).get("out/a"));
+
+		out.complete();
+
+		Assert.assertTrue(Arrays.equals(createContent(5), InMemoryS3Client.buckets.get(BUCKET).get("out/a").content));
+	}
+
+	/**
+	 * Tests that aborted upload doesn't create the object
+	 */
+	@Test
+	public void testAbort() throws IOException {
+		S3MultipartOutputStream out = new S3MultipartOutputStream(s3Client, BUCKET, "out/a", 10, 3);
+		out.write(createContent(25));
+		out.abort();
+
+		Assert.assertTrue(InMemoryS3Client.uploads.isEmpty());
+		Assert.assertNull(InMemoryS3Client.buckets.get(BUCKET).get("out/a"));
+	}
+
+	/**
+	 * Tests that object cannot be completed before all parts are written
+	 */
+	@Test(expected = IOException.class)
+	public void testCompleteBeforeClose() throws IOException {
+		S3MultipartOutputStream out = new S3MultipartOutputStream(s3Client, BUCKET, "out/a", 10, 3);
+		out.write(createContent(25));
+		out.complete();
+	}
+}
@@ -0,0 +1,158 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * S3 object cache test
+ * 
+ * @author seljaz
+ *
+ */
+public class S3ObjectCacheTest {
+
+	static String BUCKET = "bucket";
+
+	File directory;
+	S3BucketReader reader;
+
+	@Before
+	public void setUp() throws IOException {
+		InMemoryS3Client.reset();
+		for (int i = 0; i < 10; i++) {
+			byte[] content = new byte[100];
+			Arrays.fill(content, (byte) i);
+			InMemoryS3Client.putObject(BUCKET, "key" + i, content);
+		}
+
+		directory = File.createTempFile("s3cache", "");
+		directory.delete();
+
+		reader = new S3BucketReader(new InMemoryS3Client(), BUCKET, null, null, 100);
+	}
+
+	@After
+	public void tearDown() {
+		delete(directory);
+	}
+
+	void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	byte[] read(S3Object object) throws IOException {
+		InputStream in = object.getObjectContent();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) >= 0) {
+			out.write(b);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+	/**
+	 * Tests that metadata of the object is kept when it is cached and when it is read from the cache
+	 */
+	@Test
+	public void testMetadata() throws IOException {
+		S3ObjectCache cache = new S3ObjectCache(directory, 10000);
+
+		S3ObjectSummary objectSummary = new S3ObjectSummary();
+		objectSummary.setBucketName(BUCKET);
+		objectSummary.setKey("a.log");
+		objectSummary.setETag("etag");
+		objectSummary.setLastModified(new Date(1000));
+
+		S3Object object = new S3Object();
+		object.setBucketName(BUCKET);
+		object.setKey("a.log");
+		object.getObjectMetadata().setContentLength(3);
+		object.getObjectMetadata().setContentEncoding("gzip");
+		object.getObjectMetadata().setContentType("text/plain");
+		object.getObjectMetadata().addUserMetadata("source", "test");
+		object.setObjectContent(new ByteArrayInputStream(new byte[3]));
+
+		for (S3Object cached : new S3Object[] { cache.put(objectSummary, object), cache.get(objectSummary) }) {
+			Assert.assertEquals(3, read(cached).length);
+			Assert.assertEquals(3, cached.getObjectMetadata().getContentLength());
+			Assert.assertEquals("gzip", cached.getObjectMetadata().getContentEncoding());
+			Assert.assertEquals("text/plain", cached.getObjectMetadata().getContentType());
+			Assert.assertEquals("test", cached.getObjectMetadata().getUserMetadata().get("source"));
+		}
+		Assert.assertEquals("etag", cache.get(objectSummary).getObjectMetadata().getETag());
+		Assert.assertEquals(1000, cache.get(objectSummary).getObjectMetadata().getLastModified().getTime());
+	}
+
+	/**
+	 * Tests that cached object is read without S3 request and changed object is read again
+	 */
+	@Test
+	public void testGetObject() throws IOException {
+		reader.setCache(new S3ObjectCache(directory, 10000));
+		S3ObjectSummary objectSummary = reader.getNextKey();
+
+		Assert.assertEquals(100, read(reader.getObject(objectSummary)).length);
+		Assert.assertEquals(1, InMemoryS3Client.getRequests.get());
+
+		S3Object cached = reader.getObject(objectSummary);
+		Assert.assertEquals(100, cached.getObjectMetadata().getContentLength());
+		Assert.assertEquals(objectSummary.getETag(), cached.getObjectMetadata().getETag());
+		Assert.assertEquals(0, read(cached)[0]);
+		Assert.assertEquals(1, InMemoryS3Client.getRequests.get());
+
+		// new ETag is not in the cache
+		InMemoryS3Client.putObject(BUCKET, "key0", new byte[] { 1, 2, 3 });
+		S3ObjectSummary changed = new S3BucketReader(new InMemoryS3Client(), BUCKET, null, null, 1).getNextKey();
+		Assert.assertEquals(3, read(reader.getObject(changed)).length);
+		Assert.assertEquals(2, InMemoryS3Client.getRequests.get());
+	}
+
+	/**
+	 * Tests that least recently used objects are evicted
+	 */
+	@Test
+	public void testEvict() throws IOException {
+		S3ObjectCache cache = new S3ObjectCache(directory, 500);
+		reader.setCache(cache);
+
+		S3ObjectSummary[] objectSummaries = new S3ObjectSummary[10];
+		for (int i = 0; i < 10; i++) {
+			objectSummaries[i] = reader.getNextKey();
+		}
+
+		for (int i = 0; i < 5; i++) {
+			read(reader.getObject(objectSummaries[i]));
+			cache.getFile(objectSummaries[i]).setLastModified(1000000L * (i + 1));
+		}
+		Assert.assertEquals(5, cache.listObjectFiles().size());
+
+		// key0 was used recently
+		cache.getFile(objectSummaries[0]).setLastModified(1000000L * 10);
+
+		read(reader.getObject(objectSummaries[5]));
+		Assert.assertEquals(4, cache.listObjectFiles().size());
+		Assert.assertTrue(cache.getFile(objectSummaries[0]).exists());
+		Assert.assertFalse(cache.getFile(objectSummaries[1]).exists());
+		Assert.assertTrue(cache.getFile(objectSummaries[5]).exists());
+	}
+}
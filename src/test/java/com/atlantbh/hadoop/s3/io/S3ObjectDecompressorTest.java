@@ -0,0 +1,77 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+
+/**
+ * S3 object decompressor test
+ * 
+ * @author seljaz
+ *
+ */
+public class S3ObjectDecompressorTest {
+
+	static byte[] gzip(String content) throws IOException {
+		CompressionCodec codec = ReflectionUtils.newInstance(GzipCodec.class, new Configuration());
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		OutputStream out = codec.createOutputStream(baos);
+		out.write(content.getBytes());
+		out.close();
+		return baos.toByteArray();
+	}
+
+	static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) >= 0) {
+			out.write(b);
+		}
+		in.close();
+		return out.toString();
+	}
+
+	S3Object createObject(String key, String contentEncoding, byte[] content) {
+		S3Object object = new S3Object();
+		object.setKey(key);
+		object.setObjectMetadata(new ObjectMetadata());
+		object.getObjectMetadata().setContentLength(content.length);
+		object.getObjectMetadata().setContentEncoding(contentEncoding);
+		object.setObjectContent(new ByteArrayInputStream(content));
+		return object;
+	}
+
+	/**
+	 * Tests choosing the codec by key suffix and Content-Encoding
+	 */
+	@Test
+	public void testDecompress() throws IOException {
+		S3ObjectDecompressor decompressor = new S3ObjectDecompressor(new Configuration());
+
+		S3Object bySuffix = createObject("logs/a.gz", null, gzip("compressed by suffix"));
+		Assert.assertTrue(decompressor.decompress(bySuffix));
+		Assert.assertEquals(-1, bySuffix.getObjectMetadata().getContentLength());
+		Assert.assertEquals("compressed by suffix", read(bySuffix.getObjectContent()));
+
+		S3Object byEncoding = createObject("logs/a", "gzip", gzip("compressed by encoding"));
+		Assert.assertTrue(decompressor.decompress(byEncoding));
+		Assert.assertEquals("compressed by encoding", read(byEncoding.getObjectContent()));
+
+		S3Object plain = createObject("logs/a.txt", null, "plain".getBytes());
+		Assert.assertFalse(decompressor.decompress(plain));
+		Assert.assertEquals(5, plain.getObjectMetadata().getContentLength());
+		Assert.assertEquals("plain", read(plain.getObjectContent()));
+	}
+}
@@ -0,0 +1,123 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * S3 object prefetcher test
+ * 
+ * @author seljaz
+ *
+ */
+public class S3ObjectPrefetcherTest {
+
+	static String BUCKET = "bucket";
+
+	S3ObjectPrefetcher prefetcher;
+
+	@Before
+	public void setUp() {
+		InMemoryS3Client.reset();
+
+		for (int i = 0; i < 10; i++) {
+			InMemoryS3Client.putObject(BUCKET, "key" + i, new byte[i * 10]);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		if (prefetcher != null) {
+			prefetcher.close();
+		}
+	}
+
+	S3BucketReader reader() {
+		return new S3BucketReader(new InMemoryS3Client(), BUCKET, null, null, 100);
+	}
+
+	S3ObjectSummary summary(String key) {
+		return InMemoryS3Client.toSummary(BUCKET, key, InMemoryS3Client.getStoredObject(BUCKET, key));
+	}
+
+	int read(InputStream in) throws IOException {
+		int count = 0;
+		while (in.read() >= 0) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Tests that objects are returned in key order with their content
+	 */
+	@Test
+	public void testOrder() throws IOException {
+		prefetcher = new S3ObjectPrefetcher(reader(), 4, Long.MAX_VALUE);
+
+		int next = 0;
+		for (int i = 0; i < 10; i++) {
+			while (next < 10 && prefetcher.add(summary("key" + next))) {
+				next++;
+			}
+
+			S3Object object = prefetcher.next();
+			Assert.assertEquals("key" + i, object.getKey());
+			Assert.assertEquals("key" + i, prefetcher.getCurrentKey().getKey());
+			Assert.assertEquals(i * 10, read(object.getObjectContent()));
+		}
+		Assert.assertTrue(prefetcher.isEmpty());
+		Assert.assertEquals(10, InMemoryS3Client.getRequests.get());
+	}
+
+	/**
+	 * Tests that number of objects and buffered bytes are limited
+	 */
+	@Test
+	public void testLimits() throws IOException {
+		prefetcher = new S3ObjectPrefetcher(reader(), 3, 50);
+
+		// window is limited by number of objects
+		Assert.assertTrue(prefetcher.add(summary("key0")));
+		Assert.assertTrue(prefetcher.add(summary("key1")));
+		Assert.assertTrue(prefetcher.add(summary("key2")));
+		Assert.assertFalse(prefetcher.add(summary("key3")));
+
+		// 10 + 20 bytes are buffered, 30 more would exceed the limit
+		prefetcher.next();
+		Assert.assertFalse(prefetcher.add(summary("key3")));
+		prefetcher.next();
+		Assert.assertTrue(prefetcher.add(summary("key3")));
+		prefetcher.next();
+		prefetcher.next();
+
+		// object larger than the limit is streamed and fetched alone
+		Assert.assertTrue(prefetcher.add(summary("key6")));
+		Assert.assertFalse(prefetcher.add(summary("key1")));
+		Assert.assertFalse(prefetcher.add(summary("key7")));
+		Assert.assertEquals(60, read(prefetcher.next().getObjectContent()));
+		Assert.assertTrue(prefetcher.add(summary("key1")));
+		Assert.assertEquals(10, read(prefetcher.next().getObjectContent()));
+	}
+
+	/**
+	 * Tests that S3 client exception is thrown by the reader
+	 */
+	@Test(expected = AmazonServiceException.class)
+	public void testMissingObject() throws IOException {
+		prefetcher = new S3ObjectPrefetcher(reader(), 2, Long.MAX_VALUE);
+
+		S3ObjectSummary objectSummary = summary("key0");
+		objectSummary.setKey("missing");
+		prefetcher.add(objectSummary);
+		prefetcher.next();
+	}
+}
@@ -7,6 +7,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Date;
 
 import org.junit.Assert;
@@ -77,4 +79,123 @@ public class S3ObjectWritableTest {
 			fail("Exeception while writing data to out stream.");
 		}
 	}
+
+	/**
+	 * Stream returning content in small parts, as network streams do
+	 */
+	static class PartialInputStream extends ByteArrayInputStream {
+		PartialInputStream(byte[] buf) {
+			super(buf);
+		}
+
+		@Override
+		public synchronized int read(byte[] b, int off, int len) {
+			return super.read(b, off, Math.min(len, 1000));
+		}
+	}
+
+	S3ObjectWritable createObject(byte[] content, long contentLength) {
+		S3ObjectWritable obj = new S3ObjectWritable();
+		obj.setBucketName("bucketName");
+		obj.setKey("key");
+		obj.setObjectMetadata(new ObjectMetadata());
+		obj.getObjectMetadata().setContentLength(contentLength);
+		obj.getObjectMetadata().setLastModified(new Date());
+		obj.setObjectContent(new PartialInputStream(content));
+		return obj;
+	}
+
+	byte[] readContent(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) >= 0) {
+			out.write(b);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Tests serialization of content larger than single chunk read in parts and reuse of read buffer
+	 */
+	@Test
+	public void testReadWriteChunked() throws IOException {
+		byte[] large = new byte[3 * S3ObjectWritable.CHUNK_SIZE + 123];
+		for (int i = 0; i < large.length; i++) {
+			large[i] = (byte) i;
+		}
+		byte[] small = new byte[] { 1, 2, 3 };
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(baos);
+		createObject(large, large.length).write(dos);
+		createObject(small, small.length).write(dos);
+
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(baos.toByteArray()));
+		S3ObjectWritable objOut = new S3ObjectWritable();
+
+		objOut.readFields(dis);
+		Assert.assertTrue(Arrays.equals(large, readContent(objOut.getObjectContent())));
+		byte[] buffer = objOut.inBuffers.get(0);
+
+		objOut.readFields(dis);
+		Assert.assertTrue(Arrays.equals(small, readContent(objOut.getObjectContent())));
+		Assert.assertSame(buffer, objOut.inBuffers.get(0));
+	}
+
+	/**
+	 * Tests serialization of content of unknown length
+	 */
+	@Test
+	public void testReadWriteUnknownLength() throws IOException {
+		byte[] content = new byte[2 * S3ObjectWritable.CHUNK_SIZE + 5];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) (i % 7);
+		}
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		createObject(content, -1).write(new DataOutputStream(baos));
+
+		S3ObjectWritable objOut = new S3ObjectWritable();
+		objOut.readFields(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+
+		Assert.assertEquals(content.length, objOut.getObjectMetadata().getContentLength());
+		Assert.assertTrue(Arrays.equals(content, readContent(objOut.getObjectContent())));
+	}
+
+	/**
+	 * Tests that content shorter than its length is not written
+	 */
+	@Test(expected = IOException.class)
+	public void testWritePrematureEnd() throws IOException {
+		createObject(new byte[10], 20).write(new DataOutputStream(new ByteArrayOutputStream()));
+	}
+
+	/**
+	 * Tests that content larger than single buffer is read into several buffers, with buffer size reduced for testing
+	 */
+	@Test
+	public void testReadWriteSegmented() throws IOException {
+		byte[] content = new byte[3 * S3ObjectWritable.CHUNK_SIZE + 17];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) (i % 251);
+		}
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(baos);
+		createObject(content, content.length).write(dos);
+		createObject(content, -1).write(dos);
+
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(baos.toByteArray()));
+		S3ObjectWritable objOut = new S3ObjectWritable();
+		objOut.segmentSize = 50000;
+		for (int i = 0; i < 2; i++) {
+			objOut.readFields(dis);
+			Assert.assertEquals(content.length, objOut.getObjectMetadata().getContentLength());
+			Assert.assertTrue(Arrays.equals(content, readContent(objOut.getObjectContent())));
+			Assert.assertTrue(objOut.numOfSegments > 1);
+			for (byte[] buffer : objOut.inBuffers) {
+				Assert.assertTrue(buffer.length <= objOut.segmentSize);
+			}
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,173 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.InvalidJobConfException;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.JobID;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * S3 output format test
+ * 
+ * @author seljaz
+ *
+ */
+public class S3OutputFormatTest {
+
+	static String BUCKET = "bucket";
+
+	Configuration conf;
+	TaskAttemptContext context;
+	File uploadsDir;
+
+	@Before
+	public void setUp() throws Exception {
+		InMemoryS3Client.reset();
+		InMemoryS3Client.putObject(BUCKET, "other", new byte[0]);
+
+		conf = new Configuration(false);
+		conf.set(S3ClientFactory.S3_CLIENT_CLASS, InMemoryS3Client.class.getName());
+		conf.set(S3OutputFormat.S3_OUTPUT_BUCKET_NAME, BUCKET);
+		conf.set(S3OutputFormat.S3_OUTPUT_KEY_PREFIX, "out/");
+
+		uploadsDir = File.createTempFile("uploads", "");
+		uploadsDir.delete();
+		uploadsDir.deleteOnExit();
+		conf.set(S3OutputFormat.S3_OUTPUT_UPLOADS_DIR, uploadsDir.toURI().toString());
+		context = new TaskAttemptContext(conf, new TaskAttemptID("jt", 1, false, 3, 0));
+	}
+
+	OutputCommitter write() throws Exception {
+		S3OutputFormat<Text, Text> format = new S3OutputFormat<Text, Text>();
+		format.checkOutputSpecs(new JobContext(conf, new JobID()));
+		OutputCommitter committer = format.getOutputCommitter(context);
+
+		RecordWriter<Text, Text> writer = format.getRecordWriter(context);
+		writer.write(new Text("a"), new Text("b"));
+		writer.write(new Text("c"), null);
+		writer.close(context);
+		return committer;
+	}
+
+	/**
+	 * Tests that task output becomes visible when the task is committed
+	 */
+	@Test
+	public void testCommit() throws Exception {
+		OutputCommitter committer = write();
+
+		Assert.assertNull(InMemoryS3Client.buckets.get(BUCKET).get("out/part-r-00003"));
+		Assert.assertTrue(committer.needsTaskCommit(context));
+
+		committer.commitTask(context);
+
+		Assert.assertEquals("a\tb\nc\n", new String(InMemoryS3Client.buckets.get(BUCKET).get("out/part-r-00003").content));
+		Assert.assertFalse(committer.needsTaskCommit(context));
+	}
+
+	/**
+	 * Tests that output of aborted task is discarded
+	 */
+	@Test
+	public void testAbort() throws Exception {
+		OutputCommitter committer = write();
+		committer.abortTask(context);
+
+		Assert.assertNull(InMemoryS3Client.buckets.get(BUCKET).get("out/part-r-00003"));
+		Assert.assertFalse(committer.needsTaskCommit(context));
+	}
+
+	/**
+	 * Tests that uploads of failed task attempt are aborted by task cleanup attempt running in another JVM, and that
+	 * records of objects with the same file name don't overwrite each other
+	 */
+	@Test
+	public void testAbortInOtherJVM() throws Exception {
+		context.getConfiguration().setInt(S3OutputFormat.S3_OUTPUT_PART_SIZE, S3OutputFormat.MIN_PART_SIZE);
+		RecordWriter<Text, Text> writer = new S3OutputFormat<Text, Text>().getRecordWriter(context);
+		writer.write(new Text("a"), new Text(new byte[S3OutputFormat.MIN_PART_SIZE + 1]));
+		for (final String key : new String[] { "out/a/part", "out/b/part" }) {
+			new S3MultipartOutputStream(new InMemoryS3Client(), BUCKET, key, 10, 1) {
+				@Override
+				protected void uploadStarted(String uploadId) throws IOException {
+					S3OutputCommitter.recordUpload(context.getConfiguration(), context.getTaskAttemptID(), key,
+							uploadId);
+				}
+			}.write(new byte[25]);
+		}
+		Assert.assertEquals(3, InMemoryS3Client.uploads.size());
+
+		// task cleanup attempt doesn't know uploads of the failed attempt
+		S3OutputCommitter.removeUploads(context.getTaskAttemptID());
+		new S3OutputCommitter().abortTask(context);
+
+		Assert.assertTrue(InMemoryS3Client.uploads.isEmpty());
+		Assert.assertFalse(new File(uploadsDir, context.getTaskAttemptID().getJobID() + "/"
+				+ context.getTaskAttemptID()).exists());
+	}
+
+	/**
+	 * Tests that uploads left by killed task attempts of the job are aborted on job cleanup, while uploads of other
+	 * writers under the same prefix are not
+	 */
+	@Test
+	public void testCleanupJob() throws Exception {
+		S3MultipartOutputStream other = new S3MultipartOutputStream(new InMemoryS3Client(), BUCKET, "out/other", 10, 1);
+		other.write(new byte[25]);
+		Assert.assertEquals(1, InMemoryS3Client.uploads.size());
+
+		// task attempt is killed after the upload is started
+		context.getConfiguration().setInt(S3OutputFormat.S3_OUTPUT_PART_SIZE, S3OutputFormat.MIN_PART_SIZE);
+		RecordWriter<Text, Text> writer = new S3OutputFormat<Text, Text>().getRecordWriter(context);
+		writer.write(new Text("a"), new Text(new byte[S3OutputFormat.MIN_PART_SIZE + 1]));
+		Assert.assertEquals(2, InMemoryS3Client.uploads.size());
+		S3OutputCommitter.removeUploads(context.getTaskAttemptID());
+
+		new S3OutputCommitter().cleanupJob(new JobContext(conf, context.getTaskAttemptID().getJobID()));
+
+		Assert.assertEquals(1, InMemoryS3Client.uploads.size());
+		Assert.assertEquals("out/other", InMemoryS3Client.uploads.values().iterator().next().key);
+		Assert.assertFalse(new File(uploadsDir, context.getTaskAttemptID().getJobID().toString()).exists());
+	}
+
+	/**
+	 * Tests that records of committed uploads are deleted
+	 */
+	@Test
+	public void testCommitLargeObject() throws Exception {
+		context.getConfiguration().setInt(S3OutputFormat.S3_OUTPUT_PART_SIZE, S3OutputFormat.MIN_PART_SIZE);
+		S3OutputFormat<Text, Text> format = new S3OutputFormat<Text, Text>();
+		OutputCommitter committer = format.getOutputCommitter(context);
+		RecordWriter<Text, Text> writer = format.getRecordWriter(context);
+		writer.write(new Text("a"), new Text(new byte[S3OutputFormat.MIN_PART_SIZE + 1]));
+		writer.close(context);
+
+		File attemptDir = new File(new File(uploadsDir, context.getTaskAttemptID().getJobID().toString()), context
+				.getTaskAttemptID().toString());
+		Assert.assertTrue(attemptDir.exists());
+
+		committer.commitTask(context);
+		Assert.assertFalse(attemptDir.exists());
+		Assert.assertNotNull(InMemoryS3Client.buckets.get(BUCKET).get("out/part-r-00003"));
+		Assert.assertTrue(InMemoryS3Client.uploads.isEmpty());
+
+		committer.cleanupJob(new JobContext(conf, context.getTaskAttemptID().getJobID()));
+	}
+
+	@Test(expected = InvalidJobConfException.class)
+	public void testEmptyBucketName() throws Exception {
+		conf.set(S3OutputFormat.S3_OUTPUT_BUCKET_NAME, "");
+		new S3OutputFormat<NullWritable, Text>().checkOutputSpecs(new JobContext(conf, new JobID()));
+	}
+}
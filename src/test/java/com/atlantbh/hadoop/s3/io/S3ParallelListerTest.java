@@ -0,0 +1,72 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * S3 parallel lister test
+ * 
+ * @author seljaz
+ *
+ */
+public class S3ParallelListerTest {
+
+	static String BUCKET = "bucket";
+
+	List<String> expected = new ArrayList<String>();
+
+	@Before
+	public void setUp() {
+		InMemoryS3Client.reset();
+
+		// top level keys are interleaved with common prefixes
+		String[] keys = new String[] { "logs/a", "logs/a.txt", "logs/a/1", "logs/a/2", "logs/a/3", "logs/b",
+				"logs/b/c/1", "logs/b/c/2", "logs/b0", "logs/c/1", "logs/d/1", "logs/d/2", "other/1" };
+
+		for (String key : keys) {
+			InMemoryS3Client.putObject(BUCKET, key, key.getBytes());
+			if (key.startsWith("logs/")) {
+				expected.add(key);
+			}
+		}
+	}
+
+	List<String> keys(S3ParallelLister lister) throws IOException {
+		List<String> keys = new ArrayList<String>();
+		S3ObjectSummary objectSummary;
+		while ((objectSummary = lister.getNextKey()) != null) {
+			keys.add(objectSummary.getKey());
+		}
+		return keys;
+	}
+
+	/**
+	 * Tests that concurrent listing of common prefixes returns keys in the same order as sequential listing
+	 */
+	@Test
+	public void testListObjectsByDelimiter() throws IOException {
+		S3ParallelLister lister = new S3ParallelLister(new InMemoryS3Client(), 3, 2);
+
+		lister.start(BUCKET, "logs/", "/");
+		Assert.assertEquals(expected, keys(lister));
+	}
+
+	/**
+	 * Tests listing of explicitly defined shards
+	 */
+	@Test
+	public void testListObjectsByShards() throws IOException {
+		S3ParallelLister lister = new S3ParallelLister(new InMemoryS3Client(), 4, 2);
+
+		lister.start(BUCKET, "logs/", new String[] { "d", "b", "a", "c", "a/" });
+		List<String> keys = keys(lister);
+		Assert.assertEquals(expected, keys);
+	}
+}
@@ -0,0 +1,118 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.s3.model.S3Object;
+
+/**
+ * S3 ranged input stream test
+ * 
+ * @author seljaz
+ *
+ */
+public class S3RangedInputStreamTest {
+
+	static String BUCKET = "bucket";
+
+	byte[] content = new byte[10000];
+
+	@Before
+	public void setUp() {
+		InMemoryS3Client.reset();
+
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) (i * 31);
+		}
+		InMemoryS3Client.putObject(BUCKET, "large", content);
+		InMemoryS3Client.putObject(BUCKET, "small", new byte[10]);
+	}
+
+	byte[] read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[777];
+		int read;
+		while ((read = in.read(buffer)) >= 0) {
+			out.write(buffer, 0, read);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+	/**
+	 * Tests that ranges are read in order
+	 */
+	@Test
+	public void testRead() throws IOException {
+		S3RangedInputStream in = new S3RangedInputStream(new InMemoryS3Client(), BUCKET, "large",
+				InMemoryS3Client.md5(content), content.length, 1024, 3);
+
+		Assert.assertTrue(Arrays.equals(content, read(in)));
+		Assert.assertEquals(10, InMemoryS3Client.getRequests.get());
+	}
+
+	/**
+	 * Tests that ranges after the read ahead end are fetched only when the stream reaches them
+	 */
+	@Test
+	public void testReadAheadEnd() throws IOException {
+		S3BucketReader reader = new S3BucketReader(new InMemoryS3Client(), BUCKET, null, null, 100);
+		S3RangedInputStream in = new S3RangedInputStream(reader, BUCKET, "large", null, 0, content.length, 1024, 3,
+				1500);
+
+		byte[] head = new byte[2048];
+		new DataInputStream(in).readFully(head);
+		Assert.assertEquals(2, InMemoryS3Client.getRequests.get());
+
+		Assert.assertEquals(content[2048] & 0xff, in.read());
+		Assert.assertEquals(3, InMemoryS3Client.getRequests.get());
+		byte[] rest = read(in);
+		Assert.assertEquals(content.length - 2049, rest.length);
+		Assert.assertEquals(10, InMemoryS3Client.getRequests.get());
+	}
+
+	/**
+	 * Tests that large objects are read in ranges by bucket reader
+	 */
+	@Test
+	public void testGetObject() throws IOException {
+		S3BucketReader reader = new S3BucketReader(new InMemoryS3Client(), BUCKET, null, null, 100);
+		reader.setRangedGet(1000, 4000, 2);
+
+		// large object is read with HEAD request and 3 range requests
+		S3Object large = reader.getObject(reader.getNextKey());
+		Assert.assertEquals(content.length, large.getObjectMetadata().getContentLength());
+		Assert.assertTrue(Arrays.equals(content, read(large.getObjectContent())));
+		Assert.assertEquals(1, reader.getMetrics().get(S3Counter.HEAD_REQUESTS));
+		Assert.assertEquals(3, reader.getMetrics().get(S3Counter.GET_REQUESTS));
+
+		S3Object small = reader.getObject(reader.getNextKey());
+		Assert.assertEquals(10, read(small.getObjectContent()).length);
+		Assert.assertEquals(1, reader.getMetrics().get(S3Counter.HEAD_REQUESTS));
+		Assert.assertEquals(4, reader.getMetrics().get(S3Counter.GET_REQUESTS));
+		Assert.assertEquals(content.length + 10, reader.getMetrics().get(S3Counter.BYTES_READ));
+	}
+
+	/**
+	 * Tests that object changed while being read is not read
+	 */
+	@Test(expected = IOException.class)
+	public void testReadChanged() throws Exception {
+		S3RangedInputStream in = new S3RangedInputStream(new InMemoryS3Client(), BUCKET, "large",
+				InMemoryS3Client.md5(new byte[0]), content.length, 1024, 3);
+		try {
+			read(in);
+		} finally {
+			// ranges still being fetched would be counted by the next test
+			in.executor.awaitTermination(10, TimeUnit.SECONDS);
+		}
+	}
+}
@@ -1,7 +1,18 @@
 package com.atlantbh.hadoop.s3.io;
 
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.junit.Assert;
 import org.junit.Test;
 
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
 /**
  * S3 record reader test
  * 
@@ -20,7 +31,101 @@ public class S3RecordReaderTest {
 		//TODO Not implemented
 	}
 	
-	public void testGetProgress() {
-		//TODO Not implemented
+	/**
+	 * Tests reading keys embedded in input split. Test credentials are not valid, so any call to S3 would fail.
+	 */
+	@Test
+	public void testNextKeyValueEmbeddedKeys() throws Exception {
+		List<S3ObjectSummary> objectSummaries = new ArrayList<S3ObjectSummary>();
+		for (int i = 0; i < 3; i++) {
+			S3ObjectSummary objectSummary = new S3ObjectSummary();
+			objectSummary.setBucketName("bucket");
+			objectSummary.setKey("prefix/" + i);
+			objectSummary.setSize(i);
+			objectSummary.setLastModified(new Date());
+			objectSummaries.add(objectSummary);
+		}
+
+		S3InputSplit split = new S3InputSplit();
+		split.setBucketName("bucket");
+		split.setKeyPrefix("prefix/");
+		split.setLastKey("prefix/2");
+		split.setObjectSummaries(objectSummaries);
+
+		S3ObjectSummaryRecordReader reader = new S3ObjectSummaryRecordReader();
+		reader.initialize(split, new TaskAttemptContext(new Configuration(), new TaskAttemptID()));
+
+		for (int i = 0; i < 3; i++) {
+			Assert.assertTrue(reader.nextKeyValue());
+			Assert.assertEquals("bucket/prefix/" + i, reader.getCurrentKey().toString());
+			Assert.assertEquals(i, reader.getCurrentValue().getSize());
+		}
+		Assert.assertFalse(reader.nextKeyValue());
+	}
+
+	S3ObjectRecordReader createReader(int size, long length) throws Exception {
+		InMemoryS3Client.reset();
+		InMemoryS3Client.putObject("bucket", "prefix/a", new byte[100]);
+		InMemoryS3Client.putObject("bucket", "prefix/b", new byte[100]);
+
+		Configuration conf = new Configuration(false);
+		conf.set(S3ClientFactory.S3_CLIENT_CLASS, InMemoryS3Client.class.getName());
+
+		S3InputSplit split = new S3InputSplit();
+		split.setBucketName("bucket");
+		split.setKeyPrefix("prefix/");
+		split.setSize(size);
+		split.setObjectsLength(length);
+
+		S3ObjectRecordReader reader = new S3ObjectRecordReader();
+		reader.initialize(split, new TaskAttemptContext(conf, new TaskAttemptID()));
+		return reader;
+	}
+
+	/**
+	 * Reads objects of the split in halves and returns progress reported after each read
+	 */
+	List<Float> readProgress(S3ObjectRecordReader reader) throws Exception {
+		List<Float> progress = new ArrayList<Float>();
+		progress.add(reader.getProgress());
+		while (reader.nextKeyValue()) {
+			InputStream in = reader.getCurrentValue().getObjectContent();
+			in.read(new byte[50]);
+			progress.add(reader.getProgress());
+			in.read(new byte[50]);
+			progress.add(reader.getProgress());
+		}
+		progress.add(reader.getProgress());
+		reader.close();
+		return progress;
+	}
+
+	/**
+	 * Tests that progress includes bytes read from current object
+	 */
+	@Test
+	public void testGetProgress() throws Exception {
+		List<Float> expected = new ArrayList<Float>();
+		expected.add(0.0f);
+		expected.add(0.25f);
+		expected.add(0.5f);
+		expected.add(0.75f);
+		expected.add(1.0f);
+		expected.add(1.0f);
+
+		// by bytes
+		Assert.assertEquals(expected, readProgress(createReader(2, 200)));
+		// by keys, size of objects is not known
+		Assert.assertEquals(expected, readProgress(createReader(2, -1)));
+	}
+
+	/**
+	 * Tests that progress of split of unknown size is never invalid
+	 */
+	@Test
+	public void testGetProgressUnknownSize() throws Exception {
+		for (float progress : readProgress(createReader(0, -1))) {
+			Assert.assertEquals(0.0f, progress, 0.0f);
+		}
 	}
 }
@@ -0,0 +1,176 @@
+package com.atlantbh.hadoop.s3.io;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.model.S3Object;
+
+/**
+ * S3 request governor test
+ * 
+ * @author seljaz
+ *
+ */
+public class S3RequestGovernorTest {
+
+	static AmazonServiceException createException(int statusCode, String errorCode) {
+		AmazonServiceException e = new AmazonServiceException(errorCode);
+		e.setStatusCode(statusCode);
+		e.setErrorCode(errorCode);
+		return e;
+	}
+
+	/**
+	 * Request failing the given number of times before it succeeds
+	 */
+	static class FailingRequest implements Callable<String> {
+		int failures;
+		AmazonServiceException exception;
+
+		FailingRequest(int failures, AmazonServiceException exception) {
+			this.failures = failures;
+			this.exception = exception;
+		}
+
+		@Override
+		public String call() throws Exception {
+			if (failures-- > 0) {
+				throw exception;
+			}
+			return "result";
+		}
+	}
+
+	/**
+	 * Tests that throttled request is retried and the limit is decreased and increased again
+	 */
+	@Test
+	public void testRetryThrottled() {
+		S3RequestGovernor governor = new S3RequestGovernor(4, 5, 1, 10);
+		S3Metrics metrics = new S3Metrics();
+
+		Assert.assertEquals("result", governor.execute(new FailingRequest(2, createException(503, "SlowDown")),
+				S3Counter.GET_REQUESTS, metrics));
+
+		Assert.assertEquals(3, metrics.get(S3Counter.GET_REQUESTS));
+		Assert.assertEquals(2, metrics.get(S3Counter.RETRIES));
+		Assert.assertEquals(2, metrics.get(S3Counter.THROTTLED));
+		// 4 halved twice and increased by 1
+		Assert.assertEquals(2, governor.getLimit());
+
+		for (int i = 0; i < 10; i++) {
+			governor.execute(new FailingRequest(0, null), S3Counter.GET_REQUESTS, metrics);
+		}
+		Assert.assertEquals(4, governor.getLimit());
+	}
+
+	/**
+	 * Tests that client errors are not retried
+	 */
+	@Test
+	public void testNoRetryNotFound() {
+		S3RequestGovernor governor = new S3RequestGovernor(4, 5, 1, 10);
+		S3Metrics metrics = new S3Metrics();
+
+		try {
+			governor.execute(new FailingRequest(1, createException(404, "NoSuchKey")), S3Counter.GET_REQUESTS, metrics);
+			Assert.fail();
+		} catch (AmazonServiceException e) {
+			Assert.assertEquals(404, e.getStatusCode());
+		}
+		Assert.assertEquals(1, metrics.get(S3Counter.GET_REQUESTS));
+		Assert.assertEquals(0, metrics.get(S3Counter.RETRIES));
+		Assert.assertEquals(4, governor.getLimit());
+	}
+
+	/**
+	 * Tests that request fails when all retries are throttled
+	 */
+	@Test
+	public void testRetriesExhausted() {
+		S3RequestGovernor governor = new S3RequestGovernor(4, 2, 1, 10);
+		S3Metrics metrics = new S3Metrics();
+
+		try {
+			governor.execute(new FailingRequest(3, createException(503, "SlowDown")), S3Counter.GET_REQUESTS, metrics);
+			Assert.fail();
+		} catch (AmazonServiceException e) {
+			Assert.assertEquals("SlowDown", e.getErrorCode());
+		}
+		Assert.assertEquals(3, metrics.get(S3Counter.GET_REQUESTS));
+		Assert.assertEquals(2, metrics.get(S3Counter.RETRIES));
+	}
+
+	/**
+	 * Tests that number of requests in flight doesn't exceed the limit
+	 */
+	@Test
+	public void testLimitInFlight() throws Exception {
+		final S3RequestGovernor governor = new S3RequestGovernor(3, 0, 1, 10);
+		final S3Metrics metrics = new S3Metrics();
+		final AtomicInteger inFlight = new AtomicInteger();
+		final AtomicInteger maxInFlight = new AtomicInteger();
+
+		ExecutorService executor = Executors.newFixedThreadPool(10);
+		List<Future<String>> results = new ArrayList<Future<String>>();
+		for (int i = 0; i < 50; i++) {
+			results.add(executor.submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					return governor.execute(new Callable<String>() {
+						@Override
+						public String call() throws Exception {
+							int current = inFlight.incrementAndGet();
+							synchronized (maxInFlight) {
+								maxInFlight.set(Math.max(maxInFlight.get(), current));
+							}
+							Thread.sleep(2);
+							inFlight.decrementAndGet();
+							return "result";
+						}
+					}, S3Counter.GET_REQUESTS, metrics);
+				}
+			}));
+		}
+		for (Future<String> result : results) {
+			Assert.assertEquals("result", result.get());
+		}
+		executor.shutdown();
+
+		Assert.assertEquals(3, maxInFlight.get());
+	}
+
+	/**
+	 * Tests that bucket reader retries throttled requests through governor
+	 */
+	@Test
+	public void testBucketReader() throws Exception {
+		InMemoryS3Client.reset();
+		InMemoryS3Client.putObject("bucket", "a", new byte[10]);
+
+		Configuration conf = new Configuration(false);
+		conf.setBoolean(S3ClientFactory.S3_CLIENT_GOVERNOR, true);
+		conf.setLong(S3ClientFactory.S3_CLIENT_GOVERNOR_BASE_DELAY, 1);
+
+		S3BucketReader reader = new S3BucketReader(new InMemoryS3Client(), "bucket", null, null, 100);
+		reader.setGovernor(S3ClientFactory.getGovernor(conf));
+
+		InMemoryS3Client.throttledRequests.set(2);
+		S3Object object = reader.getObject(reader.getNextKey());
+		Assert.assertEquals(10, object.getObjectMetadata().getContentLength());
+
+		Assert.assertEquals(2, reader.getMetrics().get(S3Counter.THROTTLED));
+		Assert.assertEquals(2, reader.getMetrics().get(S3Counter.RETRIES));
+		Assert.assertEquals(0, S3ClientFactory.getClientConfiguration(conf).getMaxErrorRetry());
+	}
+}